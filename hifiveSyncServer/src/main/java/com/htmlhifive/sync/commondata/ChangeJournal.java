@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.commondata;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Table;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.hibernate.annotations.Index;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * 共通データの変更を追記専用で記録する変更ジャーナルエンティティ.<br>
+ * 共通データが登録、更新されるたびに1件追記されます.
+ * 通番はコミット直前に{@link ChangeJournalCounter}で採番します.<br>
+ * 通番はアプリケーションが採番するため、{@link Persistable}を実装して保存時に存在確認の検索を行わずに登録します.<br>
+ * 下り更新は通番の順に取得するため、(データモデル名, 通番)の順のインデックスと、
+ * 保持期間を過ぎたジャーナルを削除するための記録時刻のインデックスを定義しています.
+ *
+ * @author kishigam
+ */
+@Entity
+@Table(name = "CHANGE_JOURNAL")
+@org.hibernate.annotations.Table(appliesTo = "CHANGE_JOURNAL", indexes = {
+		@Index(name = "IDX_CHANGE_JOURNAL_MODEL", columnNames = { "dataModelName", "sequenceNo" }),
+		@Index(name = "IDX_CHANGE_JOURNAL_TIME", columnNames = { "journaledAt" }) })
+public class ChangeJournal implements Persistable<Long> {
+
+	private static final long serialVersionUID = -2739130582817245806L;
+
+	/**
+	 * このエンティティのID(通番).<br>
+	 * 採番されるまではnullです.
+	 */
+	@Id
+	private Long sequenceNo;
+
+	/**
+	 * 変更された共通データの同期データID.
+	 */
+	private String syncDataId;
+
+	/**
+	 * 変更された共通データのデータモデル名.
+	 */
+	private String dataModelName;
+
+	/**
+	 * 変更時点での共通データの最終更新時刻(ミリ秒).
+	 */
+	private long lastModified;
+
+	/**
+	 * このジャーナルを記録したサーバの時刻(ミリ秒).
+	 */
+	private long journaledAt;
+
+	/**
+	 * 新規のエンティティかどうか.<br>
+	 * 永続化、読み込みの後にfalseとなります.
+	 */
+	private transient boolean newEntity;
+
+	/**
+	 * プライベートデフォルトコンストラクタ.
+	 */
+	@SuppressWarnings("unused")
+	private ChangeJournal() {
+	}
+
+	/**
+	 * 変更された共通データと記録時刻を指定して変更ジャーナルエンティティを生成します.
+	 *
+	 * @param common 変更された共通データ
+	 * @param journaledAt 記録時刻
+	 */
+	public ChangeJournal(CommonData common, long journaledAt) {
+
+		this.syncDataId = common.getSyncDataId();
+		this.dataModelName = common.getDataModelName();
+		this.lastModified = common.getLastModified();
+		this.journaledAt = journaledAt;
+		this.newEntity = true;
+	}
+
+	/**
+	 * 永続化、読み込みの後に、新規のエンティティでないことを記録します.
+	 */
+	@PostPersist
+	@PostLoad
+	@SuppressWarnings("unused")
+	private void markPersisted() {
+
+		this.newEntity = false;
+	}
+
+	/**
+	 * @see Persistable#getId()
+	 */
+	@Override
+	public Long getId() {
+
+		return sequenceNo;
+	}
+
+	/**
+	 * @see Persistable#isNew()
+	 */
+	@Override
+	public boolean isNew() {
+
+		return newEntity;
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ChangeJournal))
+			return false;
+
+		return EqualsBuilder.reflectionEquals(this, ((ChangeJournal) obj), "sequenceNo");
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+
+		return HashCodeBuilder.reflectionHashCode(this, "sequenceNo");
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return sequenceNo
+	 */
+	public Long getSequenceNo() {
+		return sequenceNo;
+	}
+
+	/**
+	 * @param sequenceNo セットする sequenceNo
+	 */
+	public void setSequenceNo(Long sequenceNo) {
+		this.sequenceNo = sequenceNo;
+	}
+
+	/**
+	 * @return syncDataId
+	 */
+	public String getSyncDataId() {
+		return syncDataId;
+	}
+
+	/**
+	 * @return dataModelName
+	 */
+	public String getDataModelName() {
+		return dataModelName;
+	}
+
+	/**
+	 * @return lastModified
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return journaledAt
+	 */
+	public long getJournaledAt() {
+		return journaledAt;
+	}
+}
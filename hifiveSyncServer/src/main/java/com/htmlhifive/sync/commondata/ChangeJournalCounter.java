@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.commondata;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * 変更ジャーナルの通番を採番するカウンタエンティティ.<br>
+ * 最後に採番した通番を1行で保持し、{@link ChangeJournalCounterRepository}の更新で行ロックを取得して採番します.
+ * 行ロックはコミットまで保持されるため、通番はコミットの順に欠番なく採番されます.
+ *
+ * @author kishigam
+ */
+@Entity
+@Table(name = "CHANGE_JOURNAL_COUNTER")
+public class ChangeJournalCounter {
+
+	/**
+	 * カウンタの行のID.
+	 */
+	public static final int COUNTER_ID = 1;
+
+	/**
+	 * このエンティティのID.
+	 */
+	@Id
+	private int counterId;
+
+	/**
+	 * 最後に採番した通番.
+	 */
+	private long lastSequenceNo;
+
+	/**
+	 * プライベートデフォルトコンストラクタ.
+	 */
+	@SuppressWarnings("unused")
+	private ChangeJournalCounter() {
+	}
+
+	/**
+	 * 最後に採番した通番を指定してカウンタエンティティを生成します.
+	 *
+	 * @param lastSequenceNo 最後に採番した通番
+	 */
+	public ChangeJournalCounter(long lastSequenceNo) {
+
+		this.counterId = COUNTER_ID;
+		this.lastSequenceNo = lastSequenceNo;
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ChangeJournalCounter))
+			return false;
+
+		return EqualsBuilder.reflectionEquals(this, ((ChangeJournalCounter) obj));
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return counterId
+	 */
+	public int getCounterId() {
+		return counterId;
+	}
+
+	/**
+	 * @return lastSequenceNo
+	 */
+	public long getLastSequenceNo() {
+		return lastSequenceNo;
+	}
+}
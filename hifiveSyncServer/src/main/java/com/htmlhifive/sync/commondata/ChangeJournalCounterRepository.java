@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.commondata;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * 変更ジャーナルの通番のカウンタエンティティを永続化するためのリポジトリ.<br>
+ *
+ * @author kishigam
+ */
+public interface ChangeJournalCounterRepository extends JpaRepository<ChangeJournalCounter, Integer> {
+
+	/**
+	 * カウンタの最後に採番した通番を指定した件数だけ進めます.<br>
+	 * 更新した行はトランザクションの完了までロックされます.
+	 *
+	 * @param counterId カウンタの行のID
+	 * @param count 採番する件数
+	 * @return 更新した件数(カウンタの行が存在しない場合0)
+	 */
+	@Modifying
+	@Query("UPDATE ChangeJournalCounter c SET c.lastSequenceNo = c.lastSequenceNo + :count "
+			+ "WHERE c.counterId = :counterId")
+	int advance(@Param("counterId") int counterId, @Param("count") long count);
+
+	/**
+	 * カウンタの最後に採番した通番を返します.
+	 *
+	 * @param counterId カウンタの行のID
+	 * @return 最後に採番した通番(カウンタの行が存在しない場合null)
+	 */
+	@Query("SELECT c.lastSequenceNo FROM ChangeJournalCounter c WHERE c.counterId = :counterId")
+	Long findLastSequenceNo(@Param("counterId") int counterId);
+}
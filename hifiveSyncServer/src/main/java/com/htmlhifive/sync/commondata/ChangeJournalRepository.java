@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.commondata;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * 変更ジャーナルエンティティを永続化するためのリポジトリ.<br>
+ *
+ * @author kishigam
+ */
+public interface ChangeJournalRepository extends JpaRepository<ChangeJournal, Long> {
+
+	/**
+	 * データモデル名が合致し、指定した通番より後に記録された変更ジャーナルを通番の順に返します.<br>
+	 * pageableで取得件数を制限することができます.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param sequenceNo 通番(指定した通番より後のジャーナルを検索)
+	 * @param pageable 取得件数の指定(nullの場合は全件)
+	 * @return 検索した変更ジャーナルエンティティのList
+	 */
+	@Query("SELECT j FROM ChangeJournal j WHERE j.dataModelName = :dataModelName AND j.sequenceNo > :sequenceNo "
+			+ "ORDER BY j.sequenceNo")
+	List<ChangeJournal> findAfter(@Param("dataModelName") String dataModelName, @Param("sequenceNo") long sequenceNo,
+			Pageable pageable);
+
+	/**
+	 * 記録されている変更ジャーナルのうち、最大の通番を返します.
+	 *
+	 * @return 通番(ジャーナルが存在しない場合null)
+	 */
+	@Query("SELECT MAX(j.sequenceNo) FROM ChangeJournal j")
+	Long findMaxSequenceNo();
+
+	/**
+	 * データモデル名が合致する変更ジャーナルのうち、最大の通番を返します.
+	 *
+	 * @param dataModelName データモデル名
+	 * @return 通番(ジャーナルが存在しない場合null)
+	 */
+	@Query("SELECT MAX(j.sequenceNo) FROM ChangeJournal j WHERE j.dataModelName = :dataModelName")
+	Long findLatestSequenceNo(@Param("dataModelName") String dataModelName);
+
+	/**
+	 * 指定時刻より前に記録された変更ジャーナルを削除します.
+	 *
+	 * @param before 削除するジャーナルの記録時刻の上限(この値を含まない)
+	 * @return 削除した件数
+	 */
+	@Modifying
+	@Query("DELETE FROM ChangeJournal j WHERE j.journaledAt < :before")
+	int deleteBefore(@Param("before") long before);
+}
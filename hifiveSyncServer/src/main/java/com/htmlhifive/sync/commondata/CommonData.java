@@ -18,11 +18,16 @@ package com.htmlhifive.sync.commondata;
 
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
 import javax.persistence.Table;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.Index;
+import org.springframework.data.domain.Persistable;
 
 import com.htmlhifive.sync.resource.SyncMethod;
 import com.htmlhifive.sync.resource.SyncRequestHeader;
@@ -30,13 +35,23 @@ import com.htmlhifive.sync.resource.SyncResponseHeader;
 
 /**
  * リソースを同期するために必要な共通データを管理するエンティティ.<br>
- * リソースエレメントごとに1つの共通データが生成されます.
+ * リソースエレメントごとに1つの共通データが生成されます.<br>
+ * 下り更新は(データモデル名, 最終更新時刻, 同期データID)の順に分割して取得するため、その順のインデックスを定義しています.<br>
+ * 同期データIDはアプリケーションが採番するため、{@link Persistable}を実装して新規のエンティティを判別し、
+ * 保存時に存在確認の検索を行わずに登録します.<br>
+ * 悲観ロックのロックキーと有効期限は{@link CommonDataRepository}の条件付き更新でのみ変更するため、
+ * 更新時は変更された列だけを更新し、読み込み後に設定されたロックを上書きしないようにしています.
  *
  * @author kishigam
  */
 @Entity
+@DynamicUpdate
 @Table(name = "COMMON_DATA")
-public class CommonData {
+@org.hibernate.annotations.Table(appliesTo = "COMMON_DATA", indexes = { @Index(name = "IDX_COMMON_DATA_MODIFIED", columnNames = {
+		"dataModelName", "lastModified", "syncDataId" }) })
+public class CommonData implements Persistable<String> {
+
+	private static final long serialVersionUID = 4412573026618519238L;
 
 	/**
 	 * このエンティティのID(同期データID).
@@ -74,6 +89,17 @@ public class CommonData {
 	 */
 	private String lockKey;
 
+	/**
+	 * 悲観ロックの有効期限(ミリ秒).<br>
+	 * この時刻を過ぎたロックは、他のクライアントが取得できます.
+	 */
+	private Long lockExpiry;
+
+	/**
+	 * 新規に生成され、まだ永続化されていないエンティティかどうか.
+	 */
+	private transient boolean newEntity;
+
 	/**
 	 * プライベートデフォルトコンストラクタ.
 	 */
@@ -96,6 +122,36 @@ public class CommonData {
 		this.syncMethod = requestHeader.getSyncMethod();
 		this.lastModified = requestHeader.getRequestTime();
 		this.resourceIdStr = resourceIdStr;
+		this.newEntity = true;
+	}
+
+	/**
+	 * 永続化された、またはデータベースから読み込まれたエンティティを既存のエンティティとします.
+	 */
+	@PostPersist
+	@PostLoad
+	@SuppressWarnings("unused")
+	private void markPersisted() {
+
+		this.newEntity = false;
+	}
+
+	/**
+	 * @see Persistable#getId()
+	 */
+	@Override
+	public String getId() {
+
+		return syncDataId;
+	}
+
+	/**
+	 * @see Persistable#isNew()
+	 */
+	@Override
+	public boolean isNew() {
+
+		return newEntity;
 	}
 
 	/**
@@ -257,4 +313,11 @@ public class CommonData {
 		this.lockKey = lockKey;
 	}
 
+	/**
+	 * @return lockExpiry
+	 */
+	public Long getLockExpiry() {
+		return lockExpiry;
+	}
+
 }
@@ -16,9 +16,12 @@
  */
 package com.htmlhifive.sync.commondata;
 
+import java.util.Collection;
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -31,13 +34,85 @@ public interface CommonDataRepository extends JpaRepository<CommonData, String>
 
 	/**
 	 * データモデル名が合致し、ある時刻以降に更新されたリソースの共通データを返します.<br>
+	 * 削除された共通データは含みません. 初回の下り更新で使用します.<br>
+	 * 結果は(最終更新時刻, 同期データID)の順に並べられ、pageableで取得件数を制限することができます.
 	 *
 	 * @param dataModelName データモデル名
 	 * @param since データを検索する時刻(指定時刻以降の更新データを検索)
+	 * @param pageable 取得件数の指定(nullの場合は全件)
 	 * @return 検索した共通データエンティティのList
 	 */
-	@Query("SELECT d FROM CommonData d WHERE d.dataModelName = :dataModelName AND d.lastModified > :since AND d.syncMethod <> 2")
-	List<CommonData> findModified(@Param("dataModelName") String dataModelName, @Param("since") long since);
+	@Query("SELECT d FROM CommonData d WHERE d.dataModelName = :dataModelName AND d.lastModified > :since AND d.syncMethod <> 2 "
+			+ "ORDER BY d.lastModified, d.syncDataId")
+	List<CommonData> findModified(@Param("dataModelName") String dataModelName, @Param("since") long since,
+			Pageable pageable);
+
+	/**
+	 * データモデル名が合致し、(最終更新時刻, 同期データID)の順でカーソルが指す位置より後にあるリソースの共通データを返します.<br>
+	 * 削除された共通データは含みません. 分割された初回の下り更新の2ページ目以降の取得に使用します.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param lastModified カーソルが指すデータの最終更新時刻
+	 * @param syncDataId カーソルが指すデータの同期データID
+	 * @param pageable 取得件数の指定(nullの場合は全件)
+	 * @return 検索した共通データエンティティのList
+	 */
+	@Query("SELECT d FROM CommonData d WHERE d.dataModelName = :dataModelName "
+			+ "AND (d.lastModified > :lastModified OR (d.lastModified = :lastModified AND d.syncDataId > :syncDataId)) "
+			+ "AND d.syncMethod <> 2 ORDER BY d.lastModified, d.syncDataId")
+	List<CommonData> findModifiedAfter(@Param("dataModelName") String dataModelName,
+			@Param("lastModified") long lastModified, @Param("syncDataId") String syncDataId, Pageable pageable);
+
+	/**
+	 * データモデル名が合致し、ある時刻以降に更新または削除されたリソースの共通データを返します.<br>
+	 * 削除された共通データ(トゥームストーン)を含みます. 前回同期時刻からの下り更新で使用します.<br>
+	 * 結果は(最終更新時刻, 同期データID)の順に並べられ、pageableで取得件数を制限することができます.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param since データを検索する時刻(指定時刻以降の更新データを検索)
+	 * @param pageable 取得件数の指定(nullの場合は全件)
+	 * @return 検索した共通データエンティティのList
+	 */
+	@Query("SELECT d FROM CommonData d WHERE d.dataModelName = :dataModelName AND d.lastModified > :since "
+			+ "ORDER BY d.lastModified, d.syncDataId")
+	List<CommonData> findModifiedIncludingDeleted(@Param("dataModelName") String dataModelName,
+			@Param("since") long since, Pageable pageable);
+
+	/**
+	 * データモデル名が合致し、(最終更新時刻, 同期データID)の順でカーソルが指す位置より後にあるリソースの共通データを返します.<br>
+	 * 削除された共通データ(トゥームストーン)を含みます. 分割された下り更新の2ページ目以降の取得に使用します.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param lastModified カーソルが指すデータの最終更新時刻
+	 * @param syncDataId カーソルが指すデータの同期データID
+	 * @param pageable 取得件数の指定(nullの場合は全件)
+	 * @return 検索した共通データエンティティのList
+	 */
+	@Query("SELECT d FROM CommonData d WHERE d.dataModelName = :dataModelName "
+			+ "AND (d.lastModified > :lastModified OR (d.lastModified = :lastModified AND d.syncDataId > :syncDataId)) "
+			+ "ORDER BY d.lastModified, d.syncDataId")
+	List<CommonData> findModifiedAfterIncludingDeleted(@Param("dataModelName") String dataModelName,
+			@Param("lastModified") long lastModified, @Param("syncDataId") String syncDataId, Pageable pageable);
+
+	/**
+	 * 指定時刻より前に削除された共通データ(トゥームストーン)を削除します.
+	 *
+	 * @param before 削除する共通データの最終更新時刻の上限(この値を含まない)
+	 * @return 削除した件数
+	 */
+	@Modifying
+	@Query("DELETE FROM CommonData d WHERE d.syncMethod = 2 AND d.lastModified < :before")
+	int deleteTombstonesBefore(@Param("before") long before);
+
+	/**
+	 * 同期データIDのいずれかに合致する共通データを返します.<br>
+	 * 結果の順序は保証されません.
+	 *
+	 * @param syncDataIds 同期データIDのCollection
+	 * @return 検索した共通データエンティティのList
+	 */
+	@Query("SELECT d FROM CommonData d WHERE d.syncDataId IN :syncDataIds")
+	List<CommonData> findBySyncDataIdIn(@Param("syncDataIds") Collection<String> syncDataIds);
 
 	/**
 	 * データモデル名、リソースID文字列が合致するリソースの共通データを返します.
@@ -49,4 +124,90 @@ public interface CommonDataRepository extends JpaRepository<CommonData, String>
 	@Query("SELECT d FROM CommonData d WHERE d.dataModelName = :dataModelName AND d.resourceIdStr = :resourceIdStr")
 	CommonData findByResourceIdStr(@Param("dataModelName") String dataModelName,
 			@Param("resourceIdStr") String resourceIdStr);
+
+	/**
+	 * 同期データIDのいずれかに合致する共通データに、悲観ロックのロックキーと有効期限を設定します.<br>
+	 * ロックが設定されていない、または有効期限を過ぎている共通データのみを更新します.
+	 * 条件の判定と更新を1回の更新文で行うため、複数のクライアントが同時に同じロックを取得することはありません.<br>
+	 * 同じロックキーで設定された有効期限内のロックは更新しないため、取り消す場合に以前から保持していたロックと区別できます.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param lockExpiry ロックの有効期限
+	 * @param now 現在時刻
+	 * @return ロックを設定した件数
+	 */
+	@Modifying
+	@Query("UPDATE CommonData d SET d.lockKey = :lockKey, d.lockExpiry = :lockExpiry WHERE d.syncDataId IN :syncDataIds "
+			+ "AND (d.lockKey IS NULL OR d.lockExpiry IS NULL OR d.lockExpiry < :now)")
+	int updateLocks(@Param("lockKey") String lockKey, @Param("syncDataIds") Collection<String> syncDataIds,
+			@Param("lockExpiry") Long lockExpiry, @Param("now") Long now);
+
+	/**
+	 * 同期データIDのいずれかに合致し、ロックキーが合致する有効期限内の悲観ロックの件数を返します.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param now 現在時刻
+	 * @return ロックの件数
+	 */
+	@Query("SELECT COUNT(d) FROM CommonData d WHERE d.syncDataId IN :syncDataIds AND d.lockKey = :lockKey "
+			+ "AND d.lockExpiry >= :now")
+	long countLocks(@Param("lockKey") String lockKey, @Param("syncDataIds") Collection<String> syncDataIds,
+			@Param("now") Long now);
+
+	/**
+	 * 同期データIDのいずれかに合致し、ロックキーが異なる有効期限内の悲観ロックが設定された共通データの同期データIDを返します.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param now 現在時刻
+	 * @return 同期データIDのList
+	 */
+	@Query("SELECT d.syncDataId FROM CommonData d WHERE d.syncDataId IN :syncDataIds AND d.lockKey <> :lockKey "
+			+ "AND d.lockExpiry >= :now")
+	List<String> findLockedByOthers(@Param("lockKey") String lockKey,
+			@Param("syncDataIds") Collection<String> syncDataIds, @Param("now") Long now);
+
+	/**
+	 * 同期データIDのいずれかに合致し、ロックキーが合致する悲観ロックの有効期限を延長します.<br>
+	 * 有効期限が指定時刻より前のロックのみを更新します.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param lockExpiry 延長後の有効期限
+	 * @return 延長した件数
+	 */
+	@Modifying
+	@Query("UPDATE CommonData d SET d.lockExpiry = :lockExpiry WHERE d.syncDataId IN :syncDataIds "
+			+ "AND d.lockKey = :lockKey AND d.lockExpiry < :lockExpiry")
+	int renewLocks(@Param("lockKey") String lockKey, @Param("syncDataIds") Collection<String> syncDataIds,
+			@Param("lockExpiry") Long lockExpiry);
+
+	/**
+	 * 同期データIDのいずれかに合致し、ロックキーが合致する共通データの悲観ロックを解除します.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataIds 同期データIDのCollection
+	 * @return ロックを解除した件数
+	 */
+	@Modifying
+	@Query("UPDATE CommonData d SET d.lockKey = NULL, d.lockExpiry = NULL WHERE d.syncDataId IN :syncDataIds "
+			+ "AND d.lockKey = :lockKey")
+	int clearLocks(@Param("lockKey") String lockKey, @Param("syncDataIds") Collection<String> syncDataIds);
+
+	/**
+	 * 同期データIDのいずれかに合致し、ロックキーと有効期限が合致する共通データの悲観ロックを解除します.<br>
+	 * 同じ有効期限で一括して設定したロックを取り消す場合に使用します.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param lockExpiry ロックの有効期限
+	 * @return ロックを解除した件数
+	 */
+	@Modifying
+	@Query("UPDATE CommonData d SET d.lockKey = NULL, d.lockExpiry = NULL WHERE d.syncDataId IN :syncDataIds "
+			+ "AND d.lockKey = :lockKey AND d.lockExpiry = :lockExpiry")
+	int clearLocksExpiringAt(@Param("lockKey") String lockKey, @Param("syncDataIds") Collection<String> syncDataIds,
+			@Param("lockExpiry") Long lockExpiry);
 }
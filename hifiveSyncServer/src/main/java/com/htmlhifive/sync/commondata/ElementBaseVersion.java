@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.commondata;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.hibernate.annotations.Index;
+
+/**
+ * 上り更新で保存されたリソースエレメントの内容を、同期データIDと最終更新時刻ごとに保持するエンティティ.<br>
+ * クライアントが最後に同期したエレメント(ベースバージョン)として、競合時の3方向マージに使用します.<br>
+ * 保持期間を過ぎたものを削除するため、最終更新時刻のインデックスを定義しています.
+ *
+ * @author kishigam
+ */
+@Entity
+@Table(name = "ELEMENT_BASE_VERSION")
+@org.hibernate.annotations.Table(appliesTo = "ELEMENT_BASE_VERSION", indexes = { @Index(name = "IDX_BASE_VERSION_MODIFIED", columnNames = { "lastModified" }) })
+public class ElementBaseVersion {
+
+	/**
+	 * 同期データIDと最終更新時刻の区切り文字.
+	 */
+	private static final char ID_SEPARATOR = ' ';
+
+	/**
+	 * このエンティティのID.<br>
+	 * 同期データIDと最終更新時刻から生成します.
+	 */
+	@Id
+	private String versionId;
+
+	/**
+	 * 同期データID.
+	 */
+	private String syncDataId;
+
+	/**
+	 * このバージョンの最終更新時刻.
+	 */
+	private long lastModified;
+
+	/**
+	 * JSON形式のリソースエレメント.
+	 */
+	@Lob
+	private String element;
+
+	/**
+	 * プライベートのデフォルトコンストラクタ. <br>
+	 * 永続マネージャーが使用するため、実装する必要があります.
+	 */
+	@SuppressWarnings("unused")
+	private ElementBaseVersion() {
+	}
+
+	/**
+	 * バージョンの内容を指定して、新規エンティティインスタンスを生成します.
+	 *
+	 * @param syncDataId 同期データID
+	 * @param lastModified 最終更新時刻
+	 * @param element JSON形式のリソースエレメント
+	 */
+	public ElementBaseVersion(String syncDataId, long lastModified, String element) {
+
+		this.versionId = createVersionId(syncDataId, lastModified);
+		this.syncDataId = syncDataId;
+		this.lastModified = lastModified;
+		this.element = element;
+	}
+
+	/**
+	 * 同期データIDと最終更新時刻から、エンティティのIDを生成します.
+	 *
+	 * @param syncDataId 同期データID
+	 * @param lastModified 最終更新時刻
+	 * @return エンティティのID
+	 */
+	public static String createVersionId(String syncDataId, long lastModified) {
+
+		return syncDataId + ID_SEPARATOR + lastModified;
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+
+		return EqualsBuilder.reflectionEquals(this, obj);
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return versionId
+	 */
+	public String getVersionId() {
+		return versionId;
+	}
+
+	/**
+	 * @return syncDataId
+	 */
+	public String getSyncDataId() {
+		return syncDataId;
+	}
+
+	/**
+	 * @return lastModified
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return element
+	 */
+	public String getElement() {
+		return element;
+	}
+}
@@ -16,34 +16,62 @@
  */
 package com.htmlhifive.sync.jsonctrl;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Resource;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import com.htmlhifive.sync.exception.BadRequestException;
 import com.htmlhifive.sync.exception.SyncException;
+import com.htmlhifive.sync.jsonctrl.download.DownloadEntityTag;
 import com.htmlhifive.sync.jsonctrl.download.DownloadRequest;
+import com.htmlhifive.sync.jsonctrl.download.DownloadRequestMessage;
 import com.htmlhifive.sync.jsonctrl.download.DownloadResponseOnInit;
 import com.htmlhifive.sync.jsonctrl.download.DownloadResponseOrdinary;
+import com.htmlhifive.sync.jsonctrl.download.DownloadResponseWriter;
+import com.htmlhifive.sync.jsonctrl.download.DownloadSnapshot;
+import com.htmlhifive.sync.jsonctrl.download.DownloadSnapshotStore;
+import com.htmlhifive.sync.jsonctrl.download.LongPollDownload;
 import com.htmlhifive.sync.jsonctrl.upload.UploadRequest;
+import com.htmlhifive.sync.jsonctrl.upload.UploadRequestMessage;
+import com.htmlhifive.sync.jsonctrl.upload.UploadRequestReader;
 import com.htmlhifive.sync.jsonctrl.upload.UploadResponse;
+import com.htmlhifive.sync.jsonctrl.upload.UploadResponseOnAccepted;
 import com.htmlhifive.sync.jsonctrl.upload.UploadResponseOnConflict;
 import com.htmlhifive.sync.jsonctrl.upload.UploadResponseOrdinary;
+import com.htmlhifive.sync.resource.EncodedElementCache;
+import com.htmlhifive.sync.resource.WatermarkRegistry;
 import com.htmlhifive.sync.service.AbstractSyncResult;
 import com.htmlhifive.sync.service.SyncDownloadResult;
+import com.htmlhifive.sync.service.SyncResultType;
 import com.htmlhifive.sync.service.SyncUploadResult;
 import com.htmlhifive.sync.service.Synchronizer;
+import com.htmlhifive.sync.service.UploadJob;
+import com.htmlhifive.sync.service.UploadJobQueue;
+import com.htmlhifive.sync.status.IdempotencyStore;
 import com.htmlhifive.sync.status.LastUploadStatus;
 import com.htmlhifive.sync.status.SyncStatusService;
+import com.htmlhifive.sync.status.UploadOutcome;
 
 /**
  * JSON形式の同期リクエストを処理するコントローラクラス.
@@ -53,6 +81,11 @@ import com.htmlhifive.sync.status.SyncStatusService;
 @Controller
 public class JsonSyncController {
 
+	/**
+	 * 保存する上り更新のレスポンスボディをエンコードするためのオブジェクトマッパー.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
 	/**
 	 * 同期処理を実行するシンクロナイザー.
 	 */
@@ -65,21 +98,72 @@ public class JsonSyncController {
 	@Resource
 	private SyncStatusService<LastUploadStatus> statusService;
 
+	/**
+	 * 冪等キーを指定した上り更新の処理結果を保持するストア.
+	 */
+	@Resource
+	private IdempotencyStore idempotencyStore;
+
+	/**
+	 * 非同期の上り更新を実行するジョブキュー.
+	 */
+	@Resource
+	private UploadJobQueue uploadJobQueue;
+
+	/**
+	 * 逐次書き出す下り更新レスポンスで再利用する、エンコード済みのリソースエレメントのキャッシュ.
+	 */
+	@Resource
+	private EncodedElementCache encodedElementCache;
+
+	/**
+	 * 条件付きの下り更新で変更の有無を判定するための、データモデルごとのウォーターマークのレジストリ.
+	 */
+	@Resource
+	private WatermarkRegistry watermarkRegistry;
+
+	/**
+	 * 初回の下り更新で使用する、データモデルごとのスナップショットのストア.
+	 */
+	@Resource
+	private DownloadSnapshotStore snapshotStore;
+
+	/**
+	 * ロングポーリングの下り更新でリクエストを保留する最大時間(秒).<br>
+	 * クライアントが指定した待機時間がこれより長い場合、この時間でタイムアウトします.
+	 */
+	@Value("${sync.download.longPoll.maxWait:60}")
+	private long longPollMaxWait = 60;
+
 	/**
 	 * 初めて同期処理を行うクライアントからのリクエストを受け付け、下り更新処理のレスポンスを返します.<br>
+	 * リクエストされた全データモデルのスナップショットが作成済みで、クエリとカーソルの指定がない場合は、
+	 * スナップショットをファイルから逐次書き出し、スナップショット作成以降の差分のみをデータベースから取得します.
 	 *
 	 * @param request JSON形式の同期リクエストデータ(初回下り更新用)
-	 * @return JSON形式の同期レスポンスデータ(初回下り更新用)
+	 * @param response HTTPレスポンス
+	 * @return JSON形式の同期レスポンスデータ(初回下り更新用)、スナップショットを書き出した場合null
+	 * @throws IOException レスポンスの書き出しに失敗した場合
 	 */
-	@Transactional
 	@RequestMapping(value = "/download", method = RequestMethod.POST, params = {}, headers = {
 			"Accept=application/json", "Content-Type=application/json" })
-	public ResponseEntity<DownloadResponseOnInit> syncInit(final @RequestBody DownloadRequest request) {
+	public ResponseEntity<DownloadResponseOnInit> syncInit(final @RequestBody DownloadRequest request,
+			final HttpServletResponse response) throws IOException {
 
 		// ストレージIdを新規採番
 		String newStorageId = generateNewStorageId();
 
-		AbstractSyncResult downloadResult = synchronizer.syncDownload(newStorageId, request.getResources());
+		List<DownloadSnapshot> snapshots = findSnapshots(request.getResources());
+		if (snapshots != null) {
+			try {
+				writeSnapshots(newStorageId, snapshots, response);
+			} finally {
+				releaseSnapshots(snapshots);
+			}
+			return null;
+		}
+
+		SyncDownloadResult downloadResult = synchronizer.syncDownload(newStorageId, request.getResources());
 
 		// レスポンスデータ(初回用)の生成
 		DownloadResponseOnInit responseBody = new DownloadResponseOnInit(downloadResult);
@@ -89,23 +173,210 @@ public class JsonSyncController {
 
 	/**
 	 * 同期処理を行うクライアントからのリクエストを受け付け、下り更新処理のレスポンスを返します.<br>
-	 * クエリパラメータとして、クライアントのストレージIDを指定します.
+	 * クエリパラメータとして、クライアントのストレージIDを指定します.<br>
+	 * 前回のレスポンスで返したETagがIf-None-Matchヘッダに指定され、その後データモデルに変更がない場合は、
+	 * トランザクションを開始せずに304(Not Modified)を返します.<br>
+	 * 前回同期時刻がトゥームストーンの保持期間より前の場合は、再同期が必要であることを示す410(Gone)を返します.
 	 *
+	 * @param storageId クライアントのストレージID
 	 * @param request JSON形式の同期リクエストデータ(下り更新用)
+	 * @param ifNoneMatch If-None-Matchヘッダの値
 	 * @return JSON形式の同期レスポンスデータ(下り更新用)
 	 */
-	@Transactional
 	@RequestMapping(value = "/download", method = RequestMethod.POST, params = { "storageid" }, headers = {
 			"Accept=application/json", "Content-Type=application/json" })
 	public ResponseEntity<DownloadResponseOrdinary> syncDownload(final @RequestParam("storageid") String storageId,
-			final @RequestBody DownloadRequest request) {
+			final @RequestBody DownloadRequest request,
+			final @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+
+		// 前回の下り更新以降に変更がなければ、データベースにアクセスせずに返す
+		String requestEntityTag = DownloadEntityTag.forRequest(request.getResources(), watermarkRegistry);
+		if (DownloadEntityTag.matches(ifNoneMatch, requestEntityTag)) {
+			return createNotModifiedResponseEntity(requestEntityTag);
+		}
 
 		SyncDownloadResult downloadResult = synchronizer.syncDownload(storageId, request.getResources());
 
 		// レスポンスデータの生成
 		DownloadResponseOrdinary responseBody = new DownloadResponseOrdinary(downloadResult);
 
-		return createResponseEntity(responseBody, HttpStatus.OK);
+		if (downloadResult.getResultType() == SyncResultType.RESYNC_REQUIRED) {
+			return createResponseEntity(responseBody, HttpStatus.GONE);
+		}
+
+		String entityTag = DownloadEntityTag.forResult(request.getResources(), downloadResult, watermarkRegistry);
+
+		return createResponseEntity(responseBody, HttpStatus.OK, entityTag);
+	}
+
+	/**
+	 * 同期処理を行うクライアントからのリクエストを受け付け、下り更新処理のレスポンスを逐次書き出します.<br>
+	 * クエリパラメータとして、クライアントのストレージIDと"stream=true"を指定します.<br>
+	 * レスポンスの形式は{@link #syncDownload(String, DownloadRequest)}と同じですが、取得したデータを保持せず直接出力ストリームへ書き出すため、
+	 * データ量によらずメモリ使用量を一定に保ち、早くレスポンスを返し始めることができます.<br>
+	 * 書き出し開始後にエラーが発生した場合、クライアントは不完全なJSONを受け取ります.<br>
+	 * "wait"を同時に指定した場合は、{@link #syncDownloadLongPoll(String, long, DownloadRequest, String, HttpServletRequest, HttpServletResponse)}
+	 * で処理します.<br>
+	 * ETagはレスポンスの書き出し後に決まるため、ヘッダではなくJSONの"etag"項目で返します.
+	 * If-None-Matchヘッダと再同期が必要な場合の扱いは{@link #syncDownload(String, DownloadRequest, String)}と同じです.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param request JSON形式の同期リクエストデータ(下り更新用)
+	 * @param ifNoneMatch If-None-Matchヘッダの値
+	 * @param response HTTPレスポンス
+	 * @throws IOException レスポンスの書き出しに失敗した場合
+	 */
+	@RequestMapping(value = "/download", method = RequestMethod.POST, params = { "storageid", "stream=true", "!wait" }, headers = {
+			"Accept=application/json", "Content-Type=application/json" })
+	public void syncDownloadStreaming(final @RequestParam("storageid") String storageId,
+			final @RequestBody DownloadRequest request,
+			final @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+			final HttpServletResponse response) throws IOException {
+
+		// 前回の下り更新以降に変更がなければ、データベースにアクセスせずに返す
+		String requestEntityTag = DownloadEntityTag.forRequest(request.getResources(), watermarkRegistry);
+		if (DownloadEntityTag.matches(ifNoneMatch, requestEntityTag)) {
+			response.setStatus(HttpStatus.NOT_MODIFIED.value());
+			response.setHeader("ETag", requestEntityTag);
+			return;
+		}
+
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType("application/json;charset=utf-8");
+
+		// 書き出しは最初のデータを受け取った時点で開始するため、再同期の場合はステータスコードを変更できる
+		DownloadResponseWriter writer = new DownloadResponseWriter(response.getOutputStream(), encodedElementCache);
+
+		SyncDownloadResult downloadResult = synchronizer.syncDownload(storageId, request.getResources(), writer);
+
+		if (downloadResult.getResultType() == SyncResultType.RESYNC_REQUIRED) {
+			response.setStatus(HttpStatus.GONE.value());
+		}
+
+		writer.writeEnd(downloadResult,
+				DownloadEntityTag.forResult(request.getResources(), downloadResult, watermarkRegistry));
+	}
+
+	/**
+	 * 同期処理を行うクライアントからのリクエストを受け付け、変更があるまでレスポンスを保留する下り更新(ロングポーリング)を処理します.<br>
+	 * クエリパラメータとして、クライアントのストレージIDと待機時間(秒)を"wait"で指定します.<br>
+	 * If-None-Matchヘッダのエンティティタグが現在のものと一致する場合、Servlet 3の非同期処理でリクエストを保留し、
+	 * リクエストされたデータモデルへの更新がコミットされた時点で下り更新のレスポンスを書き出します.
+	 * 待機時間内に更新がなければ304(Not Modified)を返します.<br>
+	 * 保留中はコンテナのスレッドもデータベース接続も保持しません.<br>
+	 * エンティティタグが一致しない場合は、保留せずに{@link #syncDownloadStreaming(String, DownloadRequest, String, HttpServletResponse)}
+	 * と同じレスポンスを返します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param wait 待機時間(秒)
+	 * @param request JSON形式の同期リクエストデータ(下り更新用)
+	 * @param ifNoneMatch If-None-Matchヘッダの値
+	 * @param httpRequest HTTPリクエスト
+	 * @param response HTTPレスポンス
+	 * @throws IOException レスポンスの書き出しに失敗した場合
+	 */
+	@RequestMapping(value = "/download", method = RequestMethod.POST, params = { "storageid", "wait" }, headers = {
+			"Accept=application/json", "Content-Type=application/json" })
+	public void syncDownloadLongPoll(final @RequestParam("storageid") String storageId,
+			final @RequestParam("wait") long wait, final @RequestBody DownloadRequest request,
+			final @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+			final HttpServletRequest httpRequest, final HttpServletResponse response) throws IOException {
+
+		String requestEntityTag = DownloadEntityTag.forRequest(request.getResources(), watermarkRegistry);
+		if (wait <= 0 || !DownloadEntityTag.matches(ifNoneMatch, requestEntityTag)) {
+			syncDownloadStreaming(storageId, request, ifNoneMatch, response);
+			return;
+		}
+
+		AsyncContext asyncContext = httpRequest.startAsync();
+		LongPollDownload longPoll = new LongPollDownload(asyncContext, storageId, request.getResources(),
+				requestEntityTag, synchronizer, watermarkRegistry, encodedElementCache);
+		longPoll.start(Math.min(wait, longPollMaxWait) * 1000L);
+	}
+
+	/**
+	 * 初回下り更新のリクエストメッセージに対応するスナップショットを取得します.<br>
+	 * いずれかのメッセージにクエリまたはカーソルが指定されている場合や、スナップショットが作成されていない場合はnullを返します.<br>
+	 * 返したスナップショットは読み込み中として登録されるため、書き出しの完了後に{@link #releaseSnapshots(List)}で解除します.
+	 *
+	 * @param requestMessages 下り更新リクエストメッセージのList
+	 * @return リクエストメッセージと同じ順のスナップショットのList
+	 */
+	private List<DownloadSnapshot> findSnapshots(List<DownloadRequestMessage> requestMessages) {
+
+		if (!snapshotStore.isEnabled() || requestMessages == null || requestMessages.isEmpty()) {
+			return null;
+		}
+
+		for (DownloadRequestMessage message : requestMessages) {
+			if ((message.getQuery() != null && !message.getQuery().isEmpty())
+					|| (message.getCursor() != null && !message.getCursor().isEmpty())) {
+				return null;
+			}
+		}
+
+		List<DownloadSnapshot> snapshots = new ArrayList<>();
+		for (DownloadRequestMessage message : requestMessages) {
+
+			DownloadSnapshot snapshot = snapshotStore.acquire(message.getDataModelName());
+			if (snapshot == null) {
+				releaseSnapshots(snapshots);
+				return null;
+			}
+			snapshots.add(snapshot);
+
+			if (snapshot.getCursor() == null) {
+				releaseSnapshots(snapshots);
+				return null;
+			}
+		}
+		return snapshots;
+	}
+
+	/**
+	 * 読み込み中として登録したスナップショットを解除します.<br>
+	 * 既に新しいスナップショットに置き換えられている場合、他に読み込み中のリクエストがなければファイルが削除されます.
+	 *
+	 * @param snapshots スナップショットのList
+	 */
+	private void releaseSnapshots(List<DownloadSnapshot> snapshots) {
+
+		for (DownloadSnapshot snapshot : snapshots) {
+			snapshotStore.release(snapshot);
+		}
+	}
+
+	/**
+	 * スナップショットと、スナップショット作成以降の差分を初回下り更新のレスポンスとして逐次書き出します.<br>
+	 * 差分はスナップショットのカーソルから取得するため、変更ジャーナルの続きのみを読み込みます.
+	 *
+	 * @param newStorageId 新規に採番したストレージID
+	 * @param snapshots スナップショットのList
+	 * @param response HTTPレスポンス
+	 * @throws IOException レスポンスの書き出しに失敗した場合
+	 */
+	private void writeSnapshots(String newStorageId, List<DownloadSnapshot> snapshots, HttpServletResponse response)
+			throws IOException {
+
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType("application/json;charset=utf-8");
+
+		DownloadResponseWriter writer = new DownloadResponseWriter(response.getOutputStream(), encodedElementCache);
+		writer.writeStart(newStorageId);
+
+		List<DownloadRequestMessage> deltaMessages = new ArrayList<>();
+		for (DownloadSnapshot snapshot : snapshots) {
+			snapshotStore.writeTo(snapshot, writer);
+
+			DownloadRequestMessage deltaMessage = new DownloadRequestMessage();
+			deltaMessage.setDataModelName(snapshot.getDataModelName());
+			deltaMessage.setCursor(snapshot.getCursor());
+			deltaMessages.add(deltaMessage);
+		}
+
+		SyncDownloadResult downloadResult = synchronizer.syncDownload(newStorageId, deltaMessages, writer);
+
+		writer.writeEnd(downloadResult);
 	}
 
 	/**
@@ -121,38 +392,259 @@ public class JsonSyncController {
 
 	/**
 	 * 同期処理を行うクライアントからのリクエストを受け付け、上り更新処理のレスポンスを返します.<br>
-	 * クエリパラメータとして、クライアントのストレージIDを指定します.
+	 * クエリパラメータとして、クライアントのストレージIDを指定します.<br>
+	 * Idempotency-Keyヘッダで冪等キーが指定された場合、同じ冪等キーで処理済みの上り更新には保存しているレスポンスをそのまま返します.
+	 * 同じ冪等キーの上り更新を処理中の場合は、503(Service Unavailable)を返します.<br>
+	 * 冪等キーが指定されない場合は、前回上り更新時刻によって二重送信を判定します.<br>
+	 * クエリパラメータ"partial=true"を指定した場合は部分コミットモードとし、競合したメッセージのみを更新せず、他のメッセージの更新をコミットします.
 	 *
+	 * @param storageId クライアントのストレージID
 	 * @param request JSON形式の同期リクエストデータ(上り更新用)
-	 * @return JSON形式の同期レスポンスデータ(上り更新用)
+	 * @param idempotencyKey Idempotency-Keyヘッダの値
+	 * @param partialCommit 部分コミットモードの場合true
+	 * @param response HTTPレスポンス
+	 * @return JSON形式の同期レスポンスデータ(上り更新用)、保存しているレスポンスを書き出した場合null
+	 * @throws IOException レスポンスの書き出しに失敗した場合
 	 */
 	@Transactional
 	@RequestMapping(value = "/upload", method = RequestMethod.POST, params = { "storageid" }, headers = {
 			"Accept=application/json", "Content-Type=application/json" })
 	public ResponseEntity<? extends UploadResponse> syncUpload(final @RequestParam("storageid") String storageId,
-			final @RequestBody UploadRequest request) {
+			final @RequestBody UploadRequest request,
+			final @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+			final @RequestParam(value = "partial", required = false, defaultValue = "false") boolean partialCommit,
+			final HttpServletResponse response) throws IOException {
+
+		if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+			return syncUploadWithStatus(storageId, request, partialCommit);
+		}
+
+		return uploadWithIdempotencyKey(storageId, idempotencyKey, request.getDataList().iterator(), partialCommit,
+				response);
+	}
+
+	/**
+	 * 上り更新リクエストを逐次解析しながら処理し、上り更新処理のレスポンスを返します.<br>
+	 * クエリパラメータとして、クライアントのストレージIDと"stream=true"を指定します.<br>
+	 * リクエストデータはメッセージ1件ずつ読み込んで上り更新に渡すため、リクエスト全体をメモリ上に保持しません.
+	 * 二重送信の判定は、リクエストデータを読み込む前に行います.<br>
+	 * Idempotency-Keyヘッダの扱いは{@link #syncUpload(String, UploadRequest, String, boolean, HttpServletResponse)}と同じです.<br>
+	 * "async=true"を同時に指定した場合は、{@link #syncUploadAsync(String, UploadRequest, String, boolean)}で処理します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param idempotencyKey Idempotency-Keyヘッダの値
+	 * @param partialCommit 部分コミットモードの場合true
+	 * @param request HTTPリクエスト
+	 * @param response HTTPレスポンス
+	 * @return JSON形式の同期レスポンスデータ(上り更新用)、保存しているレスポンスを書き出した場合null
+	 * @throws IOException リクエストデータの読み込み、またはレスポンスの書き出しに失敗した場合
+	 */
+	@Transactional
+	@RequestMapping(value = "/upload", method = RequestMethod.POST, params = { "storageid", "stream=true", "!async" }, headers = {
+			"Accept=application/json", "Content-Type=application/json" })
+	public ResponseEntity<? extends UploadResponse> syncUploadStreaming(final @RequestParam("storageid") String storageId,
+			final @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+			final @RequestParam(value = "partial", required = false, defaultValue = "false") boolean partialCommit,
+			final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+
+		long requestTime = new SyncUploadResult(storageId).getCurrentSyncTime();
+
+		try (UploadRequestReader reader = new UploadRequestReader(request.getInputStream())) {
+			if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+				return createUploadResponseEntity(uploadWithStatus(storageId, reader, requestTime, partialCommit));
+			}
+
+			return uploadWithIdempotencyKey(storageId, idempotencyKey, reader, partialCommit, response);
+		}
+	}
+
+	/**
+	 * 冪等キーによって二重送信を判定し、上り更新処理のレスポンスを返します.<br>
+	 * 同じ冪等キーで処理済みの上り更新には保存しているレスポンスをそのまま書き出し、処理中の場合は503(Service Unavailable)を返します.
+	 * 上り更新がコミットされる場合は、そのレスポンスを冪等キーに対する処理結果として保存します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param idempotencyKey 冪等キー
+	 * @param requestMessages 上り更新のリクエストメッセージのイテレータ
+	 * @param partialCommit 部分コミットモードの場合true
+	 * @param response HTTPレスポンス
+	 * @return JSON形式の同期レスポンスデータ(上り更新用)、保存しているレスポンスを書き出した場合null
+	 * @throws IOException レスポンスの書き出しに失敗した場合
+	 */
+	private ResponseEntity<? extends UploadResponse> uploadWithIdempotencyKey(String storageId,
+			String idempotencyKey, Iterator<? extends UploadRequestMessage<?>> requestMessages,
+			boolean partialCommit, HttpServletResponse response) throws IOException {
+
+		// 処理済みの冪等キーであれば、保存しているレスポンスを返す
+		UploadOutcome outcome = idempotencyStore.find(storageId, idempotencyKey);
+		if (outcome != null) {
+			writeOutcome(outcome, response);
+			return null;
+		}
+
+		if (!idempotencyStore.begin(storageId, idempotencyKey)) {
+			HttpHeaders responseHeaders = new HttpHeaders();
+			responseHeaders.set("Retry-After", "1");
+			return new ResponseEntity<UploadResponse>(responseHeaders, HttpStatus.SERVICE_UNAVAILABLE);
+		}
+
+		// 上り更新実行
+		SyncUploadResult uploadResult = synchronizer.syncUpload(storageId, requestMessages, partialCommit);
+
+		ResponseEntity<? extends UploadResponse> responseEntity = createUploadResponseEntity(uploadResult);
+
+		// 競合時は上り更新がロールバックされ、再送時に改めて処理するため、コミットされる場合のみ保存する
+		if (uploadResult.getResultType() == SyncResultType.OK || partialCommit) {
+			idempotencyStore.save(new UploadOutcome(storageId, idempotencyKey, responseEntity.getStatusCode().value(),
+					MAPPER.writeValueAsString(responseEntity.getBody()), uploadResult.getCurrentSyncTime()));
+		}
+
+		return responseEntity;
+	}
+
+	/**
+	 * 上り更新リクエストを非同期に処理するジョブとして受け付け、ジョブIDを返します.<br>
+	 * クエリパラメータとして、クライアントのストレージIDと"async=true"を指定します.<br>
+	 * 上り更新はワーカースレッドで実行するため、このリクエストはトランザクションもデータベース接続も保持しません.
+	 * 上り更新結果は{@link #syncUploadResult(String, String)}で取得します.
+	 * ジョブキューが一杯の場合は、503(Service Unavailable)を返します.<br>
+	 * 非同期の上り更新では処理結果を冪等キーで保存できないため、Idempotency-Keyヘッダが指定された場合は400(Bad Request)を返します.
+	 * 二重送信は前回上り更新時刻によって判定します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param request JSON形式の同期リクエストデータ(上り更新用)
+	 * @param idempotencyKey Idempotency-Keyヘッダの値
+	 * @param partialCommit 部分コミットモードの場合true
+	 * @return ジョブIDを含む202(Accepted)のレスポンス
+	 * @throws BadRequestException Idempotency-Keyヘッダが指定された場合
+	 */
+	@RequestMapping(value = "/upload", method = RequestMethod.POST, params = { "storageid", "async=true" }, headers = {
+			"Accept=application/json", "Content-Type=application/json" })
+	public ResponseEntity<UploadResponseOnAccepted> syncUploadAsync(final @RequestParam("storageid") String storageId,
+			final @RequestBody UploadRequest request,
+			final @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+			final @RequestParam(value = "partial", required = false, defaultValue = "false") boolean partialCommit) {
+
+		// 冪等キーを無視して受け付けると、再送時に二重に適用されるため拒否する
+		if (idempotencyKey != null && !idempotencyKey.isEmpty()) {
+			throw new BadRequestException("Idempotency-Key is not supported for asynchronous upload.");
+		}
 
-		// 結果オブジェクトを生成
-		SyncUploadResult result = new SyncUploadResult(storageId);
+		// リクエストを受け付けた時刻で二重送信を判定する
+		final long requestTime = new SyncUploadResult(storageId).getCurrentSyncTime();
+
+		UploadJob job = uploadJobQueue.submit(storageId, new Callable<SyncUploadResult>() {
+
+			@Override
+			public SyncUploadResult call() {
+				return uploadWithStatus(storageId, request.getDataList().iterator(), requestTime, partialCommit);
+			}
+		});
+
+		if (job == null) {
+			HttpHeaders responseHeaders = new HttpHeaders();
+			responseHeaders.set("Retry-After", "1");
+			return new ResponseEntity<UploadResponseOnAccepted>(responseHeaders, HttpStatus.SERVICE_UNAVAILABLE);
+		}
+
+		return createResponseEntity(new UploadResponseOnAccepted(job), HttpStatus.ACCEPTED);
+	}
+
+	/**
+	 * 非同期に処理している上り更新の結果を返します.<br>
+	 * クエリパラメータとして、クライアントのストレージIDとジョブIDを指定します.<br>
+	 * 処理が終了していれば同期的な上り更新と同じレスポンスを返し、処理中の場合は202(Accepted)を返します.
+	 * ジョブが存在しないか保持期間を過ぎている場合は、404(Not Found)を返します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param jobId ジョブID
+	 * @return JSON形式の同期レスポンスデータ(上り更新用)
+	 */
+	@RequestMapping(value = "/upload/result", method = RequestMethod.GET, params = { "storageid", "jobid" }, headers = {
+			"Accept=application/json" })
+	public ResponseEntity<? extends UploadResponse> syncUploadResult(final @RequestParam("storageid") String storageId,
+			final @RequestParam("jobid") String jobId) {
+
+		UploadJob job = uploadJobQueue.find(storageId, jobId);
+		if (job == null) {
+			return new ResponseEntity<UploadResponse>(HttpStatus.NOT_FOUND);
+		}
+
+		if (!job.isDone()) {
+			HttpHeaders responseHeaders = new HttpHeaders();
+			responseHeaders.set("Retry-After", "1");
+			return new ResponseEntity<UploadResponse>(responseHeaders, HttpStatus.ACCEPTED);
+		}
+
+		if (job.getFailure() != null) {
+			throw job.getFailure();
+		}
+
+		return createUploadResponseEntity(job.getResult());
+	}
+
+	/**
+	 * 前回上り更新時刻によって二重送信を判定し、上り更新処理のレスポンスを返します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param request JSON形式の同期リクエストデータ(上り更新用)
+	 * @param partialCommit 部分コミットモードの場合true
+	 * @return JSON形式の同期レスポンスデータ(上り更新用)
+	 */
+	private ResponseEntity<? extends UploadResponse> syncUploadWithStatus(String storageId, UploadRequest request,
+			boolean partialCommit) {
+
+		long requestTime = new SyncUploadResult(storageId).getCurrentSyncTime();
+
+		return createUploadResponseEntity(uploadWithStatus(storageId, request.getDataList().iterator(), requestTime,
+				partialCommit));
+	}
+
+	/**
+	 * 前回上り更新時刻によって二重送信を判定し、上り更新を実行します.<br>
+	 * 処理済と判断した場合は、結果データを持たない成功の上り更新結果を返します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param requestMessages 上り更新のリクエストメッセージのイテレータ
+	 * @param requestTime リクエストを受け付けた時刻
+	 * @param partialCommit 部分コミットモードの場合true
+	 * @return 上り更新結果オブジェクト
+	 */
+	private SyncUploadResult uploadWithStatus(String storageId,
+			Iterator<? extends UploadRequestMessage<?>> requestMessages, long requestTime, boolean partialCommit) {
 
 		// 前回上り更新時刻の取得、今回の同期時刻より後になっていれば、今回の同期は二重送信などで処理済と判断する
 		LastUploadStatus currentStatus = statusService.currentStatus(storageId);
-		if (currentStatus.isPassed(result.getCurrentSyncTime())) {
-			UploadResponseOrdinary responseBody = new UploadResponseOrdinary(result);
-			return createResponseEntity(responseBody, HttpStatus.OK);
+		if (currentStatus.isPassed(requestTime)) {
+			SyncUploadResult result = new SyncUploadResult(storageId);
+			result.setResultType(SyncResultType.OK);
+			return result;
 		}
 
 		// 上り更新実行
-		SyncUploadResult uploadResult = synchronizer.syncUpload(storageId, request.getDataList());
+		SyncUploadResult uploadResult = synchronizer.syncUpload(storageId, requestMessages, partialCommit);
+
+		if (uploadResult.getResultType() == SyncResultType.OK || partialCommit) {
+
+			// 上り更新処理成功、または部分コミットモードの場合、今回の更新時刻を保存
+			currentStatus.setLastUploadTime(requestTime);
+			statusService.updateStatus(currentStatus);
+		}
+
+		return uploadResult;
+	}
+
+	/**
+	 * 上り更新結果ごとにレスポンスデータを生成します.
+	 *
+	 * @param uploadResult 上り更新結果オブジェクト
+	 * @return JSON形式の同期レスポンスデータ(上り更新用)
+	 */
+	private ResponseEntity<? extends UploadResponse> createUploadResponseEntity(SyncUploadResult uploadResult) {
 
-		// 上り更新結果ごとにレスポンスデータを生成
 		switch (uploadResult.getResultType()) {
 			case OK:
 
-				// 上り更新処理成功の場合、今回の更新時刻を保存
-				currentStatus.setLastUploadTime(result.getCurrentSyncTime());
-				statusService.updateStatus(currentStatus);
-
 				UploadResponseOrdinary responseBody = new UploadResponseOrdinary(uploadResult);
 
 				return createResponseEntity(responseBody, HttpStatus.OK);
@@ -169,9 +661,37 @@ public class JsonSyncController {
 		}
 	}
 
+	/**
+	 * 保存している上り更新の処理結果を、レスポンスとして書き出します.
+	 *
+	 * @param outcome 上り更新の処理結果
+	 * @param response HTTPレスポンス
+	 * @throws IOException レスポンスの書き出しに失敗した場合
+	 */
+	private void writeOutcome(UploadOutcome outcome, HttpServletResponse response) throws IOException {
+
+		response.setStatus(outcome.getStatusCode());
+		response.setContentType("application/json;charset=utf-8");
+		response.getOutputStream().write(outcome.getResponseBody().getBytes("UTF-8"));
+	}
+
 	/*
      */
 
+	/**
+	 * 変更がないことを示す、ボディを持たないHTTPレスポンスエンティティを返します.
+	 *
+	 * @param entityTag エンティティタグ
+	 * @return HTTPレスポンスエンティティ(304 Not Modified)
+	 */
+	private <T extends ResponseBody> ResponseEntity<T> createNotModifiedResponseEntity(String entityTag) {
+
+		HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.setETag(entityTag);
+
+		return new ResponseEntity<>(responseHeaders, HttpStatus.NOT_MODIFIED);
+	}
+
 	/**
 	 * HTTPレスポンスボディとステータスコードからレスポンスエンティティを返します.
 	 *
@@ -186,4 +706,25 @@ public class JsonSyncController {
 
 		return new ResponseEntity<>(body, responseHeaders, status);
 	}
+
+	/**
+	 * HTTPレスポンスボディとステータスコード、エンティティタグからレスポンスエンティティを返します.<br>
+	 * エンティティタグがnullの場合はETagヘッダを設定しません.
+	 *
+	 * @param body リクエストボディ
+	 * @param status ステータスコードオブジェクト
+	 * @param entityTag エンティティタグ
+	 * @return HTTPレスポンスエンティティ
+	 */
+	private <T extends ResponseBody> ResponseEntity<T> createResponseEntity(T body, HttpStatus status,
+			String entityTag) {
+
+		HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.add("Content-Type", "application/json;charset=utf-8");
+		if (entityTag != null) {
+			responseHeaders.setETag(entityTag);
+		}
+
+		return new ResponseEntity<>(body, responseHeaders, status);
+	}
 }
\ No newline at end of file
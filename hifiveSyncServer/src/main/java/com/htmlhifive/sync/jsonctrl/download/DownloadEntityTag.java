@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.jsonctrl.download;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.htmlhifive.sync.exception.SyncException;
+import com.htmlhifive.sync.resource.DownloadCursor;
+import com.htmlhifive.sync.resource.WatermarkRegistry;
+import com.htmlhifive.sync.service.SyncDownloadResult;
+
+/**
+ * 下り更新の条件付きリクエストに使用するエンティティタグ(ETag)を生成するクラス.<br>
+ * エンティティタグは、リクエストされたデータモデルとクエリ、および各データモデルの取得位置を表すカーソルから生成します.<br>
+ * 全てのデータモデルについて、カーソルが{@link WatermarkRegistry}の現在のウォーターマークの通番を指している場合のみ生成するため、
+ * エンティティタグが一致すれば、データベースにアクセスせずに前回の下り更新以降に変更がないと判定できます.
+ *
+ * @author kishigam
+ */
+public class DownloadEntityTag {
+
+	/**
+	 * エンティティタグの生成に使用する文字コード.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * 下り更新リクエストに対し、前回の下り更新から変更がない場合のエンティティタグを返します.<br>
+	 * いずれかのデータモデルのカーソルが現在のウォーターマークを指していない場合はnullを返します.
+	 *
+	 * @param requestMessages 下り更新のリクエストメッセージのリスト
+	 * @param watermarkRegistry ウォーターマークのレジストリ
+	 * @return エンティティタグ(変更の有無を判定できない場合null)
+	 */
+	public static String forRequest(List<? extends DownloadRequestMessage> requestMessages,
+			WatermarkRegistry watermarkRegistry) {
+
+		List<String> cursors = new ArrayList<>();
+		for (DownloadRequestMessage message : requestMessages) {
+			cursors.add(message.getCursor());
+		}
+		return create(requestMessages, cursors, watermarkRegistry);
+	}
+
+	/**
+	 * 下り更新結果に対し、クライアントに返すエンティティタグを返します.<br>
+	 * 結果が完了していない場合や、いずれかのデータモデルのカーソルが現在のウォーターマークを指していない場合はnullを返します.
+	 *
+	 * @param requestMessages 下り更新のリクエストメッセージのリスト
+	 * @param downloadResult 下り更新結果オブジェクト
+	 * @param watermarkRegistry ウォーターマークのレジストリ
+	 * @return エンティティタグ(変更の有無を判定できない場合null)
+	 */
+	public static String forResult(List<? extends DownloadRequestMessage> requestMessages,
+			SyncDownloadResult downloadResult, WatermarkRegistry watermarkRegistry) {
+
+		if (!downloadResult.isComplete()) {
+			return null;
+		}
+
+		List<String> cursors = new ArrayList<>();
+		for (DownloadRequestMessage message : requestMessages) {
+			cursors.add(downloadResult.getNextCursorMap().get(message.getDataModelName()));
+		}
+		return create(requestMessages, cursors, watermarkRegistry);
+	}
+
+	/**
+	 * If-None-Matchヘッダの値に、エンティティタグが含まれているかどうかを返します.
+	 *
+	 * @param ifNoneMatch If-None-Matchヘッダの値
+	 * @param entityTag エンティティタグ
+	 * @return 含まれている場合true
+	 */
+	public static boolean matches(String ifNoneMatch, String entityTag) {
+
+		if (ifNoneMatch == null || entityTag == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			if (candidate.trim().equals(entityTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * リクエストメッセージとデータモデルごとのカーソルから、エンティティタグを生成します.
+	 *
+	 * @param requestMessages 下り更新のリクエストメッセージのリスト
+	 * @param cursors リクエストメッセージに対応するカーソル文字列のリスト
+	 * @param watermarkRegistry ウォーターマークのレジストリ
+	 * @return エンティティタグ(カーソルが現在のウォーターマークを指していない場合null)
+	 */
+	private static String create(List<? extends DownloadRequestMessage> requestMessages, List<String> cursors,
+			WatermarkRegistry watermarkRegistry) {
+
+		if (requestMessages.isEmpty()) {
+			return null;
+		}
+
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < requestMessages.size(); i++) {
+
+			DownloadRequestMessage message = requestMessages.get(i);
+
+			Long watermark = watermarkRegistry.current(message.getDataModelName());
+			if (watermark == null || !DownloadCursor.ofSequence(watermark).toToken().equals(cursors.get(i))) {
+				return null;
+			}
+
+			source.append(message.getDataModelName()).append('\n');
+			source.append(canonicalQuery(message.getQuery())).append('\n');
+			source.append(cursors.get(i)).append('\n');
+		}
+
+		return '"' + digest(source.toString()) + '"';
+	}
+
+	/**
+	 * クエリを、キーの順に並べた比較可能な文字列に変換します.
+	 *
+	 * @param query クエリ
+	 * @return クエリの文字列表現
+	 */
+	private static String canonicalQuery(Map<String, String[]> query) {
+
+		SortedMap<String, String> sorted = new TreeMap<>();
+		if (query != null) {
+			for (Map.Entry<String, String[]> entry : query.entrySet()) {
+				sorted.put(entry.getKey(), Arrays.toString(entry.getValue()));
+			}
+		}
+		return sorted.toString();
+	}
+
+	/**
+	 * 文字列のSHA-1ダイジェストを16進数の文字列で返します.
+	 *
+	 * @param source 文字列
+	 * @return ダイジェストの16進数表現
+	 */
+	private static String digest(String source) {
+
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(UTF_8));
+
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncException("SHA-1 is not available.", e);
+		}
+	}
+}
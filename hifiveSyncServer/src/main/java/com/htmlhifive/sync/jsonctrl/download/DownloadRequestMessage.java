@@ -23,6 +23,7 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import com.htmlhifive.sync.resource.DownloadCursor;
 import com.htmlhifive.sync.resource.SyncMethod;
 import com.htmlhifive.sync.resource.SyncRequestHeader;
 
@@ -48,6 +49,12 @@ public class DownloadRequestMessage {
 	 */
 	private long lastSyncTime = 0L;
 
+	/**
+	 * 分割された下り更新の続きを取得するためのカーソル文字列.<br>
+	 * 前回のレスポンスで返されたものを指定します. 初回はnull.
+	 */
+	private String cursor;
+
 	/**
 	 * @see Object#equals(Object)
 	 */
@@ -97,6 +104,7 @@ public class DownloadRequestMessage {
 		// クエリ文字列をMapに変換
 		requestHeader.setQueryMap(query);
 		requestHeader.setLastSyncTime(lastSyncTime);
+		requestHeader.setDownloadCursor(DownloadCursor.parse(cursor));
 
 		return requestHeader;
 	}
@@ -142,4 +150,18 @@ public class DownloadRequestMessage {
 	public void setLastSyncTime(long lastSyncTime) {
 		this.lastSyncTime = lastSyncTime;
 	}
+
+	/**
+	 * @return cursor
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * @param cursor セットする cursor
+	 */
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
 }
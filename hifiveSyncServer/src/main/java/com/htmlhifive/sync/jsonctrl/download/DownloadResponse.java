@@ -17,7 +17,9 @@
 package com.htmlhifive.sync.jsonctrl.download;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.htmlhifive.sync.jsonctrl.ResponseBody;
@@ -40,6 +42,20 @@ public abstract class DownloadResponse implements ResponseBody {
      */
     private List<DownloadResponseMessage<?>> dataList;
 
+    /**
+     * データモデルごとの、次回の下り更新で続きを取得するためのカーソル文字列.<br>
+     * データモデル名をKey、カーソル文字列をValueとします.<br>
+     * クライアントはこのカーソルを保持し、次回の下り更新で指定します. 変更ジャーナルの通番を保持するカーソルの場合、
+     * 以降の変更が重複なく返されます.
+     */
+    private Map<String, String> cursors = new HashMap<>();
+
+    /**
+     * 全てのデータモデルについて、現時点でのデータを返し終えたかどうか.<br>
+     * falseの場合、クライアントはカーソルを指定して直ちに下り更新を繰り返します.
+     */
+    private boolean complete = true;
+
     /**
      * 下り更新レスポンスを生成します.
      *
@@ -101,4 +117,34 @@ public abstract class DownloadResponse implements ResponseBody {
     public void setDataList(List<DownloadResponseMessage<?>> dataList) {
         this.dataList = dataList;
     }
+
+    /**
+     * @return cursors
+     */
+    public Map<String, String> getCursors() {
+        return cursors;
+    }
+
+    /**
+     * @param cursors
+     *            セットする cursors
+     */
+    public void setCursors(Map<String, String> cursors) {
+        this.cursors = cursors;
+    }
+
+    /**
+     * @return complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @param complete
+     *            セットする complete
+     */
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
 }
\ No newline at end of file
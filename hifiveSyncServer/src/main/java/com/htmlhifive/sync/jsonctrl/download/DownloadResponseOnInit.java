@@ -16,7 +16,7 @@
  */
 package com.htmlhifive.sync.jsonctrl.download;
 
-import com.htmlhifive.sync.service.AbstractSyncResult;
+import com.htmlhifive.sync.service.SyncDownloadResult;
 
 /**
  * 初めて同期を行うクライアントからの下り更新リクエストに対するレスポンスデータクラス.
@@ -33,9 +33,11 @@ public class DownloadResponseOnInit extends DownloadResponse {
 	 *
 	 * @param downloadResult
 	 */
-	public DownloadResponseOnInit(AbstractSyncResult downloadResult) {
+	public DownloadResponseOnInit(SyncDownloadResult downloadResult) {
 
 		super(downloadResult.getCurrentSyncTime(), createResponseMessageList(downloadResult.getResultDataSet()));
+		setCursors(downloadResult.getNextCursorMap());
+		setComplete(downloadResult.isComplete());
 		this.storageId = downloadResult.getStorageId();
 	}
 
@@ -16,7 +16,7 @@
  */
 package com.htmlhifive.sync.jsonctrl.download;
 
-import com.htmlhifive.sync.service.AbstractSyncResult;
+import com.htmlhifive.sync.service.SyncDownloadResult;
 
 /**
  * 既知のクライアントからの下り更新リクエストに対するレスポンスデータクラス.
@@ -26,12 +26,15 @@ import com.htmlhifive.sync.service.AbstractSyncResult;
 public class DownloadResponseOrdinary extends DownloadResponse {
 
 	/**
-	 * 下り更新結果オブジェクトの内容から、クライアントに返すレスポンスデータを生成します.
+	 * 下り更新結果オブジェクトの内容から、クライアントに返すレスポンスデータを生成します.<br>
+	 * 続きのデータが存在するデータモデルについては、次ページ取得用のカーソルを含みます.
 	 *
 	 * @param downloadResult 下り更新結果オブジェクト
 	 */
-	public DownloadResponseOrdinary(AbstractSyncResult downloadResult) {
+	public DownloadResponseOrdinary(SyncDownloadResult downloadResult) {
 
 		super(downloadResult.getCurrentSyncTime(), createResponseMessageList(downloadResult.getResultDataSet()));
+		setCursors(downloadResult.getNextCursorMap());
+		setComplete(downloadResult.isComplete());
 	}
 }
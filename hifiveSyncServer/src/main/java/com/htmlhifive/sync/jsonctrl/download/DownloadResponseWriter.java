@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.jsonctrl.download;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.htmlhifive.sync.exception.SyncException;
+import com.htmlhifive.sync.jsonctrl.JsonDataConvertor;
+import com.htmlhifive.sync.resource.EncodedElementCache;
+import com.htmlhifive.sync.resource.SyncResponse;
+import com.htmlhifive.sync.resource.SyncResponseHeader;
+import com.htmlhifive.sync.service.SyncDownloadResult;
+import com.htmlhifive.sync.service.SyncResponseHandler;
+
+/**
+ * 下り更新レスポンスをJSON形式で逐次書き出すライタークラス.<br>
+ * {@link DownloadResponseOrdinary}と同じ形式のJSONを、同期レスポンスを1件受け取るごとに出力ストリームへ書き出します.<br>
+ * 書き出しは{@link #writeStart()}、{@link #handle(SyncResponse)}の繰り返し、{@link #writeEnd(SyncDownloadResult)}の順に行います.
+ * {@link #writeStart()}を呼び出さない場合、最初の書き出し時に開始します.<br>
+ * リソースエレメントは{@link EncodedElementCache}を使用し、最終更新時刻が同じものは前回のエンコード結果をそのまま書き出します.
+ *
+ * @author kishigam
+ */
+public class DownloadResponseWriter implements SyncResponseHandler {
+
+	/**
+	 * JSONジェネレータを生成するためのオブジェクトマッパー.<br>
+	 * 設定を変更しないため、スレッド間で共有します.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * 出力ストリームに書き出すJSONジェネレータ.
+	 */
+	private final JsonGenerator generator;
+
+	/**
+	 * エンコード済みのリソースエレメントのキャッシュ.<br>
+	 * キャッシュを使用しない場合はnull.
+	 */
+	private final EncodedElementCache encodedElementCache;
+
+	/**
+	 * レスポンスの書き出しを開始したかどうか.
+	 */
+	private boolean started;
+
+	/**
+	 * 出力ストリームを指定してライターを生成します.
+	 *
+	 * @param out JSONを書き出す出力ストリーム
+	 * @throws IOException JSONジェネレータが生成できなかった場合
+	 */
+	public DownloadResponseWriter(OutputStream out) throws IOException {
+
+		this(out, null);
+	}
+
+	/**
+	 * 出力ストリームとエンコード済みのリソースエレメントのキャッシュを指定してライターを生成します.
+	 *
+	 * @param out JSONを書き出す出力ストリーム
+	 * @param encodedElementCache エンコード済みのリソースエレメントのキャッシュ
+	 * @throws IOException JSONジェネレータが生成できなかった場合
+	 */
+	public DownloadResponseWriter(OutputStream out, EncodedElementCache encodedElementCache) throws IOException {
+
+		this.generator = MAPPER.getJsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+		this.encodedElementCache = encodedElementCache;
+	}
+
+	/**
+	 * レスポンスの書き出しを開始します.<br>
+	 * レスポンスメッセージのリストの開始までを書き出します. 既に開始している場合は何もしません.
+	 *
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	public void writeStart() throws IOException {
+
+		writeStart(null);
+	}
+
+	/**
+	 * レスポンスの書き出しを開始します.<br>
+	 * {@link DownloadResponseOnInit}と同様に、ストレージIDがnullでなければ"storageId"項目として書き出します.
+	 * 既に開始している場合は何もしません.
+	 *
+	 * @param storageId 新規に採番したクライアントのストレージID
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	public void writeStart(String storageId) throws IOException {
+
+		if (started) {
+			return;
+		}
+		started = true;
+
+		generator.writeStartObject();
+		if (storageId != null) {
+			generator.writeStringField("storageId", storageId);
+		}
+		generator.writeArrayFieldStart("dataList");
+	}
+
+	/**
+	 * JSON形式にエンコード済みのレスポンスメッセージを、そのまま1件書き出します.<br>
+	 * {@link DownloadSnapshotStore スナップショット}の内容を書き出す場合に使用します.
+	 *
+	 * @param encodedMessage JSON形式のレスポンスメッセージ
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	public void writeRawMessage(String encodedMessage) throws IOException {
+
+		writeStart();
+
+		generator.writeRawValue(encodedMessage);
+	}
+
+	/**
+	 * 同期レスポンスをレスポンスメッセージとして1件書き出します.<br>
+	 * {@link DownloadResponseMessage}と同じ項目を書き出し、リソースエレメントはエンコード結果をそのまま埋め込みます.
+	 *
+	 * @param response 同期レスポンスオブジェクト
+	 * @throws SyncException 書き出しに失敗した場合
+	 */
+	@Override
+	public void handle(SyncResponse<?> response) {
+
+		SyncResponseHeader header = response.getHeader();
+		try {
+			writeStart();
+
+			generator.writeStartObject();
+			generator.writeStringField("syncDataId", header.getSyncDataId());
+			generator.writeStringField("dataModelName", header.getDataModelName());
+			generator.writeObjectField("action", JsonDataConvertor.convertSyncMethodToAction(header.getSyncMethod()));
+			generator.writeNumberField("lastModified", header.getLastModified());
+			generator.writeFieldName("element");
+			if (response.getElement() == null) {
+				generator.writeNull();
+			} else {
+				generator.writeRawValue(encodeElement(header, response.getElement()));
+			}
+			generator.writeEndObject();
+
+		} catch (IOException e) {
+			throw new SyncException("failed to write download response.", e);
+		}
+	}
+
+	/**
+	 * レスポンスの書き出しを終了します.<br>
+	 * レスポンスメッセージのリストを閉じ、同期時刻、続きを取得するためのカーソルと完了状態を書き出して出力ストリームをフラッシュします.
+	 *
+	 * @param downloadResult 下り更新結果オブジェクト
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	public void writeEnd(SyncDownloadResult downloadResult) throws IOException {
+
+		writeEnd(downloadResult, null);
+	}
+
+	/**
+	 * レスポンスの書き出しを終了します.<br>
+	 * {@link #writeEnd(SyncDownloadResult)}の内容に加え、エンティティタグがnullでなければ"etag"項目として書き出します.
+	 *
+	 * @param downloadResult 下り更新結果オブジェクト
+	 * @param entityTag 次回の条件付きリクエストに使用するエンティティタグ
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	public void writeEnd(SyncDownloadResult downloadResult, String entityTag) throws IOException {
+
+		writeStart();
+
+		generator.writeEndArray();
+		generator.writeNumberField("syncTime", downloadResult.getCurrentSyncTime());
+		generator.writeObjectField("cursors", downloadResult.getNextCursorMap());
+		generator.writeBooleanField("complete", downloadResult.isComplete());
+		if (entityTag != null) {
+			generator.writeStringField("etag", entityTag);
+		}
+		generator.writeEndObject();
+		generator.flush();
+	}
+
+	/**
+	 * リソースエレメントをJSON文字列にエンコードします.<br>
+	 * 同期データIDと最終更新時刻が同じエンコード結果がキャッシュにある場合は、それを返します.
+	 *
+	 * @param header 同期レスポンスヘッダ
+	 * @param element リソースエレメント
+	 * @return JSON文字列
+	 * @throws IOException エンコードに失敗した場合
+	 */
+	private String encodeElement(SyncResponseHeader header, Object element) throws IOException {
+
+		if (encodedElementCache == null) {
+			return MAPPER.writeValueAsString(element);
+		}
+
+		String encoded = encodedElementCache.get(header.getSyncDataId(), header.getLastModified());
+		if (encoded == null) {
+			encoded = MAPPER.writeValueAsString(element);
+			encodedElementCache.put(header.getSyncDataId(), header.getLastModified(), encoded);
+		}
+		return encoded;
+	}
+}
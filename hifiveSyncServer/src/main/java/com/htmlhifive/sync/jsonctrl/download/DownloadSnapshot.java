@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.jsonctrl.download;
+
+import java.io.File;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * {@link DownloadSnapshotStore}が作成した、あるデータモデルの初回下り更新用スナップショットの情報を保持するクラス.<br>
+ * スナップショットファイルには、作成時点のデータモデルの全データがレスポンスメッセージとして1行に1件ずつ、gzip形式で格納されています.<br>
+ * 新しいスナップショットに置き換えられた後も、ファイルを読み込み中のリクエストが残っている間はファイルを削除しないよう、読み込み中のリクエストの数を保持します.
+ *
+ * @author kishigam
+ */
+public class DownloadSnapshot {
+
+	/**
+	 * データモデル名.
+	 */
+	private final String dataModelName;
+
+	/**
+	 * スナップショットファイル.
+	 */
+	private final File file;
+
+	/**
+	 * スナップショットが含む変更の続きを取得するためのカーソル文字列.<br>
+	 * 変更ジャーナルの通番を保持するカーソルで、スナップショットが反映しているウォーターマークを表します.
+	 */
+	private final String cursor;
+
+	/**
+	 * スナップショットに含まれるレスポンスメッセージの件数.
+	 */
+	private final int messageCount;
+
+	/**
+	 * スナップショットファイルを読み込み中のリクエストの数.
+	 */
+	private int readers;
+
+	/**
+	 * 新しいスナップショットに置き換えられたかどうか.
+	 */
+	private boolean retired;
+
+	/**
+	 * スナップショットの情報を指定して生成します.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param file スナップショットファイル
+	 * @param cursor 続きを取得するためのカーソル文字列
+	 * @param messageCount レスポンスメッセージの件数
+	 */
+	public DownloadSnapshot(String dataModelName, File file, String cursor, int messageCount) {
+
+		this.dataModelName = dataModelName;
+		this.file = file;
+		this.cursor = cursor;
+		this.messageCount = messageCount;
+	}
+
+	/**
+	 * 読み込み中のリクエストとして登録します.<br>
+	 * 既に新しいスナップショットに置き換えられている場合は登録しません.
+	 *
+	 * @return 登録した場合true
+	 */
+	synchronized boolean retain() {
+
+		if (retired) {
+			return false;
+		}
+		readers++;
+		return true;
+	}
+
+	/**
+	 * 読み込み中のリクエストの登録を解除します.
+	 *
+	 * @return 置き換えられたスナップショットで、読み込み中のリクエストがなくなった場合true
+	 */
+	synchronized boolean release() {
+
+		readers--;
+		return retired && readers == 0;
+	}
+
+	/**
+	 * 新しいスナップショットに置き換えられたものとします.
+	 *
+	 * @return 読み込み中のリクエストがない場合true
+	 */
+	synchronized boolean retire() {
+
+		retired = true;
+		return readers == 0;
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return dataModelName
+	 */
+	public String getDataModelName() {
+		return dataModelName;
+	}
+
+	/**
+	 * @return file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return cursor
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * @return messageCount
+	 */
+	public int getMessageCount() {
+		return messageCount;
+	}
+}
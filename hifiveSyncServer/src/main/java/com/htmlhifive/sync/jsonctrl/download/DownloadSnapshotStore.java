@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.jsonctrl.download;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Resource;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.htmlhifive.sync.exception.SyncException;
+import com.htmlhifive.sync.resource.SyncResourceManager;
+import com.htmlhifive.sync.resource.SyncResponse;
+import com.htmlhifive.sync.service.SyncDownloadResult;
+import com.htmlhifive.sync.service.SyncResponseHandler;
+import com.htmlhifive.sync.service.Synchronizer;
+
+/**
+ * 初回の下り更新で返すデータを、データモデルごとのスナップショットファイルとして保持するクラス.<br>
+ * {@link #refresh()}を定期的に実行し、全データモデルのスナップショットを作成し直します.
+ * スナップショットは通常の初回下り更新と同じ手順で全ページを取得して作成し、続きを取得するための変更ジャーナルの通番のカーソルを保持します.<br>
+ * 初回の下り更新では、スナップショットをファイルから逐次書き出し、カーソル以降の差分のみをデータベースから取得します.<br>
+ * スナップショットを格納するディレクトリが設定されていない場合は使用しません.
+ *
+ * @author kishigam
+ */
+@Component
+public class DownloadSnapshotStore {
+
+	/**
+	 * スナップショットの作成に使用するストレージID.
+	 */
+	private static final String SNAPSHOT_STORAGE_ID = "snapshot";
+
+	/**
+	 * スナップショットファイルの文字コード.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * レスポンスメッセージをエンコードするためのオブジェクトマッパー.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * 同期処理を実行するシンクロナイザー.
+	 */
+	@Resource
+	private Synchronizer synchronizer;
+
+	/**
+	 * スナップショットを作成するデータモデルを取得するためのリソースマネージャ.
+	 */
+	@Resource
+	private SyncResourceManager resourceManager;
+
+	/**
+	 * スナップショットファイルを格納するディレクトリ.<br>
+	 * 空文字の場合、スナップショットを使用しません.
+	 */
+	@Value("${sync.snapshot.directory:}")
+	private String directory = "";
+
+	/**
+	 * データモデル名をKey、最新のスナップショットをValueとするMap.
+	 */
+	private final ConcurrentMap<String, DownloadSnapshot> snapshots = new ConcurrentHashMap<>();
+
+	/**
+	 * スナップショットを使用するかどうかを返します.
+	 *
+	 * @return 使用する場合true
+	 */
+	public boolean isEnabled() {
+
+		return directory != null && !directory.isEmpty();
+	}
+
+	/**
+	 * データモデルの最新のスナップショットを、読み込み中として返します.<br>
+	 * 返したスナップショットは、書き出しの完了後に{@link #release(DownloadSnapshot)}で解除する必要があります.
+	 * 解除されるまでは、新しいスナップショットに置き換えられてもファイルを削除しません.
+	 *
+	 * @param dataModelName データモデル名
+	 * @return スナップショット(まだ作成されていない場合null)
+	 */
+	public DownloadSnapshot acquire(String dataModelName) {
+
+		while (true) {
+			DownloadSnapshot snapshot = snapshots.get(dataModelName);
+
+			// 置き換えられた直後の場合は、新しいスナップショットを取得し直す
+			if (snapshot == null || snapshot.retain()) {
+				return snapshot;
+			}
+		}
+	}
+
+	/**
+	 * {@link #acquire(String)}で返したスナップショットの読み込みを終了します.<br>
+	 * 既に新しいスナップショットに置き換えられており、他に読み込み中のリクエストがない場合はファイルを削除します.
+	 *
+	 * @param snapshot スナップショット
+	 */
+	public void release(DownloadSnapshot snapshot) {
+
+		if (snapshot.release()) {
+			delete(snapshot);
+		}
+	}
+
+	/**
+	 * 全データモデルのスナップショットを作成し直します.<br>
+	 * 作成が完了したスナップショットから順に置き換え、古いスナップショットファイルを削除します.
+	 * 古いスナップショットを読み込み中のリクエストがある場合、ファイルは最後のリクエストの読み込みが終了した時点で削除します.
+	 */
+	public void refresh() {
+
+		if (!isEnabled()) {
+			return;
+		}
+
+		File dir = new File(directory);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new SyncException("cannot create snapshot directory : " + directory);
+		}
+
+		for (String dataModelName : resourceManager.getAllDataModelNames()) {
+
+			DownloadSnapshot previous = snapshots.put(dataModelName, build(dir, dataModelName));
+			if (previous != null && previous.retire()) {
+				delete(previous);
+			}
+		}
+	}
+
+	/**
+	 * スナップショットの内容を、レスポンスメッセージとしてライターへ書き出します.
+	 *
+	 * @param snapshot スナップショット
+	 * @param writer 下り更新レスポンスのライター
+	 * @throws IOException 読み込みまたは書き出しに失敗した場合
+	 */
+	public void writeTo(DownloadSnapshot snapshot, DownloadResponseWriter writer) throws IOException {
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+				new FileInputStream(snapshot.getFile())), UTF_8))) {
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				writer.writeRawMessage(line);
+			}
+		}
+	}
+
+	/**
+	 * スナップショットファイルを削除します.<br>
+	 * 削除できない場合は、VMの終了時に削除します.
+	 *
+	 * @param snapshot スナップショット
+	 */
+	private void delete(DownloadSnapshot snapshot) {
+
+		if (!snapshot.getFile().delete()) {
+			snapshot.getFile().deleteOnExit();
+		}
+	}
+
+	/**
+	 * データモデルの全データを初回の下り更新と同じ手順で取得し、スナップショットファイルを作成します.<br>
+	 * ページごとに別のトランザクションで取得するため、データベース接続を長時間保持しません.
+	 * 特定のクライアントに返すデータではないため、リソースのロックは取得しません.
+	 *
+	 * @param dir スナップショットファイルを格納するディレクトリ
+	 * @param dataModelName データモデル名
+	 * @return 作成したスナップショット
+	 */
+	private DownloadSnapshot build(File dir, String dataModelName) {
+
+		File file = null;
+		try {
+			file = File.createTempFile("snapshot-" + dataModelName + "-", ".json.gz", dir);
+
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(
+					file)), UTF_8))) {
+
+				SnapshotHandler handler = new SnapshotHandler(out);
+
+				String cursor = null;
+				SyncDownloadResult downloadResult;
+				do {
+					DownloadRequestMessage message = new DownloadRequestMessage();
+					message.setDataModelName(dataModelName);
+					message.setCursor(cursor);
+
+					List<DownloadRequestMessage> requestMessages = Collections.singletonList(message);
+					downloadResult = synchronizer.syncDownloadWithoutLock(SNAPSHOT_STORAGE_ID, requestMessages,
+							handler);
+
+					cursor = downloadResult.getNextCursorMap().get(dataModelName);
+				} while (!downloadResult.isComplete());
+
+				return new DownloadSnapshot(dataModelName, file, cursor, handler.count);
+			}
+
+		} catch (IOException | RuntimeException e) {
+			if (file != null) {
+				file.delete();
+			}
+			throw new SyncException("failed to build snapshot : " + dataModelName, e);
+		}
+	}
+
+	/**
+	 * 取得した同期レスポンスをレスポンスメッセージとして1行ずつ書き出すハンドラ.
+	 */
+	private static class SnapshotHandler implements SyncResponseHandler {
+
+		/**
+		 * スナップショットファイルへの出力.
+		 */
+		private final Writer out;
+
+		/**
+		 * 書き出したレスポンスメッセージの件数.
+		 */
+		private int count;
+
+		/**
+		 * @param out スナップショットファイルへの出力
+		 */
+		SnapshotHandler(Writer out) {
+			this.out = out;
+		}
+
+		/**
+		 * @see SyncResponseHandler#handle(SyncResponse)
+		 */
+		@Override
+		public void handle(SyncResponse<?> response) {
+
+			try {
+				out.write(MAPPER.writeValueAsString(new DownloadResponseMessage<>(response)));
+				out.write('\n');
+				count++;
+
+			} catch (IOException e) {
+				throw new SyncException("failed to write snapshot.", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.jsonctrl.download;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+
+import com.htmlhifive.sync.exception.SyncException;
+import com.htmlhifive.sync.resource.EncodedElementCache;
+import com.htmlhifive.sync.resource.WatermarkListener;
+import com.htmlhifive.sync.resource.WatermarkRegistry;
+import com.htmlhifive.sync.service.SyncDownloadResult;
+import com.htmlhifive.sync.service.SyncResultType;
+import com.htmlhifive.sync.service.Synchronizer;
+
+/**
+ * 変更があるまでレスポンスを保留する下り更新(ロングポーリング)を処理するクラス.<br>
+ * Servlet 3の非同期処理を開始したリクエストを、リクエストされたデータモデルのウォーターマークが進むまで保留します.<br>
+ * 保留中はコンテナのスレッドもデータベース接続も保持せず、{@link WatermarkRegistry}へのリスナー登録のみを行います.<br>
+ * ウォーターマークが進んだ場合はコンテナのスレッドで下り更新を実行してレスポンスを書き出し、
+ * タイムアウトした場合は304(Not Modified)を返します.どちらか先に発生した一方のみが処理されます.
+ *
+ * @author kishigam
+ */
+public class LongPollDownload implements WatermarkListener, AsyncListener {
+
+	/**
+	 * 保留しているリクエストの非同期コンテキスト.
+	 */
+	private final AsyncContext asyncContext;
+
+	/**
+	 * クライアントのストレージID.
+	 */
+	private final String storageId;
+
+	/**
+	 * 下り更新のリクエストメッセージのリスト.
+	 */
+	private final List<? extends DownloadRequestMessage> requestMessages;
+
+	/**
+	 * 保留を開始した時点のエンティティタグ.
+	 */
+	private final String entityTag;
+
+	/**
+	 * 同期処理を実行するシンクロナイザー.
+	 */
+	private final Synchronizer synchronizer;
+
+	/**
+	 * ウォーターマークのレジストリ.
+	 */
+	private final WatermarkRegistry watermarkRegistry;
+
+	/**
+	 * エンコード済みのリソースエレメントのキャッシュ.
+	 */
+	private final EncodedElementCache encodedElementCache;
+
+	/**
+	 * 保留が解除されたかどうか.<br>
+	 * ウォーターマークの変化とタイムアウトのうち、先に発生した一方のみを処理するために使用します.
+	 */
+	private final AtomicBoolean released = new AtomicBoolean(false);
+
+	/**
+	 * 保留するリクエストの情報を指定して生成します.
+	 *
+	 * @param asyncContext 非同期処理を開始したリクエストの非同期コンテキスト
+	 * @param storageId クライアントのストレージID
+	 * @param requestMessages 下り更新のリクエストメッセージのリスト
+	 * @param entityTag 保留を開始した時点のエンティティタグ
+	 * @param synchronizer シンクロナイザー
+	 * @param watermarkRegistry ウォーターマークのレジストリ
+	 * @param encodedElementCache エンコード済みのリソースエレメントのキャッシュ
+	 */
+	public LongPollDownload(AsyncContext asyncContext, String storageId,
+			List<? extends DownloadRequestMessage> requestMessages, String entityTag, Synchronizer synchronizer,
+			WatermarkRegistry watermarkRegistry, EncodedElementCache encodedElementCache) {
+
+		this.asyncContext = asyncContext;
+		this.storageId = storageId;
+		this.requestMessages = requestMessages;
+		this.entityTag = entityTag;
+		this.synchronizer = synchronizer;
+		this.watermarkRegistry = watermarkRegistry;
+		this.encodedElementCache = encodedElementCache;
+	}
+
+	/**
+	 * リクエストの保留を開始します.<br>
+	 * リスナーの登録中にウォーターマークが進んだ場合を取りこぼさないよう、登録後にエンティティタグを再確認します.
+	 *
+	 * @param timeout タイムアウト時間(ミリ秒)
+	 */
+	public void start(long timeout) {
+
+		asyncContext.setTimeout(timeout);
+		asyncContext.addListener(this);
+
+		for (DownloadRequestMessage message : requestMessages) {
+			watermarkRegistry.addListener(message.getDataModelName(), this);
+		}
+
+		if (!entityTag.equals(DownloadEntityTag.forRequest(requestMessages, watermarkRegistry))) {
+			release();
+		}
+	}
+
+	/**
+	 * ウォーターマークが進んだ場合、保留を解除して下り更新を実行します.<br>
+	 * 通知したスレッドを待たせないよう、下り更新はコンテナのスレッドで実行します.
+	 *
+	 * @see WatermarkListener#watermarkAdvanced(String, long)
+	 */
+	@Override
+	public void watermarkAdvanced(String dataModelName, long watermark) {
+
+		release();
+	}
+
+	/**
+	 * タイムアウトした場合、変更がないことを示す304(Not Modified)を返します.
+	 *
+	 * @see AsyncListener#onTimeout(AsyncEvent)
+	 */
+	@Override
+	public void onTimeout(AsyncEvent event) throws IOException {
+
+		if (!released.compareAndSet(false, true)) {
+			return;
+		}
+		removeListeners();
+
+		HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+		response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		response.setHeader("ETag", entityTag);
+		asyncContext.complete();
+	}
+
+	/**
+	 * @see AsyncListener#onError(AsyncEvent)
+	 */
+	@Override
+	public void onError(AsyncEvent event) throws IOException {
+
+		released.set(true);
+		removeListeners();
+	}
+
+	/**
+	 * @see AsyncListener#onComplete(AsyncEvent)
+	 */
+	@Override
+	public void onComplete(AsyncEvent event) throws IOException {
+
+		removeListeners();
+	}
+
+	/**
+	 * @see AsyncListener#onStartAsync(AsyncEvent)
+	 */
+	@Override
+	public void onStartAsync(AsyncEvent event) throws IOException {
+	}
+
+	/**
+	 * 保留を解除し、コンテナのスレッドで下り更新を実行します.<br>
+	 * 既に解除されている場合は何もしません.<br>
+	 * 書き出し開始前にエラーが発生した場合は500(Internal Server Error)を返し、例外はコンテナのスレッドへ送出します.
+	 */
+	private void release() {
+
+		if (!released.compareAndSet(false, true)) {
+			return;
+		}
+		removeListeners();
+
+		asyncContext.start(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					download();
+				} catch (IOException e) {
+					sendError();
+					throw new SyncException("failed to write long-poll download response.", e);
+				} catch (RuntimeException e) {
+					sendError();
+					throw e;
+				} finally {
+					asyncContext.complete();
+				}
+			}
+		});
+	}
+
+	/**
+	 * 下り更新を実行し、レスポンスを逐次書き出します.
+	 *
+	 * @throws IOException レスポンスの書き出しに失敗した場合
+	 */
+	private void download() throws IOException {
+
+		HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("application/json;charset=utf-8");
+
+		DownloadResponseWriter writer = new DownloadResponseWriter(response.getOutputStream(), encodedElementCache);
+
+		SyncDownloadResult downloadResult = synchronizer.syncDownload(storageId, requestMessages, writer);
+
+		if (downloadResult.getResultType() == SyncResultType.RESYNC_REQUIRED) {
+			response.setStatus(HttpServletResponse.SC_GONE);
+		}
+
+		writer.writeEnd(downloadResult, DownloadEntityTag.forResult(requestMessages, downloadResult, watermarkRegistry));
+	}
+
+	/**
+	 * レスポンスの書き出しが始まっていなければ、500(Internal Server Error)を設定します.
+	 */
+	private void sendError() {
+
+		HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+		if (!response.isCommitted()) {
+			response.reset();
+			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	/**
+	 * 登録したリスナーを全て削除します.
+	 */
+	private void removeListeners() {
+
+		for (DownloadRequestMessage message : requestMessages) {
+			watermarkRegistry.removeListener(message.getDataModelName(), this);
+		}
+	}
+}
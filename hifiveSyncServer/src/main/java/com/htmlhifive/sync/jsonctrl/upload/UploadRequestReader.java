@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.jsonctrl.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.htmlhifive.sync.exception.BadRequestException;
+import com.htmlhifive.sync.exception.SyncException;
+
+/**
+ * JSON形式の上り更新リクエストデータを、メッセージ1件ずつ読み込むリーダークラス.<br>
+ * {@link UploadRequest}と同じ形式のJSONを入力ストリームから逐次解析し、"dataList"項目の要素を
+ * {@link UploadRequestMessage}として1件ずつ返します. リクエスト全体をメモリ上に保持しません.<br>
+ * "dataList"以外の項目は読み飛ばします.
+ *
+ * @author kishigam
+ */
+public class UploadRequestReader implements Iterator<UploadRequestMessage<?>>, Closeable {
+
+	/**
+	 * JSONパーサを生成し、メッセージをバインドするためのオブジェクトマッパー.<br>
+	 * 設定を変更しないため、スレッド間で共有します.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * 入力ストリームを解析するJSONパーサ.
+	 */
+	private final JsonParser parser;
+
+	/**
+	 * 読み込み済みで、まだ返していないメッセージ.
+	 */
+	private UploadRequestMessage<?> next;
+
+	/**
+	 * "dataList"項目の配列を読み込み中かどうか.
+	 */
+	private boolean inDataList;
+
+	/**
+	 * 全てのメッセージを読み込んだかどうか.
+	 */
+	private boolean finished;
+
+	/**
+	 * 入力ストリームを指定してリーダーを生成します.
+	 *
+	 * @param in JSONを読み込む入力ストリーム
+	 * @throws IOException JSONパーサが生成できなかった場合
+	 * @throws BadRequestException リクエストデータがJSONオブジェクトでない場合
+	 */
+	public UploadRequestReader(InputStream in) throws IOException {
+
+		this.parser = MAPPER.getJsonFactory().createJsonParser(in);
+
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new BadRequestException("upload request must be a JSON object.");
+		}
+	}
+
+	/**
+	 * 次のメッセージがあるかどうかを返します.<br>
+	 * 必要な場合、次のメッセージを入力ストリームから読み込みます.
+	 *
+	 * @return 次のメッセージがある場合true
+	 * @throws BadRequestException リクエストデータの形式が不正な場合
+	 * @throws SyncException 入力ストリームの読み込みに失敗した場合
+	 */
+	@Override
+	public boolean hasNext() {
+
+		if (next != null) {
+			return true;
+		}
+		if (finished) {
+			return false;
+		}
+
+		try {
+			next = readNext();
+
+		} catch (JsonProcessingException e) {
+			throw new BadRequestException("illegal upload request.", e);
+
+		} catch (IOException e) {
+			throw new SyncException("failed to read upload request.", e);
+		}
+
+		return next != null;
+	}
+
+	/**
+	 * 次のメッセージを返します.
+	 *
+	 * @return 上り更新のリクエストメッセージ
+	 * @throws NoSuchElementException 次のメッセージがない場合
+	 */
+	@Override
+	public UploadRequestMessage<?> next() {
+
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		UploadRequestMessage<?> message = next;
+		next = null;
+		return message;
+	}
+
+	/**
+	 * サポートしていません.
+	 *
+	 * @throws UnsupportedOperationException 常にスローします
+	 */
+	@Override
+	public void remove() {
+
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * JSONパーサを閉じます.
+	 *
+	 * @throws IOException JSONパーサを閉じられなかった場合
+	 */
+	@Override
+	public void close() throws IOException {
+
+		parser.close();
+	}
+
+	/**
+	 * "dataList"項目の配列から、次のメッセージを読み込みます.<br>
+	 * 配列の開始位置まで読み込んでいない場合は、それ以前の項目を読み飛ばします.
+	 *
+	 * @return 上り更新のリクエストメッセージ(メッセージがない場合null)
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	private UploadRequestMessage<?> readNext() throws IOException {
+
+		if (!inDataList && !seekDataList()) {
+			finished = true;
+			return null;
+		}
+
+		JsonToken token = parser.nextToken();
+		if (token == JsonToken.END_ARRAY) {
+			finished = true;
+			return null;
+		}
+		if (token != JsonToken.START_OBJECT) {
+			throw new BadRequestException("illegal upload request message : " + token);
+		}
+
+		return MAPPER.readValue(parser, UploadRequestMessage.class);
+	}
+
+	/**
+	 * "dataList"項目の配列の開始位置まで読み込みます.
+	 *
+	 * @return "dataList"項目がある場合true
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	private boolean seekDataList() throws IOException {
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+			String fieldName = parser.getCurrentName();
+			JsonToken valueToken = parser.nextToken();
+
+			if ("dataList".equals(fieldName)) {
+				if (valueToken == JsonToken.VALUE_NULL) {
+					return false;
+				}
+				if (valueToken != JsonToken.START_ARRAY) {
+					throw new BadRequestException("dataList must be an array.");
+				}
+				inDataList = true;
+				return true;
+			}
+
+			parser.skipChildren();
+		}
+
+		return false;
+	}
+}
@@ -16,9 +16,13 @@
  */
 package com.htmlhifive.sync.jsonctrl.upload;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import com.htmlhifive.sync.jsonctrl.ResponseBody;
+import com.htmlhifive.sync.resource.SyncMethod;
+import com.htmlhifive.sync.resource.SyncResponse;
 
 /**
  * クライアントからの上り更新リクエストに対するレスポンスデータの抽象クラス.
@@ -32,6 +36,28 @@ public abstract class UploadResponse implements ResponseBody {
 	 */
 	private List<UploadResponseMessage> dataList;
 
+	/**
+	 * 更新に成功した同期レスポンスから、上り更新レスポンスメッセージのリストを生成します.<br>
+	 * 新規登録(POST)の結果は採番した同期データIDを返すメッセージとします.
+	 *
+	 * @param responses 同期レスポンスオブジェクトのCollection
+	 * @return 上り更新レスポンスメッセージのリスト
+	 */
+	protected static List<UploadResponseMessage> createOrdinaryMessages(Collection<SyncResponse<?>> responses) {
+
+		List<UploadResponseMessage> messages = new ArrayList<>();
+
+		for (SyncResponse<?> response : responses) {
+
+			UploadResponseMessage message = response.getHeader().getSyncMethod() == SyncMethod.POST ? new UploadResponseMessageForNewData(
+					response) : new UploadResponseMessageOrdinary(response);
+
+			messages.add(message);
+		}
+
+		return messages;
+	}
+
 	/**
 	 * @return dataList
 	 */
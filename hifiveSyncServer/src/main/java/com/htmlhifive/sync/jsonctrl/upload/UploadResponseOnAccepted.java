@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.jsonctrl.upload;
+
+import com.htmlhifive.sync.jsonctrl.ResponseBody;
+import com.htmlhifive.sync.service.UploadJob;
+
+/**
+ * 非同期の上り更新リクエストを受け付けた際のレスポンスデータ.<br>
+ * クライアントは、このジョブIDを指定して上り更新結果を取得します.
+ *
+ * @author kishigam
+ */
+public class UploadResponseOnAccepted implements ResponseBody {
+
+	/**
+	 * 上り更新を実行するジョブのID.
+	 */
+	private String jobId;
+
+	/**
+	 * 登録したジョブからレスポンスデータを生成します.
+	 *
+	 * @param job 上り更新を実行するジョブ
+	 */
+	public UploadResponseOnAccepted(UploadJob job) {
+
+		this.jobId = job.getJobId();
+	}
+
+	/**
+	 * @return jobId
+	 */
+	public String getJobId() {
+		return jobId;
+	}
+}
@@ -24,7 +24,8 @@ import com.htmlhifive.sync.service.SyncResultType;
 import com.htmlhifive.sync.service.SyncUploadResult;
 
 /**
- * 上り更新リクエストに対する競合発生時のレスポンスデータクラス.
+ * 上り更新リクエストに対する競合発生時のレスポンスデータクラス.<br>
+ * 部分コミットモードでは、競合せずにコミットされたメッセージの結果を"committedDataList"項目として返します.
  *
  * @author kishigam
  */
@@ -35,6 +36,12 @@ public class UploadResponseOnConflict extends UploadResponse {
 	 */
 	private SyncResultType conflictType;
 
+	/**
+	 * 部分コミットモードで、競合せずにコミットされたメッセージの上り更新結果のリスト.<br>
+	 * 全てのメッセージをロールバックした場合は空のリスト.
+	 */
+	private List<UploadResponseMessage> committedDataList;
+
 	/**
 	 * 上り更新結果オブジェクトからレスポンスデータを生成します.
 	 *
@@ -53,6 +60,7 @@ public class UploadResponseOnConflict extends UploadResponse {
 
 		setDataList(dataList);
 		this.conflictType = uploadResult.getResultType();
+		this.committedDataList = createOrdinaryMessages(uploadResult.getCommittedDataSet());
 	}
 
 	/**
@@ -68,4 +76,11 @@ public class UploadResponseOnConflict extends UploadResponse {
 	public void setConflictType(SyncResultType conflictType) {
 		this.conflictType = conflictType;
 	}
+
+	/**
+	 * @return committedDataList
+	 */
+	public List<UploadResponseMessage> getCommittedDataList() {
+		return committedDataList;
+	}
 }
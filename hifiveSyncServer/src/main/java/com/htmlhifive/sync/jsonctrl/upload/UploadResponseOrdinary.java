@@ -16,11 +16,6 @@
  */
 package com.htmlhifive.sync.jsonctrl.upload;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import com.htmlhifive.sync.resource.SyncMethod;
-import com.htmlhifive.sync.resource.SyncResponse;
 import com.htmlhifive.sync.service.SyncUploadResult;
 
 /**
@@ -37,16 +32,6 @@ public class UploadResponseOrdinary extends UploadResponse {
 	 */
 	public UploadResponseOrdinary(SyncUploadResult uploadResult) {
 
-		List<UploadResponseMessage> dataList = new ArrayList<>();
-
-		for (SyncResponse<?> response : uploadResult.getResultDataSet()) {
-
-			UploadResponseMessage message = response.getHeader().getSyncMethod() == SyncMethod.POST ? new UploadResponseMessageForNewData(
-					response) : new UploadResponseMessageOrdinary(response);
-
-			dataList.add(message);
-		}
-
-		setDataList(dataList);
+		setDataList(createOrdinaryMessages(uploadResult.getResultDataSet()));
 	}
 }
@@ -22,4 +22,22 @@ public class ClientResolvingStrategy implements UpdateStrategy {
 
 		throw new ConflictException("resource element has updated.", new SyncResponse<>(responseHeader, serverElement));
 	}
+
+	/**
+	 * 競合を解決しないため、falseを返します.
+	 */
+	@Override
+	public boolean canResolveConflict() {
+
+		return false;
+	}
+
+	/**
+	 * 保存されたエレメントを使用しないため、処理を実行しません.
+	 */
+	@Override
+	public <E> void elementSaved(SyncResponseHeader responseHeader, E element) {
+
+		// ロジックなし
+	}
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.htmlhifive.sync.exception.SyncException;
+
+/**
+ * 下り更新で取得したページを、複数のクライアントで共有するためのキャッシュクラス.<br>
+ * (データモデル名, クエリ, 前回同期時刻, カーソル, 最大件数, ウォーターマーク)をキーとしてページを保持します.
+ * ウォーターマークはデータモデルの変更が記録されるたびに進む値で、他のサーバでの変更もキーの違いとして反映されます.<br>
+ * 同じキーの取得が同時に要求された場合、最初の要求だけが取得を実行し、他の要求はその結果を待ちます.<br>
+ * エントリは最大件数を超えると最も古く参照されたものから、有効期間を過ぎると参照時に破棄されます.
+ *
+ * @author kishigam
+ */
+@Component
+public class DownloadCache {
+
+	/**
+	 * 保持するエントリの最大件数.<br>
+	 * 0以下の場合、キャッシュを使用しません.
+	 */
+	@Value("${sync.download.cache.maxEntries:100}")
+	private int maxEntries = 100;
+
+	/**
+	 * エントリの有効期間(ミリ秒).<br>
+	 * 他のサーバでの変更など、ウォーターマークが進まない変更が反映されるまでの最大の遅れになります.
+	 */
+	@Value("${sync.download.cache.ttl:5000}")
+	private long ttl = 5000L;
+
+	/**
+	 * キーと取得中または取得済みのエントリのMap.<br>
+	 * 参照順に並べ、最大件数を超えた場合に最も古く参照されたエントリを破棄します.
+	 */
+	private final Map<List<Object>, CacheEntry> entries = new LinkedHashMap<List<Object>, CacheEntry>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<List<Object>, CacheEntry> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	/**
+	 * キャッシュを使用するかどうかを返します.
+	 *
+	 * @return キャッシュを使用する場合true
+	 */
+	public boolean isEnabled() {
+
+		return maxEntries > 0;
+	}
+
+	/**
+	 * リクエストヘッダとウォーターマークに対応するページを返します.<br>
+	 * 有効なエントリが存在しない場合、loaderで取得したページを保持して返します.
+	 * 他の要求が同じキーのページを取得中の場合は、その完了を待って結果を返します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param watermark データモデルのウォーターマーク
+	 * @param loader ページを取得する処理
+	 * @return ページ
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> SyncPage<T> get(SyncRequestHeader requestHeader, long watermark, Callable<SyncPage<T>> loader) {
+
+		List<Object> key = createKey(requestHeader, watermark);
+		long now = System.currentTimeMillis();
+
+		CacheEntry entry;
+		boolean loading = false;
+		synchronized (entries) {
+
+			entry = entries.get(key);
+			if (entry == null || entry.isExpired(now)) {
+				entry = new CacheEntry(new FutureTask<>(loader), now + ttl);
+				entries.put(key, entry);
+				loading = true;
+			}
+		}
+
+		if (loading) {
+			entry.task.run();
+		}
+
+		try {
+			return (SyncPage<T>) entry.task.get();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SyncException("download has been interrupted.", e);
+
+		} catch (ExecutionException e) {
+			remove(key, entry);
+
+			// 他の要求による取得が失敗した場合は、自身で取得する
+			return loading ? (SyncPage<T>) rethrow(e.getCause()) : load(loader);
+		}
+	}
+
+	/**
+	 * データモデルのエントリを全て破棄します.<br>
+	 * データモデルのリソースが変更されたときに呼び出します.
+	 *
+	 * @param dataModelName データモデル名
+	 */
+	public void invalidate(String dataModelName) {
+
+		synchronized (entries) {
+
+			Iterator<List<Object>> it = entries.keySet().iterator();
+			while (it.hasNext()) {
+				if (dataModelName.equals(it.next().get(0))) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * キャッシュを使用せずにページを取得します.
+	 *
+	 * @param loader ページを取得する処理
+	 * @return ページ
+	 */
+	private <T> SyncPage<T> load(Callable<SyncPage<T>> loader) {
+
+		try {
+			return loader.call();
+		} catch (Exception e) {
+			return rethrow(e);
+		}
+	}
+
+	/**
+	 * 取得処理で発生した例外をスローします.<br>
+	 * 実行時例外とエラーはそのまま、検査例外は{@link SyncException}でラップしてスローします.
+	 *
+	 * @param cause 取得処理で発生した例外
+	 * @return 戻ることはありません
+	 */
+	private <T> T rethrow(Throwable cause) {
+
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		throw new SyncException("download has failed.", cause);
+	}
+
+	/**
+	 * エントリが置き換えられていない場合に限り、破棄します.
+	 *
+	 * @param key キー
+	 * @param entry エントリ
+	 */
+	private void remove(List<Object> key, CacheEntry entry) {
+
+		synchronized (entries) {
+			if (entries.get(key) == entry) {
+				entries.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * リクエストヘッダとウォーターマークからキーを生成します.<br>
+	 * クエリは値が配列のため、比較可能な形に変換して含めます.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param watermark データモデルのウォーターマーク
+	 * @return キー
+	 */
+	private List<Object> createKey(SyncRequestHeader requestHeader, long watermark) {
+
+		SortedMap<String, List<String>> query = new TreeMap<>();
+		if (requestHeader.getQueryMap() != null) {
+			for (Map.Entry<String, String[]> queryEntry : requestHeader.getQueryMap().entrySet()) {
+				query.put(queryEntry.getKey(), queryEntry.getValue() == null ? null : Arrays.asList(queryEntry
+						.getValue()));
+			}
+		}
+
+		DownloadCursor cursor = requestHeader.getDownloadCursor();
+
+		List<Object> key = new ArrayList<>();
+		key.add(requestHeader.getDataModelName());
+		key.add(query);
+		key.add(requestHeader.getLastSyncTime());
+		key.add(cursor == null ? null : cursor.toToken());
+		key.add(requestHeader.getLimit());
+		key.add(watermark);
+		return key;
+	}
+
+	/**
+	 * 取得中または取得済みのページと、その有効期限を保持するエントリ.
+	 */
+	private static class CacheEntry {
+
+		/**
+		 * ページを取得するタスク.
+		 */
+		private final FutureTask<? extends SyncPage<?>> task;
+
+		/**
+		 * 有効期限(ミリ秒).
+		 */
+		private final long expiresAt;
+
+		/**
+		 * タスクと有効期限を指定してエントリを生成します.
+		 *
+		 * @param task ページを取得するタスク
+		 * @param expiresAt 有効期限
+		 */
+		CacheEntry(FutureTask<? extends SyncPage<?>> task, long expiresAt) {
+
+			this.task = task;
+			this.expiresAt = expiresAt;
+		}
+
+		/**
+		 * 有効期限を過ぎているかどうかを返します.
+		 *
+		 * @param now 現在時刻
+		 * @return 有効期限を過ぎている場合true
+		 */
+		boolean isExpired(long now) {
+
+			return now >= expiresAt;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.htmlhifive.sync.exception.BadRequestException;
+
+/**
+ * 下り更新を分割して取得する際の継続位置を表すカーソルクラス.<br>
+ * 以下の2種類があります.
+ * <ul>
+ * <li>変更ジャーナルの通番を保持するカーソル. 前回取得した最後の変更ジャーナルの通番の続きから取得します.</li>
+ * <li>共通データを(最終更新時刻, 同期データID)の順に並べたとき、前回取得した最後のデータの位置を保持するカーソル.
+ * 変更ジャーナルを使用しない前回同期時刻からの下り更新で使用します.</li>
+ * </ul>
+ *
+ * @author kishigam
+ */
+public class DownloadCursor {
+
+	/**
+	 * トークン文字列における最終更新時刻と同期データIDの区切り文字.
+	 */
+	private static final char TOKEN_SEPARATOR = ':';
+
+	/**
+	 * 変更ジャーナルの通番を保持するカーソルのトークン文字列の接頭辞.
+	 */
+	private static final String SEQUENCE_TOKEN_PREFIX = "seq-";
+
+	/**
+	 * 前回取得した最後のデータの最終更新時刻.
+	 */
+	private final long lastModified;
+
+	/**
+	 * 前回取得した最後のデータの同期データID.
+	 */
+	private final String syncDataId;
+
+	/**
+	 * 前回取得した最後の変更ジャーナルの通番.<br>
+	 * 最終更新時刻と同期データIDを保持するカーソルの場合はnull.
+	 */
+	private final Long sequenceNo;
+
+	/**
+	 * 最終更新時刻と同期データIDを指定してカーソルを生成します.
+	 *
+	 * @param lastModified 最終更新時刻
+	 * @param syncDataId 同期データID
+	 */
+	public DownloadCursor(long lastModified, String syncDataId) {
+
+		this.lastModified = lastModified;
+		this.syncDataId = syncDataId;
+		this.sequenceNo = null;
+	}
+
+	/**
+	 * 変更ジャーナルの通番を指定してカーソルを生成します.
+	 *
+	 * @param sequenceNo 変更ジャーナルの通番
+	 */
+	private DownloadCursor(long sequenceNo) {
+
+		this.lastModified = 0L;
+		this.syncDataId = null;
+		this.sequenceNo = sequenceNo;
+	}
+
+	/**
+	 * クライアントとの間で受け渡すトークン文字列からカーソルを生成します.<br>
+	 * トークンがnullまたは空文字の場合、nullを返します.
+	 *
+	 * @param token カーソルのトークン文字列
+	 * @return カーソル
+	 * @throws BadRequestException トークンの形式が不正な場合
+	 */
+	public static DownloadCursor parse(String token) {
+
+		if (token == null || token.isEmpty()) {
+			return null;
+		}
+
+		try {
+			if (token.startsWith(SEQUENCE_TOKEN_PREFIX)) {
+				return ofSequence(Long.parseLong(token.substring(SEQUENCE_TOKEN_PREFIX.length())));
+			}
+
+			int separatorIndex = token.indexOf(TOKEN_SEPARATOR);
+			if (separatorIndex <= 0) {
+				throw new BadRequestException("illegal download cursor : " + token);
+			}
+
+			long lastModified = Long.parseLong(token.substring(0, separatorIndex));
+			return new DownloadCursor(lastModified, token.substring(separatorIndex + 1));
+
+		} catch (NumberFormatException e) {
+			throw new BadRequestException("illegal download cursor : " + token, e);
+		}
+	}
+
+	/**
+	 * 同期レスポンスヘッダが表すデータの位置を指すカーソルを生成します.
+	 *
+	 * @param responseHeader 同期レスポンスヘッダ
+	 * @return カーソル
+	 */
+	public static DownloadCursor of(SyncResponseHeader responseHeader) {
+
+		return new DownloadCursor(responseHeader.getLastModified(), responseHeader.getSyncDataId());
+	}
+
+	/**
+	 * 変更ジャーナルの通番を指すカーソルを生成します.
+	 *
+	 * @param sequenceNo 変更ジャーナルの通番
+	 * @return カーソル
+	 */
+	public static DownloadCursor ofSequence(long sequenceNo) {
+
+		return new DownloadCursor(sequenceNo);
+	}
+
+	/**
+	 * このカーソルが変更ジャーナルの通番を保持しているかどうかを返します.
+	 *
+	 * @return 変更ジャーナルの通番を保持している場合true
+	 */
+	public boolean isSequence() {
+
+		return sequenceNo != null;
+	}
+
+	/**
+	 * クライアントとの間で受け渡すトークン文字列に変換します.
+	 *
+	 * @return トークン文字列
+	 */
+	public String toToken() {
+
+		if (isSequence()) {
+			return SEQUENCE_TOKEN_PREFIX + sequenceNo;
+		}
+		return String.valueOf(lastModified) + TOKEN_SEPARATOR + syncDataId;
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj)
+			return true;
+		if (!(obj instanceof DownloadCursor))
+			return false;
+
+		DownloadCursor cursor = (DownloadCursor) obj;
+
+		return new EqualsBuilder().append(this.lastModified, cursor.lastModified)
+				.append(this.syncDataId, cursor.syncDataId).append(this.sequenceNo, cursor.sequenceNo).isEquals();
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+
+		return new HashCodeBuilder(17, 37).append(lastModified).append(syncDataId).append(sequenceNo).hashCode();
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return lastModified
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return syncDataId
+	 */
+	public String getSyncDataId() {
+		return syncDataId;
+	}
+
+	/**
+	 * @return sequenceNo
+	 */
+	public Long getSequenceNo() {
+		return sequenceNo;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * クライアントに返す形式にエンコード済みのリソースエレメントを保持するキャッシュクラス.<br>
+ * 同期データIDごとに、エンコードしたときの最終更新時刻とエンコード結果の文字列を保持し、最終更新時刻が一致する場合のみ返します.<br>
+ * 保持する文字列の合計サイズが上限を超えた場合、最も古く参照されたものから破棄します.
+ *
+ * @author kishigam
+ */
+@Component
+public class EncodedElementCache {
+
+	/**
+	 * 保持するエンコード結果の合計サイズ(バイト)の上限.<br>
+	 * 0以下の場合、キャッシュを使用しません.
+	 */
+	@Value("${sync.download.elementCache.maxSize:16777216}")
+	private long maxSize = 16777216L;
+
+	/**
+	 * 同期データIDをKey、エンコード済みエレメントをValueとするMap.<br>
+	 * 参照順に並べ、上限を超えた場合に最も古く参照されたものから破棄します.
+	 */
+	private final Map<String, EncodedElement> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * 保持しているエンコード結果の合計サイズ(バイト).
+	 */
+	private long currentSize;
+
+	/**
+	 * 同期データIDと最終更新時刻に対応するエンコード結果を返します.
+	 *
+	 * @param syncDataId 同期データID
+	 * @param lastModified 最終更新時刻
+	 * @return エンコード結果(保持していない場合null)
+	 */
+	public String get(String syncDataId, long lastModified) {
+
+		if (maxSize <= 0) {
+			return null;
+		}
+
+		synchronized (entries) {
+
+			EncodedElement entry = entries.get(syncDataId);
+			if (entry == null || entry.lastModified != lastModified) {
+				return null;
+			}
+			return entry.encoded;
+		}
+	}
+
+	/**
+	 * 同期データIDと最終更新時刻に対応するエンコード結果を保持します.<br>
+	 * 同じ同期データIDのエンコード結果を保持している場合は置き換えます.
+	 *
+	 * @param syncDataId 同期データID
+	 * @param lastModified 最終更新時刻
+	 * @param encoded エンコード結果
+	 */
+	public void put(String syncDataId, long lastModified, String encoded) {
+
+		long size = sizeOf(encoded);
+		if (size > maxSize) {
+			return;
+		}
+
+		synchronized (entries) {
+
+			EncodedElement old = entries.put(syncDataId, new EncodedElement(lastModified, encoded));
+			if (old != null) {
+				currentSize -= sizeOf(old.encoded);
+			}
+			currentSize += size;
+
+			Iterator<EncodedElement> it = entries.values().iterator();
+			while (currentSize > maxSize && it.hasNext()) {
+				currentSize -= sizeOf(it.next().encoded);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * 同期データIDのエンコード結果を破棄します.<br>
+	 * リソースエレメントが変更されたときに呼び出します.
+	 *
+	 * @param syncDataId 同期データID
+	 */
+	public void invalidate(String syncDataId) {
+
+		synchronized (entries) {
+
+			EncodedElement old = entries.remove(syncDataId);
+			if (old != null) {
+				currentSize -= sizeOf(old.encoded);
+			}
+		}
+	}
+
+	/**
+	 * エンコード結果の文字列が占めるメモリのサイズ(バイト)を返します.
+	 *
+	 * @param encoded エンコード結果
+	 * @return サイズ
+	 */
+	private static long sizeOf(String encoded) {
+
+		return encoded.length() * 2L;
+	}
+
+	/**
+	 * エンコードしたときの最終更新時刻とエンコード結果を保持するエントリ.
+	 */
+	private static class EncodedElement {
+
+		/**
+		 * エンコードしたときのリソースエレメントの最終更新時刻.
+		 */
+		private final long lastModified;
+
+		/**
+		 * エンコード結果.
+		 */
+		private final String encoded;
+
+		/**
+		 * 最終更新時刻とエンコード結果を指定してエントリを生成します.
+		 *
+		 * @param lastModified 最終更新時刻
+		 * @param encoded エンコード結果
+		 */
+		EncodedElement(long lastModified, String encoded) {
+
+			this.lastModified = lastModified;
+			this.encoded = encoded;
+		}
+	}
+}
@@ -16,6 +16,10 @@
  */
 package com.htmlhifive.sync.resource;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 /**
  * リソースのロック方式を制御するロジックを規定したインタフェース.
  *
@@ -33,6 +37,17 @@ public interface LockManager {
 	 */
 	public boolean lock(SyncRequestHeader requestHeader, SyncResponseHeader responseHeaderBeforUpdate);
 
+	/**
+	 * 複数のリソースのロックを一括して取得します.<br>
+	 * 複数データの下り更新で使用します. 実装クラスは、件数によらず一定回数のデータベースアクセスでロックを取得するように実装します.<br>
+	 * いずれかのロックが取得できない場合、このメソッドで取得したロックは解除します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responseHeaders 同期レスポンスヘッダのCollection
+	 * @return 全てのロックを取得できた場合true.
+	 */
+	public boolean lockAll(SyncRequestHeader requestHeader, Collection<SyncResponseHeader> responseHeaders);
+
 	/**
 	 * ロック取得状況に応じて、リソースの更新が実行できるか判定します.<br>
 	 * 同期リクエストのヘッダオブジェクトと、同期対象をGETして得られたレスポンスヘッダオブジェクトの内容を判定に使用します.
@@ -43,6 +58,20 @@ public interface LockManager {
 	 */
 	public boolean canUpdate(SyncRequestHeader requestHeader, SyncResponseHeader responseHeaderBeforUpdate);
 
+	/**
+	 * 上り更新の前に、複数のリクエストの更新で競合が発生するかを予測します.<br>
+	 * 以降のデータの変更によって解消されることのない競合は確実な競合、解消されることがある競合は予測される競合として判定します.<br>
+	 * 実際の更新では、予測された競合に加えて、判定の後のデータの変更による競合が発生することがあります.<br>
+	 * 実装クラスは、ロックを取得せず、件数によらず一定回数のデータベースアクセスで判定するように実装します.
+	 * ロックの取得は、実際の更新で{@link #canUpdate(SyncRequestHeader, SyncResponseHeader)}により行います.
+	 *
+	 * @param requestHeaders 更新、削除の同期リクエストヘッダのList
+	 * @param responseHeaderMap 同期データIDをKey、更新前の同期レスポンスヘッダをValueとするMap
+	 * @return 競合の予測結果
+	 */
+	public UploadPrediction predictConflicts(List<SyncRequestHeader> requestHeaders,
+			Map<String, SyncResponseHeader> responseHeaderMap);
+
 	/**
 	 * ロックを解除します.
 	 *
@@ -50,4 +79,13 @@ public interface LockManager {
 	 * @param responseHeaderBeforUpdate 同期レスポンスヘッダ
 	 */
 	public void release(SyncRequestHeader requestHeader, SyncResponseHeader responseHeaderBeforUpdate);
+
+	/**
+	 * 複数のリソースのロックを一括して解除します.<br>
+	 * 実装クラスは、件数によらず一定回数のデータベースアクセスでロックを解除するように実装します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responseHeaders 同期レスポンスヘッダのCollection
+	 */
+	public void releaseAll(SyncRequestHeader requestHeader, Collection<SyncResponseHeader> responseHeaders);
 }
@@ -16,6 +16,10 @@
  */
 package com.htmlhifive.sync.resource;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -44,9 +48,25 @@ public class OptimisticLockManager implements LockManager {
 		return true;
 	}
 
+	/**
+	 * 複数のリソースのロックを一括して取得します.<br>
+	 * 楽観的ロック方式ではロックを取得しないため、データベースにアクセスせず常にtrueを返します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responseHeaders 同期レスポンスヘッダのCollection
+	 * @return true.
+	 */
+	@Override
+	public boolean lockAll(SyncRequestHeader requestHeader, Collection<SyncResponseHeader> responseHeaders) {
+
+		return true;
+	}
+
 	/**
 	 * ロック取得状況に応じて、リソースの更新が実行できるか判定します.<br>
 	 * 楽観的ロック方式では、更新の実行に際して最終更新日付を比較し、すでにサーバ側の更新が発生していた場合にロックエラーとなります.<br>
+	 * この判定は読み込み済みの共通データを使用した事前の判定です. 更新時には条件付き更新で最終更新日付を比較し、
+	 * 判定の後に他のトランザクションが更新していた場合もロックエラーとします.<br>
 	 * ロックエラー発生時、リソースで採用されている更新戦略に従い、競合判定および更新を実施します.
 	 *
 	 * @param requestHeader 同期リクエストヘッダ
@@ -59,6 +79,28 @@ public class OptimisticLockManager implements LockManager {
 		return requestHeader.getLastModified() >= responseHeaderBeforUpdate.getLastModified();
 	}
 
+	/**
+	 * 上り更新の前に、複数のリクエストの更新で競合が発生するかを予測します.<br>
+	 * 楽観的ロック方式では、サーバ側の更新が発生していたリクエストを確実な競合と判定します.
+	 * 最終更新日付は進むのみのため、判定の後に競合が解消されることはありません.
+	 *
+	 * @param requestHeaders 更新、削除の同期リクエストヘッダのList
+	 * @param responseHeaderMap 同期データIDをKey、更新前の同期レスポンスヘッダをValueとするMap
+	 * @return 競合の予測結果
+	 */
+	@Override
+	public UploadPrediction predictConflicts(List<SyncRequestHeader> requestHeaders,
+			Map<String, SyncResponseHeader> responseHeaderMap) {
+
+		UploadPrediction prediction = new UploadPrediction();
+		for (SyncRequestHeader requestHeader : requestHeaders) {
+			if (!canUpdate(requestHeader, responseHeaderMap.get(requestHeader.getSyncDataId()))) {
+				prediction.addCertainConflict(requestHeader);
+			}
+		}
+		return prediction;
+	}
+
 	/**
 	 * ロックを解除します.<br>
 	 * 楽観的ロック方式ではロックを取得しないため、処理を実行しません.
@@ -71,4 +113,17 @@ public class OptimisticLockManager implements LockManager {
 
 		// ロジックなし
 	}
+
+	/**
+	 * 複数のリソースのロックを一括して解除します.<br>
+	 * 楽観的ロック方式ではロックを取得しないため、処理を実行しません.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responseHeaders 同期レスポンスヘッダのCollection
+	 */
+	@Override
+	public void releaseAll(SyncRequestHeader requestHeader, Collection<SyncResponseHeader> responseHeaders) {
+
+		// ロジックなし
+	}
 }
@@ -16,57 +16,173 @@
  */
 package com.htmlhifive.sync.resource;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-
-import com.htmlhifive.sync.exception.PessimisticLockException;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * リソース対する悲観的ロック方式での制御ロジッククラス.<br>
- * TODO:未実装
+ * 下り更新でリソースを取得したクライアントに、有効期限付きのロック(リース)を設定します.
+ * ロックは共通データのロックキーと有効期限に、条件付きの一括更新で設定するため、複数のクライアントが同時に取得することはありません.<br>
+ * ロックを保持するクライアントは、有効期限までの間、他のクライアントとの競合なしにリソースを更新できます.
+ * 他のクライアントがロックを保持している間は更新できず、リソースで採用されている更新戦略に従って競合を処理します.<br>
+ * ロックの判定はデータベースで行います. 同じトランザクションで判定したロックは、
+ * トランザクションの完了まで共通データの行が更新ロックされるため、再度の判定を省略します.
+ *
+ * @author kishigam
  */
-@Deprecated
 @Service
 @Transactional(propagation = Propagation.MANDATORY)
 public class PessimisticLockManager implements LockManager {
 
-	// @Resource
-	// private SyncProvider commonDataService;
+	/**
+	 * 共通データ管理サービス.
+	 */
+	@Resource
+	private SyncProvider syncProvider;
+
+	/**
+	 * ロックの有効期間(ミリ秒).
+	 */
+	@Value("${sync.lock.leaseTime:300000}")
+	private long leaseTime = 300000L;
+
+	/**
+	 * このサーバで最後に設定したロックの有効期限.<br>
+	 * 同じクライアントが以前から保持しているロックと、新たに取得したロックを有効期限で区別するため、重複しない値を使用します.
+	 */
+	private final AtomicLong lastLockExpiry = new AtomicLong();
 
 	/**
 	 * ロックを取得します.<br>
-	 * 仮実装として、PessimisticLockExceptionをスローします.
+	 * 他のクライアントが有効なロックを保持している場合は取得できません.
 	 *
 	 * @param requestHeader 同期リクエストヘッダ
 	 * @param responseHeaderBeforUpdate 同期レスポンスヘッダ
-	 * @return
+	 * @return ロックを取得できた場合true.
 	 */
 	@Override
-	public boolean lock(SyncRequestHeader requestHeader, SyncResponseHeader responseHeaderBeforUpdate)
-			throws PessimisticLockException {
+	public boolean lock(SyncRequestHeader requestHeader, SyncResponseHeader responseHeaderBeforUpdate) {
 
-		throw new PessimisticLockException();
+		return acquire(requestHeader.getStorageId(),
+				Collections.singletonList(responseHeaderBeforUpdate.getSyncDataId()));
+	}
+
+	/**
+	 * 複数のリソースのロックを一括して取得します.<br>
+	 * 件数によらず1回の条件付き更新(IN句の上限を超える場合は分割)で取得します.
+	 * いずれかのロックが取得できない場合、このメソッドで設定したロックを取り消します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responseHeaders 同期レスポンスヘッダのCollection
+	 * @return 全てのロックを取得できた場合true.
+	 */
+	@Override
+	public boolean lockAll(SyncRequestHeader requestHeader, Collection<SyncResponseHeader> responseHeaders) {
+
+		if (responseHeaders.isEmpty()) {
+			return true;
+		}
+
+		return acquire(requestHeader.getStorageId(), syncDataIdsOf(responseHeaders));
 	}
 
 	/**
 	 * ロック取得状況に応じて、リソースの更新が実行できるか判定します.<br>
-	 * 仮実装として、PessimisticLockExceptionをスローします.
+	 * クライアントがロックを保持している、またはロックを取得できた場合に更新できます.
+	 * ただし、ロックを取得する前にサーバ側の更新が発生していた場合は、楽観的ロック方式と同様にロックエラーとなります.<br>
+	 * 同じトランザクションで既に判定したロックは、データベースで判定しません.
 	 *
 	 * @param requestHeader 同期リクエストヘッダ
 	 * @param responseHeaderBeforUpdate 同期レスポンスヘッダ
-	 * @return
+	 * @return update(/delete)できる場合true.
+	 */
+	@Override
+	public boolean canUpdate(SyncRequestHeader requestHeader, SyncResponseHeader responseHeaderBeforUpdate) {
+
+		if (requestHeader.getLastModified() < responseHeaderBeforUpdate.getLastModified()) {
+			return false;
+		}
+
+		String lockKey = requestHeader.getStorageId();
+		String syncDataId = responseHeaderBeforUpdate.getSyncDataId();
+		if (isValidated(lockKey, syncDataId)) {
+			return true;
+		}
+
+		return acquire(lockKey, Collections.singletonList(syncDataId));
+	}
+
+	/**
+	 * 上り更新の前に、複数のリクエストの更新で競合が発生するかを予測します.<br>
+	 * ロックの有無によらず、サーバ側の更新が発生していたリクエストを確実な競合と判定します.
+	 * 他のクライアントが有効期限内のロックを保持するリクエストは、ロックの有効期限切れや解除により更新できることがあるため、
+	 * 予測される競合と判定します.<br>
+	 * 判定はクライアントごとに1回の検索(IN句の上限を超える場合は分割)で行い、ロックは取得しません.
+	 *
+	 * @param requestHeaders 更新、削除の同期リクエストヘッダのList
+	 * @param responseHeaderMap 同期データIDをKey、更新前の同期レスポンスヘッダをValueとするMap
+	 * @return 競合の予測結果
 	 */
 	@Override
-	public boolean canUpdate(SyncRequestHeader requestHeader, SyncResponseHeader responseHeaderBeforUpdate)
-			throws PessimisticLockException {
+	public UploadPrediction predictConflicts(List<SyncRequestHeader> requestHeaders,
+			Map<String, SyncResponseHeader> responseHeaderMap) {
+
+		UploadPrediction prediction = new UploadPrediction();
+
+		// サーバ側の更新が発生していないリクエストを、ロックキーごとにまとめる
+		Map<String, List<SyncRequestHeader>> lockKeyMap = new LinkedHashMap<>();
+		for (SyncRequestHeader requestHeader : requestHeaders) {
+			SyncResponseHeader responseHeader = responseHeaderMap.get(requestHeader.getSyncDataId());
+			if (requestHeader.getLastModified() < responseHeader.getLastModified()) {
+				prediction.addCertainConflict(requestHeader);
+				continue;
+			}
 
-		throw new PessimisticLockException();
+			List<SyncRequestHeader> lockKeyHeaders = lockKeyMap.get(requestHeader.getStorageId());
+			if (lockKeyHeaders == null) {
+				lockKeyHeaders = new ArrayList<>();
+				lockKeyMap.put(requestHeader.getStorageId(), lockKeyHeaders);
+			}
+			lockKeyHeaders.add(requestHeader);
+		}
+
+		for (Map.Entry<String, List<SyncRequestHeader>> entry : lockKeyMap.entrySet()) {
+
+			Set<String> syncDataIds = new LinkedHashSet<>();
+			for (SyncRequestHeader requestHeader : entry.getValue()) {
+				syncDataIds.add(requestHeader.getSyncDataId());
+			}
+
+			Set<String> lockedIds = syncProvider.findLockedByOthers(entry.getKey(), syncDataIds);
+			for (SyncRequestHeader requestHeader : entry.getValue()) {
+				if (lockedIds.contains(requestHeader.getSyncDataId())) {
+					prediction.addPossibleConflict(requestHeader);
+				}
+			}
+		}
+		return prediction;
 	}
 
 	/**
 	 * ロックを解除します.<br>
-	 * 仮実装として、空実装とします.
+	 * クライアントが保持していないロックは解除しません.
 	 *
 	 * @param requestHeader 同期リクエストヘッダ
 	 * @param responseHeaderBeforUpdate 同期レスポンスヘッダ
@@ -74,5 +190,179 @@ public class PessimisticLockManager implements LockManager {
 	@Override
 	public void release(SyncRequestHeader requestHeader, SyncResponseHeader responseHeaderBeforUpdate) {
 
+		releaseAll(requestHeader, Collections.singletonList(responseHeaderBeforUpdate));
+	}
+
+	/**
+	 * 複数のリソースのロックを一括して解除します.<br>
+	 * 件数によらず1回の条件付き更新(IN句の上限を超える場合は分割)で解除します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responseHeaders 同期レスポンスヘッダのCollection
+	 */
+	@Override
+	public void releaseAll(SyncRequestHeader requestHeader, Collection<SyncResponseHeader> responseHeaders) {
+
+		if (responseHeaders.isEmpty()) {
+			return;
+		}
+
+		String lockKey = requestHeader.getStorageId();
+		List<String> syncDataIds = syncDataIdsOf(responseHeaders);
+
+		discard(lockKey, syncDataIds);
+		syncProvider.releaseLocks(lockKey, syncDataIds);
+	}
+
+	/**
+	 * 同期データIDが指定する全てのリソースのロックを取得します.<br>
+	 * クライアントが以前から保持していたロックは、全てのロックを取得できた場合に有効期限を延長します.
+	 * 取得したロックは、トランザクションの完了まで判定済みとして保持します.<br>
+	 * いずれかのロックが取得できない場合、このメソッドで新たに設定したロックのみを取り消し、以前から保持していたロックはそのまま残します.
+	 *
+	 * @param lockKey ロックキー(ロックを取得するクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのList
+	 * @return 全てのロックを取得できた場合true.
+	 */
+	private boolean acquire(String lockKey, List<String> syncDataIds) {
+
+		long lockExpiry = nextLockExpiry();
+
+		if (syncProvider.getLocks(lockKey, syncDataIds, lockExpiry) < syncDataIds.size()) {
+
+			// 新たに設定したロックを含め、有効期限内のロックを全て保持しているかどうか
+			if (syncProvider.countLocks(lockKey, syncDataIds) < syncDataIds.size()) {
+				syncProvider.cancelLocks(lockKey, syncDataIds, lockExpiry);
+				discard(lockKey, syncDataIds);
+				return false;
+			}
+			syncProvider.renewLocks(lockKey, syncDataIds, lockExpiry);
+		}
+
+		validate(lockKey, syncDataIds);
+		return true;
+	}
+
+	/**
+	 * 新たに設定するロックの有効期限を返します.<br>
+	 * このサーバで以前に設定したロックと重複しないよう、必要に応じて1ミリ秒ずつ後にずらします.
+	 *
+	 * @return ロックの有効期限
+	 */
+	private long nextLockExpiry() {
+
+		long lockExpiry = System.currentTimeMillis() + leaseTime;
+		while (true) {
+			long last = lastLockExpiry.get();
+			long next = Math.max(lockExpiry, last + 1);
+			if (lastLockExpiry.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * 現在のトランザクションで判定したロックのキーのSetを返します.<br>
+	 * 最初の呼び出しで生成してトランザクションに関連付け、完了時に破棄します.
+	 * トランザクションの同期が有効でない場合はnullを返します.
+	 *
+	 * @return ロックのキーのSet
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<String> currentLeases() {
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+
+		Set<String> leases = (Set<String>) TransactionSynchronizationManager.getResource(this);
+		if (leases != null) {
+			return leases;
+		}
+
+		Set<String> newLeases = new HashSet<>();
+		TransactionSynchronizationManager.bindResource(this, newLeases);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+			@Override
+			public void afterCompletion(int status) {
+				TransactionSynchronizationManager.unbindResourceIfPossible(PessimisticLockManager.this);
+			}
+		});
+		return newLeases;
+	}
+
+	/**
+	 * データベースで判定したロックを、現在のトランザクションで判定済みとして保持します.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataIds 同期データIDのList
+	 */
+	private void validate(String lockKey, List<String> syncDataIds) {
+
+		Set<String> leases = currentLeases();
+		if (leases == null) {
+			return;
+		}
+		for (String syncDataId : syncDataIds) {
+			leases.add(leaseKey(lockKey, syncDataId));
+		}
+	}
+
+	/**
+	 * 現在のトランザクションで判定済みとして保持したロックを破棄します.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataIds 同期データIDのList
+	 */
+	private void discard(String lockKey, List<String> syncDataIds) {
+
+		Set<String> leases = currentLeases();
+		if (leases == null) {
+			return;
+		}
+		for (String syncDataId : syncDataIds) {
+			leases.remove(leaseKey(lockKey, syncDataId));
+		}
+	}
+
+	/**
+	 * 現在のトランザクションで、クライアントが保持するロックを判定済みかどうかを返します.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataId 同期データID
+	 * @return 判定済みの場合true
+	 */
+	private boolean isValidated(String lockKey, String syncDataId) {
+
+		Set<String> leases = currentLeases();
+		return leases != null && leases.contains(leaseKey(lockKey, syncDataId));
+	}
+
+	/**
+	 * 判定済みとして保持するロックのキーを生成します.
+	 *
+	 * @param lockKey ロックキー
+	 * @param syncDataId 同期データID
+	 * @return ロックのキー
+	 */
+	private String leaseKey(String lockKey, String syncDataId) {
+
+		return lockKey + ' ' + syncDataId;
+	}
+
+	/**
+	 * 同期レスポンスヘッダの同期データIDを、重複を除いたListで返します.
+	 *
+	 * @param responseHeaders 同期レスポンスヘッダのCollection
+	 * @return 同期データIDのList
+	 */
+	private List<String> syncDataIdsOf(Collection<SyncResponseHeader> responseHeaders) {
+
+		Set<String> syncDataIds = new LinkedHashSet<>();
+		for (SyncResponseHeader responseHeader : responseHeaders) {
+			syncDataIds.add(responseHeader.getSyncDataId());
+		}
+		return new ArrayList<>(syncDataIds);
 	}
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * 下り更新で分割して取得したデータの1ページ分を表すクラス.<br>
+ * ページの内容は取得した順に並んでおり、続きのデータを取得するためのカーソルを保持します.
+ *
+ * @author kishigam
+ * @param <T> ページに含まれるデータの型
+ */
+public class SyncPage<T> {
+
+	/**
+	 * ページに含まれるデータのList.
+	 */
+	private final List<T> contents;
+
+	/**
+	 * 次ページを取得するためのカーソル.<br>
+	 * 次回の下り更新で続きを取得するためのカーソルがない場合はnull.
+	 */
+	private final DownloadCursor nextCursor;
+
+	/**
+	 * このページが現時点での最終ページかどうか.
+	 */
+	private final boolean last;
+
+	/**
+	 * ページの内容と次ページ取得用のカーソルを指定してページを生成します.<br>
+	 * カーソルがnullの場合、最終ページとなります.
+	 *
+	 * @param contents ページに含まれるデータのList
+	 * @param nextCursor 次ページを取得するためのカーソル(最終ページの場合null)
+	 */
+	public SyncPage(List<T> contents, DownloadCursor nextCursor) {
+
+		this(contents, nextCursor, nextCursor == null);
+	}
+
+	/**
+	 * ページの内容と次回の取得用のカーソル、最終ページかどうかを指定してページを生成します.<br>
+	 * 最終ページであっても、次回の下り更新で以降の変更を取得するためのカーソルを持つ場合に使用します.
+	 *
+	 * @param contents ページに含まれるデータのList
+	 * @param nextCursor 次回の取得用のカーソル
+	 * @param last 現時点での最終ページの場合true
+	 */
+	public SyncPage(List<T> contents, DownloadCursor nextCursor, boolean last) {
+
+		this.contents = contents;
+		this.nextCursor = nextCursor;
+		this.last = last;
+	}
+
+	/**
+	 * このページが最終ページかどうかを返します.
+	 *
+	 * @return 現時点で続きのデータが存在しない場合true
+	 */
+	public boolean isLast() {
+
+		return last;
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj)
+			return true;
+		if (!(obj instanceof SyncPage))
+			return false;
+
+		SyncPage<?> page = (SyncPage<?>) obj;
+
+		return new EqualsBuilder().append(this.contents, page.contents).append(this.nextCursor, page.nextCursor)
+				.append(this.last, page.last).isEquals();
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+
+		return new HashCodeBuilder(17, 37).append(contents).append(nextCursor).append(last).hashCode();
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return contents
+	 */
+	public List<T> getContents() {
+		return Collections.unmodifiableList(contents);
+	}
+
+	/**
+	 * @return nextCursor
+	 */
+	public DownloadCursor getNextCursor() {
+		return nextCursor;
+	}
+}
@@ -16,7 +16,10 @@
  */
 package com.htmlhifive.sync.resource;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * リソースを同期するための共通データを扱うサービスインターフェース.<br>
@@ -45,26 +48,111 @@ public interface SyncProvider {
 	SyncResponseHeader getCommonData(String dataModelName, String resourceIdStr);
 
 	/**
-	 * 指定された時刻以降に更新された全てのリソースに対応する共通データを返します. ロックは考慮しません.
+	 * 上り更新の前に、リクエストヘッダが対象とする共通データをまとめて取得します.<br>
+	 * 新規登録(POST)のリクエストヘッダについては、登録時に採番される同期データIDの共通データの有無を確認します.<br>
+	 * 取得した共通データは同じトランザクション内で再利用され、以降の上り更新では1件ずつの検索を行いません.
+	 *
+	 * @param requestHeaders リソースへのリクエストヘッダのList
+	 * @return 同期データIDをKey、存在する共通データのレスポンスヘッダをValueとするMap
+	 */
+	Map<String, SyncResponseHeader> prefetchCommonData(List<SyncRequestHeader> requestHeaders);
+
+	/**
+	 * 前回の下り更新以降に更新されたリソースに対応する共通データを、変更された順に返します. ロックは考慮しません.<br>
+	 * 前回同期時刻以降の下り更新では、削除された共通データ(トゥームストーン)も返します.<br>
+	 * リクエストヘッダに最大件数が指定されている場合はその件数までを返し、カーソルが指定されている場合はその続きから返します.
+	 *
+	 * @param requestHeader リソースへのリクエストヘッダ
+	 * @return リソースからのレスポンスヘッダを順に含むページ
+	 */
+	SyncPage<SyncResponseHeader> getCommonDataModifiedSince(SyncRequestHeader requestHeader);
+
+	/**
+	 * {@link #getCommonDataModifiedSince(SyncRequestHeader)}と同様に共通データを返します.<br>
+	 * ただし、クエリフィルタの条件を満たすリソースの共通データのみを検索します. 削除された共通データには条件を適用しません.
+	 *
+	 * @param requestHeader リソースへのリクエストヘッダ
+	 * @param queryFilter 共通データの検索時に適用するクエリフィルタ
+	 * @return リソースからのレスポンスヘッダを順に含むページ
+	 */
+	SyncPage<SyncResponseHeader> getCommonDataModifiedSince(SyncRequestHeader requestHeader,
+			SyncQueryFilter queryFilter);
+
+	/**
+	 * データモデルの変更が記録されるたびに進むウォーターマークを返します.<br>
+	 * 値が同じであれば、下り更新で取得される共通データは変わりません.
+	 *
+	 * @param dataModelName データモデル名
+	 * @return ウォーターマーク
+	 */
+	long getWatermark(String dataModelName);
+
+	/**
+	 * 前回同期時刻がトゥームストーンの保持期間より前であり、差分の下り更新では削除を漏れなく返せないかどうかを返します.<br>
+	 * trueの場合、クライアントは初回の下り更新からやり直す必要があります.
 	 *
 	 * @param requestHeader リソースへのリクエストヘッダ
-	 * @return リソースID文字列をKey、リソースからのレスポンスヘッダをValueとするMap
+	 * @return 再同期が必要な場合true
+	 */
+	boolean isResyncRequired(SyncRequestHeader requestHeader);
+
+	/**
+	 * 同期データIDが指定する共通データに対し、ロックを設定します.<br>
+	 * ロックが設定されていない、または有効期限を過ぎている共通データにのみ設定します.
+	 * 同じロックキーで設定された有効期限内のロックは変更しません.
+	 *
+	 * @param lockKey ロックキー(ロックを取得するクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param lockExpiry ロックの有効期限(ミリ秒)
+	 * @return ロックを設定した件数
+	 */
+	int getLocks(String lockKey, Collection<String> syncDataIds, long lockExpiry);
+
+	/**
+	 * 同期データIDが指定する共通データのうち、ロックキーが合致する有効期限内のロックの件数を返します.
+	 *
+	 * @param lockKey ロックキー(ロックを取得したクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @return ロックの件数
 	 */
-	Map<String, SyncResponseHeader> getCommonDataModifiedSince(SyncRequestHeader requestHeader);
+	int countLocks(String lockKey, Collection<String> syncDataIds);
 
 	/**
-	 * リソースに対応する共通データに対し、ロックを設定します.<br>
+	 * 同期データIDが指定する共通データのうち、他のクライアントが有効期限内のロックを保持するものを返します.<br>
+	 * ロックの設定は行いません.
 	 *
-	 * @param responseHeader リソースからのレスポンスヘッダ
+	 * @param lockKey ロックキー(判定するクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @return 他のクライアントがロックを保持する共通データの同期データIDのSet
 	 */
-	boolean getLock(SyncRequestHeader requestHeader);
+	Set<String> findLockedByOthers(String lockKey, Collection<String> syncDataIds);
 
 	/**
-	 * リソースに対応する共通データに対し、ロックを解除して更新します.
+	 * 同期データIDが指定する共通データに対し、ロックキーが合致するロックの有効期限を延長します.
 	 *
-	 * @param responseHeader リソースからのレスポンスヘッダ
+	 * @param lockKey ロックキー(ロックを取得したクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param lockExpiry 延長後の有効期限(ミリ秒)
 	 */
-	void releaseLock(SyncResponseHeader responseHeader);
+	void renewLocks(String lockKey, Collection<String> syncDataIds, long lockExpiry);
+
+	/**
+	 * 同期データIDが指定する共通データに対し、ロックキーが合致するロックを解除します.
+	 *
+	 * @param lockKey ロックキー(ロックを取得したクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 */
+	void releaseLocks(String lockKey, Collection<String> syncDataIds);
+
+	/**
+	 * 同期データIDが指定する共通データに対し、ロックキーと有効期限が合致するロックを解除します.<br>
+	 * {@link #getLocks(String, Collection, long)}で設定したロックを取り消す場合に使用します.
+	 *
+	 * @param lockKey ロックキー(ロックを取得したクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param lockExpiry 取り消すロックの有効期限(ミリ秒)
+	 */
+	void cancelLocks(String lockKey, Collection<String> syncDataIds, long lockExpiry);
 
 	/**
 	 * 新規リソースに対応する共通データを生成し、保存します.
@@ -76,11 +164,13 @@ public interface SyncProvider {
 	SyncResponseHeader saveNewCommonData(SyncRequestHeader requestHeader, String targetResourceIdStr);
 
 	/**
-	 * リソースに対応する共通データを更新し、保存します.<br>
-	 * ロックは開放されます.
+	 * リソースに対応する共通データの最終更新時刻が指定時刻以前の場合にのみ、共通データを更新して保存します.<br>
+	 * 比較と更新は1回の条件付き更新で行うため、比較の後に他のトランザクションが更新することはありません.
+	 * 更新できなかった場合は、以降の{@link #getCommonData(SyncRequestHeader)}で最新の共通データを返すようにして、nullを返します.
 	 *
 	 * @param requestHeader リソースへのリクエストヘッダ
-	 * @return リソースからのレスポンスヘッダ
+	 * @param expectedLastModified 更新を許可する最終更新時刻の上限
+	 * @return リソースからのレスポンスヘッダ(更新できなかった場合null)
 	 */
-	SyncResponseHeader saveUpdatedCommonData(SyncRequestHeader requestHeader);
+	SyncResponseHeader compareAndSaveUpdatedCommonData(SyncRequestHeader requestHeader, long expectedLastModified);
 }
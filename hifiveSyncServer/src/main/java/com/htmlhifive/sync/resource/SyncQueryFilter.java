@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * 下り更新のクエリを、共通データの検索条件としてデータベースで適用するためのフィルタクラス.<br>
+ * リソースのエンティティに対するJPQLの条件式を保持し、共通データの検索時に、リソースID文字列からエンティティのIDを導出して結合します.<br>
+ * 条件式ではエンティティを別名"e"で参照し、パラメータ名は共通データの検索で使用するものと重複しないよう"q"で始めます.
+ *
+ * @author kishigam
+ */
+public class SyncQueryFilter {
+
+	/**
+	 * 条件式でエンティティを参照する別名.
+	 */
+	public static final String ENTITY_ALIAS = "e";
+
+	/**
+	 * 条件を適用するエンティティ名.
+	 */
+	private final String entityName;
+
+	/**
+	 * エンティティのIDのプロパティ名.
+	 */
+	private final String idProperty;
+
+	/**
+	 * リソースID文字列のうち、エンティティのIDより前にあるprefixの文字数.
+	 */
+	private final int resourceIdPrefixLength;
+
+	/**
+	 * エンティティに対する条件式のList. 全てを満たすエンティティの共通データが検索されます.
+	 */
+	private final List<String> predicates = new ArrayList<>();
+
+	/**
+	 * 条件式のパラメータ名をKey、値をValueとするMap.
+	 */
+	private final Map<String, Object> parameters = new LinkedHashMap<>();
+
+	/**
+	 * 条件を適用するエンティティと、リソースID文字列からエンティティのIDを導出するための情報を指定してフィルタを生成します.
+	 *
+	 * @param entityClass エンティティのクラス
+	 * @param idProperty エンティティのIDのプロパティ名
+	 * @param resourceIdPrefixLength リソースID文字列のうち、エンティティのIDより前にあるprefixの文字数
+	 */
+	public SyncQueryFilter(Class<?> entityClass, String idProperty, int resourceIdPrefixLength) {
+
+		this.entityName = entityClass.getSimpleName();
+		this.idProperty = idProperty;
+		this.resourceIdPrefixLength = resourceIdPrefixLength;
+	}
+
+	/**
+	 * エンティティに対する条件式を追加します.
+	 *
+	 * @param predicate 別名"e"でエンティティを参照するJPQLの条件式
+	 * @return このフィルタ
+	 */
+	public SyncQueryFilter addPredicate(String predicate) {
+
+		predicates.add(predicate);
+
+		return this;
+	}
+
+	/**
+	 * 条件式のパラメータを設定します.
+	 *
+	 * @param name パラメータ名
+	 * @param value パラメータの値
+	 * @return このフィルタ
+	 */
+	public SyncQueryFilter setParameter(String name, Object value) {
+
+		parameters.put(name, value);
+
+		return this;
+	}
+
+	/**
+	 * 条件式が1つも追加されていないかどうかを返します.
+	 *
+	 * @return 条件式がない場合true
+	 */
+	public boolean isEmpty() {
+
+		return predicates.isEmpty();
+	}
+
+	/**
+	 * 共通データの別名を指定して、条件を満たすエンティティが存在することを表すJPQLの条件式を返します.
+	 *
+	 * @param commonDataAlias 共通データの別名
+	 * @return EXISTS句の条件式
+	 */
+	public String toExistsClause(String commonDataAlias) {
+
+		StringBuilder clause = new StringBuilder();
+		clause.append("EXISTS (SELECT ").append(ENTITY_ALIAS).append(" FROM ").append(entityName).append(' ')
+				.append(ENTITY_ALIAS).append(" WHERE ").append(ENTITY_ALIAS).append('.').append(idProperty)
+				.append(" = SUBSTRING(").append(commonDataAlias).append(".resourceIdStr, ")
+				.append(resourceIdPrefixLength + 1).append(')');
+
+		for (String predicate : predicates) {
+			clause.append(" AND (").append(predicate).append(')');
+		}
+		return clause.append(')').toString();
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj)
+			return true;
+		if (!(obj instanceof SyncQueryFilter))
+			return false;
+
+		SyncQueryFilter filter = (SyncQueryFilter) obj;
+
+		return new EqualsBuilder().append(this.entityName, filter.entityName)
+				.append(this.idProperty, filter.idProperty)
+				.append(this.resourceIdPrefixLength, filter.resourceIdPrefixLength)
+				.append(this.predicates, filter.predicates).append(this.parameters, filter.parameters).isEquals();
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+
+		return new HashCodeBuilder(17, 37).append(entityName).append(idProperty).append(resourceIdPrefixLength)
+				.append(predicates).append(parameters).hashCode();
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return parameters
+	 */
+	public Map<String, Object> getParameters() {
+		return Collections.unmodifiableMap(parameters);
+	}
+}
@@ -63,6 +63,18 @@ public class SyncRequestHeader {
 	 */
 	private long lastSyncTime;
 
+	/**
+	 * 分割された下り更新の継続位置を表すカーソル.<br>
+	 * 下り更新リクエストで続きのデータを取得する場合設定します.
+	 */
+	private DownloadCursor downloadCursor;
+
+	/**
+	 * 1回の下り更新で取得するデータの最大件数.<br>
+	 * 下り更新リクエストの場合設定します. 0以下の場合は件数を制限しません.
+	 */
+	private int limit;
+
 	/**
 	 * 同期データID.<br>
 	 * 新規登録リクエストの場合は設定しません.
@@ -213,6 +225,34 @@ public class SyncRequestHeader {
 		this.lastSyncTime = lastSyncTime;
 	}
 
+	/**
+	 * @return downloadCursor
+	 */
+	public DownloadCursor getDownloadCursor() {
+		return downloadCursor;
+	}
+
+	/**
+	 * @param downloadCursor セットする downloadCursor
+	 */
+	public void setDownloadCursor(DownloadCursor downloadCursor) {
+		this.downloadCursor = downloadCursor;
+	}
+
+	/**
+	 * @return limit
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @param limit セットする limit
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
 	/**
 	 * @return syncDataId
 	 */
@@ -16,7 +16,7 @@
  */
 package com.htmlhifive.sync.resource;
 
-import java.util.Set;
+import java.util.List;
 
 import com.htmlhifive.sync.exception.ConflictException;
 
@@ -40,12 +40,25 @@ public interface SyncResource<E> {
 	SyncResponse<E> get(SyncRequestHeader requestHeader);
 
 	/**
-	 * リクエストヘッダが指定し、指定時刻以降に更新された全リソースエレメントを取得します.<br>
+	 * リクエストヘッダが指定し、指定時刻以降に更新されたリソースエレメントを共通データが返す順に取得します.<br>
+	 * リクエストヘッダに最大件数が指定されている場合はその件数までを取得し、カーソルが指定されている場合はその続きから取得します.
 	 *
-	 * @param lastSyncTime 指定時刻
-	 * @return 指定時刻以降に更新されたエレメントを含む同期レスポンスのリスト
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @return 指定時刻以降に更新されたエレメントを含む同期レスポンスのページ
+	 */
+	SyncPage<SyncResponse<E>> getModifiedSince(SyncRequestHeader requestHeader);
+
+	/**
+	 * 下り更新で取得した同期レスポンスが含むリソースエレメントのロックを、まとめて取得します.<br>
+	 * {@link #getModifiedSince(SyncRequestHeader)}はロックを取得しないため、取得したページごとに呼び出します.<br>
+	 * ロックの一括取得は全件を取得するか、1件も取得しないかのいずれかです.
+	 * 他のクライアントがロックを保持するエレメントが含まれる場合でも、それ以外のエレメントのロックは取得します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responses ロックを取得する同期レスポンスのList
+	 * @return 全てのロックを取得できた場合true. 取得できなかったロックがある場合false
 	 */
-	Set<SyncResponse<E>> getModifiedSince(SyncRequestHeader requestHeader);
+	boolean lockAll(SyncRequestHeader requestHeader, List<? extends SyncResponse<?>> responses);
 
 	/**
 	 * リクエストヘッダが指定するリソースエレメントを更新します.<br>
@@ -76,6 +89,17 @@ public interface SyncResource<E> {
 	 */
 	SyncResponse<E> post(SyncRequestHeader requestHeader, E newElement) throws ConflictException;
 
+	/**
+	 * 上り更新の前に、このリソースへの全てのリクエストが対象とするデータをまとめて取得します.<br>
+	 * 以降の{@link #put(SyncRequestHeader, Object)}等では、取得済みのデータを使用して1件ずつの検索を省略します.<br>
+	 * 取得したデータから、更新を行う前に競合するリクエストを予測して返します.
+	 * 確実な競合と判定したリクエストは実際の更新で必ず競合しますが、予測される競合と判定したリクエストは判定の後のデータの変更により競合しないことがあります.
+	 *
+	 * @param requestHeaders このリソースへの同期リクエストヘッダのList
+	 * @return 競合の予測結果
+	 */
+	UploadPrediction prepareUpload(List<SyncRequestHeader> requestHeaders);
+
 	/**
 	 * このリソースのエレメント型を返します.
 	 *
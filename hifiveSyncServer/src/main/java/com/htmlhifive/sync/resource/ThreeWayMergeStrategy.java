@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.htmlhifive.sync.commondata.ElementBaseVersion;
+import com.htmlhifive.sync.commondata.ElementBaseVersionRepository;
+import com.htmlhifive.sync.exception.ConflictException;
+import com.htmlhifive.sync.exception.SyncException;
+
+/**
+ * ロックエラー発生時の更新戦略、競合判定ロジックの実装.<br>
+ * クライアントが最後に同期したエレメント(ベースバージョン)、クライアントのエレメント、サーバのエレメントを項目ごとに比較し、
+ * クライアントとサーバが異なる項目を変更していればマージしたエレメントで更新します.
+ * 同じ項目を異なる値に変更している場合は、ConflictExceptionをスローしてクライアントに解決を求めます.<br>
+ * ベースバージョンは上り更新でエレメントを保存するごとに記録し、保持期間を過ぎたものを{@link #purgeExpired()}で削除します.
+ * ベースバージョンがない場合や、どちらかが削除されている場合はマージできないため競合とします.
+ *
+ * @author kishigam
+ */
+@Service
+public class ThreeWayMergeStrategy implements UpdateStrategy {
+
+	/**
+	 * エレメントと項目ごとのMapを相互に変換するためのオブジェクトマッパー.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * ベースバージョンのリポジトリ.
+	 */
+	@Resource
+	private ElementBaseVersionRepository repository;
+
+	/**
+	 * ベースバージョンの保持期間(ミリ秒).<br>
+	 * これより前に同期したクライアントとの競合は、マージせずにクライアントに解決を求めます.
+	 */
+	@Value("${sync.merge.baseVersionRetention:2592000000}")
+	private long baseVersionRetention = 2592000000L;
+
+	/**
+	 * クライアントが同期したベースバージョンを使用して、クライアントとサーバのエレメントを項目ごとにマージします.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param clientElement リクエストされたエレメント、DELETEの場合null
+	 * @param responseHeader 同期レスポンスヘッダ(リクエスト処理前のサーバ側共通データ)
+	 * @param serverElement リクエスト処理前のサーバ側エレメント(DELETE済み場合null)
+	 * @return マージしたエレメント
+	 * @throws ConflictException マージできない場合、または同じ項目が異なる値に変更されている場合
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <E> E resolveConflict(SyncRequestHeader requestHeader, E clientElement, SyncResponseHeader responseHeader,
+			E serverElement) throws ConflictException {
+
+		if (clientElement == null || serverElement == null) {
+			throw new ConflictException("resource element has updated.", new SyncResponse<>(responseHeader,
+					serverElement));
+		}
+
+		ElementBaseVersion baseVersion = repository.findOne(ElementBaseVersion.createVersionId(
+				requestHeader.getSyncDataId(), requestHeader.getLastModified()));
+		if (baseVersion == null) {
+			throw new ConflictException("base version of resource element is not found.", new SyncResponse<>(
+					responseHeader, serverElement));
+		}
+
+		Map<String, Object> baseMap;
+		try {
+			baseMap = MAPPER.readValue(baseVersion.getElement(), Map.class);
+		} catch (IOException e) {
+			throw new SyncException("failed to decode base version : " + baseVersion.getVersionId(), e);
+		}
+		Map<String, Object> clientMap = MAPPER.convertValue(clientElement, Map.class);
+		Map<String, Object> serverMap = MAPPER.convertValue(serverElement, Map.class);
+
+		Set<String> fieldNames = new LinkedHashSet<>(serverMap.keySet());
+		fieldNames.addAll(clientMap.keySet());
+
+		Map<String, Object> mergedMap = new LinkedHashMap<>(serverMap);
+		List<String> conflictedFieldNames = new ArrayList<>();
+		for (String fieldName : fieldNames) {
+
+			Object baseValue = baseMap.get(fieldName);
+			Object clientValue = clientMap.get(fieldName);
+			Object serverValue = serverMap.get(fieldName);
+
+			// クライアントが変更していない項目はサーバの値を使用する
+			if (ObjectUtils.equals(clientValue, serverValue) || ObjectUtils.equals(clientValue, baseValue)) {
+				continue;
+			}
+
+			// サーバが変更していない項目はクライアントの値を使用する
+			if (ObjectUtils.equals(serverValue, baseValue)) {
+				mergedMap.put(fieldName, clientValue);
+				continue;
+			}
+
+			conflictedFieldNames.add(fieldName);
+		}
+
+		if (!conflictedFieldNames.isEmpty()) {
+			throw new ConflictException("resource element has updated on fields : " + conflictedFieldNames,
+					new SyncResponse<>(responseHeader, serverElement));
+		}
+
+		return (E) MAPPER.convertValue(mergedMap, serverElement.getClass());
+	}
+
+	/**
+	 * 競合を解決する場合があるため、trueを返します.
+	 */
+	@Override
+	public boolean canResolveConflict() {
+
+		return true;
+	}
+
+	/**
+	 * 保存されたエレメントを、その最終更新時刻のベースバージョンとして記録します.<br>
+	 * エレメントが削除された場合は記録しません.
+	 */
+	@Override
+	public <E> void elementSaved(SyncResponseHeader responseHeader, E element) {
+
+		if (element == null) {
+			return;
+		}
+
+		try {
+			repository.save(new ElementBaseVersion(responseHeader.getSyncDataId(), responseHeader.getLastModified(),
+					MAPPER.writeValueAsString(element)));
+		} catch (IOException e) {
+			throw new SyncException("failed to encode base version : " + responseHeader.getSyncDataId(), e);
+		}
+	}
+
+	/**
+	 * 保持期間を過ぎたベースバージョンを削除します.
+	 */
+	@Transactional
+	public void purgeExpired() {
+
+		repository.deleteLastModifiedBefore(System.currentTimeMillis() - baseVersionRetention);
+	}
+}
@@ -38,4 +38,21 @@ public interface UpdateStrategy {
 	 */
 	<E> E resolveConflict(SyncRequestHeader requestHeader, E clientElement, SyncResponseHeader responseHeader,
 			E serverElement) throws ConflictException;
+
+	/**
+	 * 競合を解決し、更新に使用するエレメントを返す場合があるかどうかを返します.<br>
+	 * falseを返す場合、ロックエラーとなったリクエストは必ず競合となるため、上り更新の前に競合を確定することができます.
+	 *
+	 * @return 競合を解決する場合がある場合true
+	 */
+	boolean canResolveConflict();
+
+	/**
+	 * 上り更新でエレメントを保存した後に呼び出されます.<br>
+	 * 競合の解決に保存されたエレメントを使用する場合、このメソッドで記録します.
+	 *
+	 * @param responseHeader 同期レスポンスヘッダ(保存後の共通データ)
+	 * @param element 保存したエレメント
+	 */
+	<E> void elementSaved(SyncResponseHeader responseHeader, E element);
 }
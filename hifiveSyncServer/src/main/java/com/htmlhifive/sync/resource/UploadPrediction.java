@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * 上り更新の前に判定した、リクエストの競合の予測結果を表すクラス.<br>
+ * 確実な競合は、判定に使用した最終更新時刻がリクエストの最終更新時刻より後であるなど、以降のデータの変更によって解消されることのない競合です.
+ * 最終更新時刻は進むのみのため、これらのリクエストは実際の更新で必ず競合します.<br>
+ * 予測される競合は、他のクライアントが保持するロックなど、判定の後の変更によって解消されることがある競合です.
+ *
+ * @author kishigam
+ */
+public class UploadPrediction {
+
+	/**
+	 * 確実に競合するリクエストの同期リクエストヘッダのList.
+	 */
+	private final List<SyncRequestHeader> certainConflicts = new ArrayList<>();
+
+	/**
+	 * 競合が予測されるリクエストの同期リクエストヘッダのList.
+	 */
+	private final List<SyncRequestHeader> possibleConflicts = new ArrayList<>();
+
+	/**
+	 * 確実に競合するリクエストを追加します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 */
+	public void addCertainConflict(SyncRequestHeader requestHeader) {
+
+		certainConflicts.add(requestHeader);
+	}
+
+	/**
+	 * 競合が予測されるリクエストを追加します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 */
+	public void addPossibleConflict(SyncRequestHeader requestHeader) {
+
+		possibleConflicts.add(requestHeader);
+	}
+
+	/**
+	 * 他の予測結果に含まれる全てのリクエストを追加します.
+	 *
+	 * @param prediction 予測結果
+	 */
+	public void addAll(UploadPrediction prediction) {
+
+		certainConflicts.addAll(prediction.certainConflicts);
+		possibleConflicts.addAll(prediction.possibleConflicts);
+	}
+
+	/**
+	 * 確実に競合するリクエストが存在するかどうかを返します.
+	 *
+	 * @return 確実に競合するリクエストが存在する場合true
+	 */
+	public boolean hasCertainConflict() {
+
+		return !certainConflicts.isEmpty();
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj)
+			return true;
+		if (!(obj instanceof UploadPrediction))
+			return false;
+
+		UploadPrediction prediction = (UploadPrediction) obj;
+
+		return new EqualsBuilder().append(this.certainConflicts, prediction.certainConflicts)
+				.append(this.possibleConflicts, prediction.possibleConflicts).isEquals();
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+
+		return new HashCodeBuilder(17, 37).append(certainConflicts).append(possibleConflicts).hashCode();
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return certainConflicts
+	 */
+	public List<SyncRequestHeader> getCertainConflicts() {
+		return Collections.unmodifiableList(certainConflicts);
+	}
+
+	/**
+	 * @return possibleConflicts
+	 */
+	public List<SyncRequestHeader> getPossibleConflicts() {
+		return Collections.unmodifiableList(possibleConflicts);
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+/**
+ * {@link WatermarkRegistry}でデータモデルのウォーターマークが進んだことを受け取るリスナーインターフェース.<br>
+ * 通知はウォーターマークを進めたスレッド(更新をコミットしたスレッドなど)で行われるため、実装では時間のかかる処理を行わないでください.
+ *
+ * @author kishigam
+ */
+public interface WatermarkListener {
+
+	/**
+	 * データモデルのウォーターマークが進んだときに呼び出されます.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param watermark 新しいウォーターマーク
+	 */
+	void watermarkAdvanced(String dataModelName, long watermark);
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.annotation.Resource;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * データモデルごとのウォーターマークをメモリ上に保持するレジストリクラス.<br>
+ * このサーバでの変更はコミット後に{@link #advance(String, long)}で直ちに反映し、
+ * 他のサーバでの変更は{@link #refresh()}を定期的に実行して{@link SyncProvider}から取得します.<br>
+ * データベースにアクセスせずに、前回の下り更新以降にデータモデルが変更されていないことを判定するために使用します.<br>
+ * ウォーターマークが進んだことは、データモデルごとに登録された{@link WatermarkListener}に通知します.
+ *
+ * @author kishigam
+ */
+@Component
+public class WatermarkRegistry {
+
+	/**
+	 * ウォーターマークを取得する共通データサービス.
+	 */
+	@Resource
+	private SyncProvider syncProvider;
+
+	/**
+	 * データモデル名をKey、ウォーターマークをValueとするMap.
+	 */
+	private final ConcurrentMap<String, Long> watermarks = new ConcurrentHashMap<>();
+
+	/**
+	 * ウォーターマークの参照が要求されたデータモデル名のSet.
+	 */
+	private final Set<String> dataModelNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * データモデル名をKey、ウォーターマークの変化を待つリスナーのSetをValueとするMap.
+	 */
+	private final ConcurrentMap<String, Set<WatermarkListener>> listeners = new ConcurrentHashMap<>();
+
+	/**
+	 * データモデルの現在のウォーターマークを返します.<br>
+	 * まだ取得していないデータモデルの場合はnullを返し、次回の{@link #refresh()}から取得対象とします.
+	 *
+	 * @param dataModelName データモデル名
+	 * @return ウォーターマーク(取得していない場合null)
+	 */
+	public Long current(String dataModelName) {
+
+		dataModelNames.add(dataModelName);
+
+		return watermarks.get(dataModelName);
+	}
+
+	/**
+	 * データモデルのウォーターマークを、指定した値まで進めます.<br>
+	 * 現在の値より小さい値が指定された場合は何もしません.<br>
+	 * ウォーターマークが進んだ場合、そのデータモデルのリスナーに通知します.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param watermark ウォーターマーク
+	 */
+	public void advance(String dataModelName, long watermark) {
+
+		while (true) {
+			Long current = watermarks.putIfAbsent(dataModelName, watermark);
+			if (current != null && current >= watermark) {
+				return;
+			}
+			if (current == null || watermarks.replace(dataModelName, current, watermark)) {
+				notifyListeners(dataModelName, watermark);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * データモデルのウォーターマークが進んだときに通知を受けるリスナーを登録します.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param listener リスナー
+	 */
+	public void addListener(String dataModelName, WatermarkListener listener) {
+
+		dataModelNames.add(dataModelName);
+
+		Set<WatermarkListener> newSet = new CopyOnWriteArraySet<>();
+		Set<WatermarkListener> listenerSet = listeners.putIfAbsent(dataModelName, newSet);
+		(listenerSet == null ? newSet : listenerSet).add(listener);
+	}
+
+	/**
+	 * 登録したリスナーを削除します.<br>
+	 * 登録されていないリスナーが指定された場合は何もしません.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param listener リスナー
+	 */
+	public void removeListener(String dataModelName, WatermarkListener listener) {
+
+		Set<WatermarkListener> listenerSet = listeners.get(dataModelName);
+		if (listenerSet != null) {
+			listenerSet.remove(listener);
+		}
+	}
+
+	/**
+	 * データモデルのリスナーにウォーターマークが進んだことを通知します.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param watermark 新しいウォーターマーク
+	 */
+	private void notifyListeners(String dataModelName, long watermark) {
+
+		Set<WatermarkListener> listenerSet = listeners.get(dataModelName);
+		if (listenerSet == null) {
+			return;
+		}
+		for (WatermarkListener listener : listenerSet) {
+			listener.watermarkAdvanced(dataModelName, watermark);
+		}
+	}
+
+	/**
+	 * 参照が要求された全てのデータモデルについて、ウォーターマークを{@link SyncProvider}から取得して反映します.<br>
+	 * 他のサーバでの変更を反映するため、定期的に実行します.
+	 */
+	@Transactional(readOnly = true)
+	public void refresh() {
+
+		for (String dataModelName : dataModelNames) {
+			advance(dataModelName, syncProvider.getWatermark(dataModelName));
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource.separated;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.htmlhifive.sync.commondata.ChangeJournalCounter;
+import com.htmlhifive.sync.commondata.ChangeJournalCounterRepository;
+import com.htmlhifive.sync.commondata.ChangeJournalRepository;
+
+/**
+ * 変更ジャーナルの通番のカウンタを初期化するクラス.<br>
+ * 起動時にカウンタの行が存在しない場合、記録されている変更ジャーナルの最大の通番で作成します.
+ * 複数のサーバが同時に作成した場合は、先に作成された行を使用します.
+ *
+ * @author kishigam
+ */
+@Component
+public class ChangeJournalCounterInitializer {
+
+	/**
+	 * 変更ジャーナルの通番のカウンタのリポジトリ.
+	 */
+	@Resource
+	private ChangeJournalCounterRepository counterRepository;
+
+	/**
+	 * 変更ジャーナルのリポジトリ.
+	 */
+	@Resource
+	private ChangeJournalRepository journalRepository;
+
+	/**
+	 * カウンタの作成に使用するエンティティマネージャ.<br>
+	 * 既存の行を上書きしないよう、マージではなく登録として永続化します.
+	 */
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * カウンタを作成するトランザクションを開始するためのトランザクションマネージャ.
+	 */
+	@Resource
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * カウンタの行が存在しない場合に作成します.
+	 */
+	@PostConstruct
+	public void init() {
+
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		try {
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+
+					if (counterRepository.exists(ChangeJournalCounter.COUNTER_ID)) {
+						return;
+					}
+					Long maxSequenceNo = journalRepository.findMaxSequenceNo();
+					entityManager.persist(new ChangeJournalCounter(maxSequenceNo == null ? 0L : maxSequenceNo));
+				}
+			});
+		} catch (RuntimeException e) {
+
+			// 他のサーバが同時に作成した場合は、その行を使用する
+			boolean exists = transactionTemplate.execute(new TransactionCallback<Boolean>() {
+
+				@Override
+				public Boolean doInTransaction(TransactionStatus status) {
+					return counterRepository.exists(ChangeJournalCounter.COUNTER_ID);
+				}
+			});
+			if (!exists) {
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource.separated;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.htmlhifive.sync.commondata.ChangeJournal;
+import com.htmlhifive.sync.commondata.ChangeJournalCounter;
+import com.htmlhifive.sync.commondata.ChangeJournalCounterRepository;
+import com.htmlhifive.sync.commondata.ChangeJournalRepository;
+import com.htmlhifive.sync.commondata.CommonData;
+import com.htmlhifive.sync.commondata.CommonDataRepository;
+import com.htmlhifive.sync.exception.SyncException;
+
+/**
+ * 1つのトランザクション内で扱う共通データを管理するユニットオブワーク.<br>
+ * 共通データは同期データIDごとに1回だけ読み込み、存在しなかった同期データIDも記録して再検索しません.<br>
+ * 新規の共通データは登録時に保存します. 既存の共通データの変更は{@link SeparatedCommonDataSyncProvider}が条件付き更新で直接書き込みます.<br>
+ * 変更ジャーナルは記録しておき、{@link #flush()}で通番を採番して追記します.<br>
+ * {@link SeparatedCommonDataSyncProvider}がトランザクションごとに生成し、コミット前にフラッシュします.
+ *
+ * @author kishigam
+ */
+class CommonDataUnitOfWork {
+
+	/**
+	 * Sync共通データのリポジトリ.
+	 */
+	private final CommonDataRepository repository;
+
+	/**
+	 * 変更ジャーナルのリポジトリ.
+	 */
+	private final ChangeJournalRepository journalRepository;
+
+	/**
+	 * 変更ジャーナルの通番のカウンタのリポジトリ.
+	 */
+	private final ChangeJournalCounterRepository counterRepository;
+
+	/**
+	 * 変更ジャーナルを記録せず、直ちに追記するかどうか.<br>
+	 * トランザクションの同期が有効でない場合に使用します.
+	 */
+	private final boolean immediate;
+
+	/**
+	 * 同期データIDをKey、読み込みまたは登録した共通データをValueとするMap.
+	 */
+	private final Map<String, CommonData> loadedMap = new HashMap<>();
+
+	/**
+	 * 存在しないことを確認した同期データIDのSet.
+	 */
+	private final Set<String> absentSyncDataIds = new HashSet<>();
+
+	/**
+	 * 登録がデータベースに反映されていない共通データの同期データIDのSet.
+	 */
+	private final Set<String> unflushedSyncDataIds = new HashSet<>();
+
+	/**
+	 * 採番と追記を待つ変更ジャーナルのList.
+	 */
+	private final List<ChangeJournal> pendingJournals = new ArrayList<>();
+
+	/**
+	 * 採番して追記した変更ジャーナルのList.
+	 */
+	private final List<ChangeJournal> appendedJournals = new ArrayList<>();
+
+	/**
+	 * リポジトリを指定してユニットオブワークを生成します.
+	 *
+	 * @param repository Sync共通データのリポジトリ
+	 * @param journalRepository 変更ジャーナルのリポジトリ
+	 * @param counterRepository 変更ジャーナルの通番のカウンタのリポジトリ
+	 * @param immediate 変更ジャーナルを記録せず、直ちに追記する場合true
+	 */
+	CommonDataUnitOfWork(CommonDataRepository repository, ChangeJournalRepository journalRepository,
+			ChangeJournalCounterRepository counterRepository, boolean immediate) {
+
+		this.repository = repository;
+		this.journalRepository = journalRepository;
+		this.counterRepository = counterRepository;
+		this.immediate = immediate;
+	}
+
+	/**
+	 * 同期データIDの共通データを返します.<br>
+	 * 読み込み済み、または存在しないことを確認済みの場合はリポジトリを検索しません.
+	 *
+	 * @param syncDataId 同期データID
+	 * @return 共通データ(存在しない場合null)
+	 */
+	CommonData find(String syncDataId) {
+
+		CommonData common = loadedMap.get(syncDataId);
+		if (common != null || absentSyncDataIds.contains(syncDataId)) {
+			return common;
+		}
+
+		common = repository.findOne(syncDataId);
+		if (common == null) {
+			absentSyncDataIds.add(syncDataId);
+		} else {
+			loadedMap.put(syncDataId, common);
+		}
+		return common;
+	}
+
+	/**
+	 * まとめて検索した共通データと、検索して存在しなかった同期データIDを記録します.<br>
+	 * 既に読み込み済みの共通データは置き換えません.
+	 *
+	 * @param commons 検索した共通データのCollection
+	 * @param searchedSyncDataIds 検索した同期データIDのCollection
+	 */
+	void registerLoaded(Collection<CommonData> commons, Collection<String> searchedSyncDataIds) {
+
+		for (CommonData common : commons) {
+			if (!loadedMap.containsKey(common.getSyncDataId())) {
+				loadedMap.put(common.getSyncDataId(), common);
+			}
+		}
+		for (String syncDataId : searchedSyncDataIds) {
+			if (!loadedMap.containsKey(syncDataId)) {
+				absentSyncDataIds.add(syncDataId);
+			}
+		}
+	}
+
+	/**
+	 * 新規の共通データを登録し、保存します.
+	 *
+	 * @param common 新規の共通データ
+	 */
+	void registerNew(CommonData common) {
+
+		repository.save(common);
+		unflushedSyncDataIds.add(common.getSyncDataId());
+
+		loadedMap.put(common.getSyncDataId(), common);
+		absentSyncDataIds.remove(common.getSyncDataId());
+	}
+
+	/**
+	 * 同期データIDの共通データの登録がデータベースに反映されていない場合、フラッシュします.<br>
+	 * エンティティを経由せずに共通データを更新する前に呼び出し、未反映の行に対して更新しないようにします.
+	 *
+	 * @param syncDataId 同期データID
+	 */
+	void flushIfPending(String syncDataId) {
+
+		if (!unflushedSyncDataIds.contains(syncDataId)) {
+			return;
+		}
+		repository.flush();
+		unflushedSyncDataIds.clear();
+	}
+
+	/**
+	 * 変更ジャーナルを記録します.<br>
+	 * 通番の採番と追記は{@link #flush()}で行います.
+	 *
+	 * @param journal 変更ジャーナル
+	 */
+	void registerJournal(ChangeJournal journal) {
+
+		pendingJournals.add(journal);
+		if (immediate) {
+			appendJournals();
+		}
+	}
+
+	/**
+	 * 採番して追記した変更ジャーナルのListを返します.
+	 *
+	 * @return 変更ジャーナルのList
+	 */
+	List<ChangeJournal> getAppendedJournals() {
+
+		return appendedJournals;
+	}
+
+	/**
+	 * 記録した変更ジャーナルを採番して追記します.
+	 */
+	void flush() {
+
+		unflushedSyncDataIds.clear();
+
+		appendJournals();
+	}
+
+	/**
+	 * 採番を待つ変更ジャーナルに記録した順に通番を採番し、追記します.<br>
+	 * 共通データの変更を先にデータベースに反映して行ロックを取得し、採番カウンタの行ロックは最後に取得します.
+	 * カウンタのロックを保持したまま他のロックを待つことがないため、デッドロックは発生しません.
+	 */
+	private void appendJournals() {
+
+		if (pendingJournals.isEmpty()) {
+			return;
+		}
+		repository.flush();
+
+		int count = pendingJournals.size();
+		if (counterRepository.advance(ChangeJournalCounter.COUNTER_ID, count) == 0) {
+			throw new SyncException("change journal counter is not initialized.");
+		}
+		long sequenceNo = counterRepository.findLastSequenceNo(ChangeJournalCounter.COUNTER_ID) - count;
+		for (ChangeJournal journal : pendingJournals) {
+			journal.setSequenceNo(++sequenceNo);
+		}
+
+		journalRepository.save(pendingJournals);
+		appendedJournals.addAll(pendingJournals);
+		pendingJournals.clear();
+	}
+}
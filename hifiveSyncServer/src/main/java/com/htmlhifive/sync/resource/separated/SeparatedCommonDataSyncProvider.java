@@ -16,29 +16,59 @@
  */
 package com.htmlhifive.sync.resource.separated;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Resource;
 import javax.persistence.EntityExistsException;
-
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.htmlhifive.sync.commondata.ChangeJournal;
+import com.htmlhifive.sync.commondata.ChangeJournalCounterRepository;
+import com.htmlhifive.sync.commondata.ChangeJournalRepository;
 import com.htmlhifive.sync.commondata.CommonData;
 import com.htmlhifive.sync.commondata.CommonDataRepository;
 import com.htmlhifive.sync.exception.BadRequestException;
 import com.htmlhifive.sync.exception.NotFoundException;
+import com.htmlhifive.sync.resource.DownloadCache;
+import com.htmlhifive.sync.resource.DownloadCursor;
+import com.htmlhifive.sync.resource.SyncMethod;
+import com.htmlhifive.sync.resource.SyncPage;
 import com.htmlhifive.sync.resource.SyncProvider;
+import com.htmlhifive.sync.resource.SyncQueryFilter;
 import com.htmlhifive.sync.resource.SyncRequestHeader;
 import com.htmlhifive.sync.resource.SyncResponseHeader;
+import com.htmlhifive.sync.resource.WatermarkRegistry;
 
 /**
  * 共通データを専用のデータエンティティ、リポジトリを使用して永続化する共通データ管理サービス実装.<br>
  * {@link SyncRequestHeader 同期リクエストヘッダ}、{@link SyncResponseHeader 同期レスポンスヘッダ} でデータを受渡します.<br>
- * {@link CommonData 共通データエンティティ}を、専用のリポジトリを用いて永続化します.
+ * {@link CommonData 共通データエンティティ}を、専用のリポジトリを用いて永続化します.<br>
+ * 共通データの登録、更新は{@link ChangeJournal 変更ジャーナル}に追記し、下り更新はジャーナルの通番をカーソルとして取得します.<br>
+ * 削除された共通データはトゥームストーンとして下り更新で返し、保持期間を過ぎたものは{@link TombstoneCompactor}が削除します.
+ * 上り更新で扱う共通データは{@link CommonDataUnitOfWork ユニットオブワーク}によりトランザクション内で1回だけ読み込み、
+ * 変更は条件付き更新で1回だけ書き込みます.
  *
  * @author kishigam
  */
@@ -46,12 +76,63 @@ import com.htmlhifive.sync.resource.SyncResponseHeader;
 @Transactional(propagation = Propagation.MANDATORY)
 public class SeparatedCommonDataSyncProvider implements SyncProvider {
 
+	/**
+	 * IN句で一度に検索する同期データIDの最大数.
+	 */
+	private static final int IN_CLAUSE_LIMIT = 500;
+
+	/**
+	 * 最終更新時刻が指定時刻以前の場合にのみ、共通データの登録形態と最終更新時刻を更新するSQL.<br>
+	 * 登録形態は列挙型の序数で保存されています.
+	 */
+	private static final String COMPARE_AND_UPDATE_SQL = "UPDATE COMMON_DATA SET syncMethod = ?, lastModified = ? "
+			+ "WHERE syncDataId = ? AND lastModified <= ?";
+
 	/**
 	 * Sync共通データのリポジトリ.
 	 */
 	@Resource
 	private CommonDataRepository repository;
 
+	/**
+	 * 変更ジャーナルのリポジトリ.
+	 */
+	@Resource
+	private ChangeJournalRepository journalRepository;
+
+	/**
+	 * 変更ジャーナルの通番のカウンタのリポジトリ.
+	 */
+	@Resource
+	private ChangeJournalCounterRepository counterRepository;
+
+	/**
+	 * クエリフィルタを適用した共通データの検索に使用するエンティティマネージャ.
+	 */
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * 下り更新のページのキャッシュ.<br>
+	 * 共通データの変更時に、データモデルのエントリを破棄します.
+	 */
+	@Resource
+	private DownloadCache downloadCache;
+
+	/**
+	 * データモデルごとのウォーターマークのレジストリ.<br>
+	 * 共通データの変更のコミット後に、ウォーターマークを進めます.
+	 */
+	@Resource
+	private WatermarkRegistry watermarkRegistry;
+
+	/**
+	 * トゥームストーン(削除された共通データ)と変更ジャーナルの保持期間(ミリ秒).<br>
+	 * 前回同期時刻がこの期間より前のクライアントには、再同期を要求します.
+	 */
+	@Value("${sync.tombstone.retention:2592000000}")
+	private long tombstoneRetention = 2592000000L;
+
 	/**
 	 * リソースに対応する共通データを返します.<br>
 	 *
@@ -88,63 +169,403 @@ public class SeparatedCommonDataSyncProvider implements SyncProvider {
 	}
 
 	/**
-	 * 指定された時刻以降に更新された全てのリソースに対応する共通データを返します. ロックは考慮しません.
+	 * 上り更新の前に、リクエストヘッダが対象とする共通データを{@link #IN_CLAUSE_LIMIT}件ずつのIN検索でまとめて取得します.<br>
+	 * 取得した共通データと存在しなかった同期データIDは{@link CommonDataUnitOfWork ユニットオブワーク}に記録し、
+	 * 以降の同期データIDによる検索や、{@link #saveNewCommonData(SyncRequestHeader, String)}の重複確認ではデータベースにアクセスしません.
+	 *
+	 * @param requestHeaders リソースへのリクエストヘッダのList
+	 * @return 同期データIDをKey、存在する共通データのレスポンスヘッダをValueとするMap
+	 */
+	@Override
+	public Map<String, SyncResponseHeader> prefetchCommonData(List<SyncRequestHeader> requestHeaders) {
+
+		Set<String> syncDataIds = new LinkedHashSet<>();
+		for (SyncRequestHeader requestHeader : requestHeaders) {
+			if (requestHeader.getSyncMethod() == SyncMethod.POST) {
+				syncDataIds.add(generateSyncDataId(requestHeader));
+			} else if (requestHeader.getSyncDataId() != null) {
+				syncDataIds.add(requestHeader.getSyncDataId());
+			}
+		}
+
+		Map<String, CommonData> commonMap = findBeans(syncDataIds, null);
+		currentUnitOfWork().registerLoaded(commonMap.values(), syncDataIds);
+
+		Map<String, SyncResponseHeader> responseHeaderMap = new HashMap<>();
+		for (CommonData common : commonMap.values()) {
+			responseHeaderMap.put(common.getSyncDataId(), common.createResponseHeader());
+		}
+		return responseHeaderMap;
+	}
+
+	/**
+	 * 前回の下り更新以降に更新されたリソースに対応する共通データを返します. ロックは考慮しません.<br>
+	 * リクエストヘッダに変更ジャーナルの通番を保持するカーソルが指定されている場合、その通番より後の変更を通番の順に返します.<br>
+	 * それ以外の場合、指定された時刻以降に更新された共通データを(最終更新時刻, 同期データID)の順に返し、
+	 * 最終ページでは以降の変更をジャーナルから取得するための通番のカーソルを返します.<br>
+	 * 削除された共通データは、前回同期時刻が指定されていない初回の下り更新を除いてトゥームストーンとして返します.<br>
+	 * リクエストヘッダに最大件数が指定されている場合はその件数までを返します.
 	 *
 	 * @param requestHeader リソースへのリクエストヘッダ
-	 * @return リソースID文字列をKey、リソースからのレスポンスヘッダをValueとするMap
+	 * @return リソースからのレスポンスヘッダを順に含むページ
 	 */
 	@Override
-	public Map<String, SyncResponseHeader> getCommonDataModifiedSince(SyncRequestHeader requestHeader) {
+	public SyncPage<SyncResponseHeader> getCommonDataModifiedSince(SyncRequestHeader requestHeader) {
+
+		return getCommonDataModifiedSince(requestHeader, null);
+	}
+
+	/**
+	 * {@link #getCommonDataModifiedSince(SyncRequestHeader)}と同様に共通データを返します.<br>
+	 * クエリフィルタが指定された場合、削除された共通データを除き、条件を満たすリソースの共通データのみを検索します.
+	 * 削除されたリソースには条件を適用できないため、トゥームストーンは条件によらず返します.
+	 *
+	 * @param requestHeader リソースへのリクエストヘッダ
+	 * @param queryFilter 共通データの検索時に適用するクエリフィルタ(nullの場合は適用しない)
+	 * @return リソースからのレスポンスヘッダを順に含むページ
+	 */
+	@Override
+	public SyncPage<SyncResponseHeader> getCommonDataModifiedSince(SyncRequestHeader requestHeader,
+			SyncQueryFilter queryFilter) {
+
+		DownloadCursor cursor = requestHeader.getDownloadCursor();
+		if (cursor != null && cursor.isSequence()) {
+			return getCommonDataFromJournal(requestHeader, cursor.getSequenceNo(), queryFilter);
+		}
+
+		// 検索より前にコミットされていたジャーナルの通番を、最終ページで以降の変更を取得するためのカーソルとする
+		Long maxSequenceNo = journalRepository.findMaxSequenceNo();
+		long committedSequenceNo = maxSequenceNo == null ? 0L : maxSequenceNo;
+
+		// 続きがあるかどうかを判定するため、最大件数より1件多く取得する
+		int limit = requestHeader.getLimit();
+		Pageable pageable = limit > 0 ? new PageRequest(0, limit + 1) : null;
+
+		List<CommonData> commons = queryFilter == null ? findModified(requestHeader, cursor, pageable)
+				: findModified(requestHeader, cursor, queryFilter, pageable);
+
+		boolean hasNext = limit > 0 && commons.size() > limit;
+		if (hasNext) {
+			commons = commons.subList(0, limit);
+		}
 
-		List<CommonData> commons = repository.findModified(requestHeader.getDataModelName(),
-				requestHeader.getLastSyncTime());
+		List<SyncResponseHeader> resultList = createResponseHeaders(commons, requestHeader);
 
-		Map<String, SyncResponseHeader> resultMap = new HashMap<>();
+		if (hasNext) {
+			return new SyncPage<>(resultList, DownloadCursor.of(resultList.get(resultList.size() - 1)));
+		}
+		return new SyncPage<>(resultList, DownloadCursor.ofSequence(committedSequenceNo), true);
+	}
+
+	/**
+	 * 指定した通番より後の変更ジャーナルを通番の順に取得し、対応する共通データを返します.<br>
+	 * 同じ共通データが複数回変更されている場合、最初に現れた位置で1件だけ返します.
+	 * 削除された共通データはトゥームストーンとして返します.<br>
+	 * 通番はコミットの順に採番されるため、後からコミットされた変更が取得済みの通番より前に現れることはありません.
+	 *
+	 * @param requestHeader リソースへのリクエストヘッダ
+	 * @param fromSequenceNo 前回取得した最後の変更ジャーナルの通番
+	 * @param queryFilter 共通データの検索時に適用するクエリフィルタ(nullの場合は適用しない)
+	 * @return リソースからのレスポンスヘッダを順に含むページ
+	 */
+	private SyncPage<SyncResponseHeader> getCommonDataFromJournal(SyncRequestHeader requestHeader,
+			long fromSequenceNo, SyncQueryFilter queryFilter) {
+
+		// 続きがあるかどうかを判定するため、最大件数より1件多く取得する
+		int limit = requestHeader.getLimit();
+		Pageable pageable = limit > 0 ? new PageRequest(0, limit + 1) : null;
+
+		List<ChangeJournal> journals = journalRepository.findAfter(requestHeader.getDataModelName(), fromSequenceNo,
+				pageable);
+
+		boolean hasNext = limit > 0 && journals.size() > limit;
+		if (hasNext) {
+			journals = journals.subList(0, limit);
+		}
+
+		long nextSequenceNo = journals.isEmpty() ? fromSequenceNo : journals.get(journals.size() - 1).getSequenceNo();
+
+		Set<String> syncDataIds = new LinkedHashSet<>();
+		for (ChangeJournal journal : journals) {
+			syncDataIds.add(journal.getSyncDataId());
+		}
+
+		Map<String, CommonData> commonMap = findBeans(syncDataIds, queryFilter);
+
+		List<CommonData> commons = new ArrayList<>();
+		for (String syncDataId : syncDataIds) {
+
+			// 保持期間を過ぎて削除されたトゥームストーンと、クエリフィルタの条件を満たさない共通データは返さない
+			CommonData common = commonMap.get(syncDataId);
+			if (common == null) {
+				continue;
+			}
+			commons.add(common);
+		}
+
+		return new SyncPage<>(createResponseHeaders(commons, requestHeader), DownloadCursor.ofSequence(nextSequenceNo),
+				!hasNext);
+	}
+
+	/**
+	 * 指定された時刻以降、またはカーソルが指す位置より後に更新された共通データを(最終更新時刻, 同期データID)の順に検索します.<br>
+	 * 前回同期時刻が指定されていない初回の下り更新では、削除された共通データを含みません.
+	 *
+	 * @param requestHeader リソースへのリクエストヘッダ
+	 * @param cursor 最終更新時刻と同期データIDを保持するカーソル(nullの場合は前回同期時刻から検索)
+	 * @param pageable 取得件数の指定(nullの場合は全件)
+	 * @return 検索した共通データエンティティのList
+	 */
+	private List<CommonData> findModified(SyncRequestHeader requestHeader, DownloadCursor cursor, Pageable pageable) {
+
+		// 初回の下り更新では、クライアントが保持していない削除済みの共通データは不要
+		boolean initial = requestHeader.getLastSyncTime() == 0L;
+
+		if (cursor != null && cursor.getLastModified() > requestHeader.getLastSyncTime()) {
+			return initial ? repository.findModifiedAfter(requestHeader.getDataModelName(), cursor.getLastModified(),
+					cursor.getSyncDataId(), pageable) : repository.findModifiedAfterIncludingDeleted(
+					requestHeader.getDataModelName(), cursor.getLastModified(), cursor.getSyncDataId(), pageable);
+		}
+
+		// 前回同期時刻以前を指すカーソルは、前回同期時刻から取得するのと同じ
+		return initial ? repository.findModified(requestHeader.getDataModelName(), requestHeader.getLastSyncTime(),
+				pageable) : repository.findModifiedIncludingDeleted(requestHeader.getDataModelName(),
+				requestHeader.getLastSyncTime(), pageable);
+	}
+
+	/**
+	 * {@link #findModified(SyncRequestHeader, DownloadCursor, Pageable)}と同じ共通データのうち、
+	 * クエリフィルタの条件を満たすリソースのものとトゥームストーンを検索します.<br>
+	 * 条件はリソースのエンティティに対するEXISTS句として、共通データの検索と同じクエリで適用します.
+	 *
+	 * @param requestHeader リソースへのリクエストヘッダ
+	 * @param cursor 最終更新時刻と同期データIDを保持するカーソル(nullの場合は前回同期時刻から検索)
+	 * @param queryFilter 共通データの検索時に適用するクエリフィルタ
+	 * @param pageable 取得件数の指定(nullの場合は全件)
+	 * @return 検索した共通データエンティティのList
+	 */
+	private List<CommonData> findModified(SyncRequestHeader requestHeader, DownloadCursor cursor,
+			SyncQueryFilter queryFilter, Pageable pageable) {
+
+		StringBuilder jpql = new StringBuilder("SELECT d FROM CommonData d WHERE d.dataModelName = :dataModelName ");
+
+		boolean afterCursor = cursor != null && cursor.getLastModified() > requestHeader.getLastSyncTime();
+		if (afterCursor) {
+			jpql.append("AND (d.lastModified > :lastModified "
+					+ "OR (d.lastModified = :lastModified AND d.syncDataId > :syncDataId)) ");
+		} else {
+			jpql.append("AND d.lastModified > :since ");
+		}
+
+		String existsClause = queryFilter.toExistsClause("d");
+		if (requestHeader.getLastSyncTime() == 0L) {
+			jpql.append("AND d.syncMethod <> 2 AND ").append(existsClause);
+		} else {
+			jpql.append("AND (d.syncMethod = 2 OR ").append(existsClause).append(')');
+		}
+		jpql.append(" ORDER BY d.lastModified, d.syncDataId");
+
+		TypedQuery<CommonData> query = createFilteredQuery(jpql.toString(), queryFilter);
+		query.setParameter("dataModelName", requestHeader.getDataModelName());
+		if (afterCursor) {
+			query.setParameter("lastModified", cursor.getLastModified());
+			query.setParameter("syncDataId", cursor.getSyncDataId());
+		} else {
+			query.setParameter("since", requestHeader.getLastSyncTime());
+		}
+		if (pageable != null) {
+			query.setFirstResult(pageable.getOffset());
+			query.setMaxResults(pageable.getPageSize());
+		}
+		return query.getResultList();
+	}
+
+	/**
+	 * クエリフィルタのパラメータを設定した、共通データを検索するクエリを生成します.
+	 *
+	 * @param jpql 共通データを検索するJPQL
+	 * @param queryFilter クエリフィルタ
+	 * @return クエリ
+	 */
+	private TypedQuery<CommonData> createFilteredQuery(String jpql, SyncQueryFilter queryFilter) {
+
+		TypedQuery<CommonData> query = entityManager.createQuery(jpql, CommonData.class);
+		for (Map.Entry<String, Object> parameter : queryFilter.getParameters().entrySet()) {
+			query.setParameter(parameter.getKey(), parameter.getValue());
+		}
+		return query;
+	}
+
+	/**
+	 * 共通データのListから、同じ順序でレスポンスヘッダのListを生成します.
+	 *
+	 * @param commons 共通データエンティティのList
+	 * @param requestHeader リソースへのリクエストヘッダ
+	 * @return リソースからのレスポンスヘッダのList
+	 */
+	private List<SyncResponseHeader> createResponseHeaders(List<CommonData> commons, SyncRequestHeader requestHeader) {
+
+		List<SyncResponseHeader> resultList = new ArrayList<>();
 		for (CommonData common : commons) {
 
 			SyncResponseHeader responseHeader = common.createResponseHeader();
 			// クエリ情報は共通データとして管理していないため、リクエストヘッダからコピーする
 			responseHeader.setQueryMap(requestHeader.getQueryMap());
 
-			resultMap.put(common.getResourceIdStr(), responseHeader);
+			resultList.add(responseHeader);
 		}
+		return resultList;
+	}
+
+	/**
+	 * データモデルの変更ジャーナルの最大の通番を、ウォーターマークとして返します.
+	 *
+	 * @param dataModelName データモデル名
+	 * @return ウォーターマーク(ジャーナルが存在しない場合0)
+	 */
+	@Override
+	public long getWatermark(String dataModelName) {
+
+		Long latest = journalRepository.findLatestSequenceNo(dataModelName);
 
-		return resultMap;
+		return latest == null ? 0L : latest;
 	}
 
 	/**
-	 * リソースに対応する共通データに対し、ロックを設定します.<br>
+	 * 前回同期時刻がトゥームストーンの保持期間より前かどうかを返します.<br>
+	 * 前回同期時刻が指定されていない初回の下り更新では、再同期は不要です.
 	 *
-	 * @param responseHeader リソースからのレスポンスヘッダ
+	 * @param requestHeader リソースへのリクエストヘッダ
+	 * @return 再同期が必要な場合true
 	 */
 	@Override
-	public boolean getLock(SyncRequestHeader requestHeader) {
+	public boolean isResyncRequired(SyncRequestHeader requestHeader) {
 
-		CommonData common = findBean(requestHeader.getSyncDataId());
-		if (!common.getLockKey().equals(requestHeader.getStorageId())) {
-			return false;
+		long lastSyncTime = requestHeader.getLastSyncTime();
+
+		return lastSyncTime != 0L && lastSyncTime < currentTime() - tombstoneRetention;
+	}
+
+	/**
+	 * 同期データIDが指定する共通データに対し、ロックを設定します.<br>
+	 * ロックが設定されていない、または有効期限を過ぎている共通データにのみ、条件付きの一括更新で設定します.
+	 * 同じロックキーで設定された有効期限内のロックは変更しません.
+	 * IN句の要素数が過大にならないよう、分割して更新します.<br>
+	 * ロックはユニットオブワークを経由せずに更新するため、読み込み済みの共通データエンティティのロックキーには反映されません.
+	 *
+	 * @param lockKey ロックキー(ロックを取得するクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param lockExpiry ロックの有効期限(ミリ秒)
+	 * @return ロックを設定した件数
+	 */
+	@Override
+	public int getLocks(String lockKey, Collection<String> syncDataIds, long lockExpiry) {
+
+		long now = currentTime();
+
+		int count = 0;
+		List<String> idList = new ArrayList<>(syncDataIds);
+		for (int i = 0; i < idList.size(); i += IN_CLAUSE_LIMIT) {
+			count += repository.updateLocks(lockKey, idList.subList(i, Math.min(i + IN_CLAUSE_LIMIT, idList.size())),
+					lockExpiry, now);
 		}
-		common.setLockKey(requestHeader.getStorageId());
-		repository.save(common);
+		return count;
+	}
 
-		return true;
+	/**
+	 * 同期データIDが指定する共通データのうち、ロックキーが合致する有効期限内のロックの件数を返します.<br>
+	 * IN句の要素数が過大にならないよう、分割して検索します.
+	 *
+	 * @param lockKey ロックキー(ロックを取得したクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @return ロックの件数
+	 */
+	@Override
+	public int countLocks(String lockKey, Collection<String> syncDataIds) {
+
+		long now = currentTime();
+
+		long count = 0L;
+		List<String> idList = new ArrayList<>(syncDataIds);
+		for (int i = 0; i < idList.size(); i += IN_CLAUSE_LIMIT) {
+			count += repository.countLocks(lockKey, idList.subList(i, Math.min(i + IN_CLAUSE_LIMIT, idList.size())),
+					now);
+		}
+		return (int) count;
+	}
+
+	/**
+	 * 同期データIDが指定する共通データのうち、他のクライアントが有効期限内のロックを保持するものを返します.<br>
+	 * IN句の要素数が過大にならないよう、分割して検索します.
+	 *
+	 * @param lockKey ロックキー(判定するクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @return 他のクライアントがロックを保持する共通データの同期データIDのSet
+	 */
+	@Override
+	public Set<String> findLockedByOthers(String lockKey, Collection<String> syncDataIds) {
+
+		long now = currentTime();
+
+		Set<String> lockedIds = new LinkedHashSet<>();
+		List<String> idList = new ArrayList<>(syncDataIds);
+		for (int i = 0; i < idList.size(); i += IN_CLAUSE_LIMIT) {
+			lockedIds.addAll(repository.findLockedByOthers(lockKey,
+					idList.subList(i, Math.min(i + IN_CLAUSE_LIMIT, idList.size())), now));
+		}
+		return lockedIds;
+	}
+
+	/**
+	 * 同期データIDが指定する共通データに対し、ロックキーが合致するロックの有効期限を延長します.<br>
+	 * IN句の要素数が過大にならないよう、分割して更新します.
+	 *
+	 * @param lockKey ロックキー(ロックを取得したクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param lockExpiry 延長後の有効期限(ミリ秒)
+	 */
+	@Override
+	public void renewLocks(String lockKey, Collection<String> syncDataIds, long lockExpiry) {
+
+		List<String> idList = new ArrayList<>(syncDataIds);
+		for (int i = 0; i < idList.size(); i += IN_CLAUSE_LIMIT) {
+			repository.renewLocks(lockKey, idList.subList(i, Math.min(i + IN_CLAUSE_LIMIT, idList.size())),
+					lockExpiry);
+		}
 	}
 
 	/**
-	 * リソースに対応する共通データに対し、ロックを解除して更新します.
+	 * 同期データIDが指定する共通データに対し、ロックキーが合致するロックを解除します.<br>
+	 * IN句の要素数が過大にならないよう、分割して更新します.
 	 *
-	 * @param responseHeader リソースからのレスポンスヘッダ
+	 * @param lockKey ロックキー(ロックを取得したクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
 	 */
 	@Override
-	public void releaseLock(SyncResponseHeader responseHeader) {
+	public void releaseLocks(String lockKey, Collection<String> syncDataIds) {
 
-		CommonData common = findBean(responseHeader.getSyncDataId());
-		if (!common.getLockKey().equals(responseHeader.getStorageId())) {
+		List<String> idList = new ArrayList<>(syncDataIds);
+		for (int i = 0; i < idList.size(); i += IN_CLAUSE_LIMIT) {
+			repository.clearLocks(lockKey, idList.subList(i, Math.min(i + IN_CLAUSE_LIMIT, idList.size())));
+		}
+	}
+
+	/**
+	 * 同期データIDが指定する共通データに対し、ロックキーと有効期限が合致するロックを解除します.<br>
+	 * IN句の要素数が過大にならないよう、分割して更新します.
+	 *
+	 * @param lockKey ロックキー(ロックを取得したクライアントのストレージID)
+	 * @param syncDataIds 同期データIDのCollection
+	 * @param lockExpiry 取り消すロックの有効期限(ミリ秒)
+	 */
+	@Override
+	public void cancelLocks(String lockKey, Collection<String> syncDataIds, long lockExpiry) {
 
-			throw new IllegalStateException("this data is locked by another.");
+		List<String> idList = new ArrayList<>(syncDataIds);
+		for (int i = 0; i < idList.size(); i += IN_CLAUSE_LIMIT) {
+			repository.clearLocksExpiringAt(lockKey,
+					idList.subList(i, Math.min(i + IN_CLAUSE_LIMIT, idList.size())), lockExpiry);
 		}
-		common.setLockKey(null);
-		repository.save(common);
 	}
 
 	/**
@@ -159,7 +580,8 @@ public class SeparatedCommonDataSyncProvider implements SyncProvider {
 
 		String newSyncDataId = generateSyncDataId(requestHeader);
 
-		if (repository.exists(newSyncDataId)) {
+		CommonDataUnitOfWork unitOfWork = currentUnitOfWork();
+		if (unitOfWork.find(newSyncDataId) != null) {
 
 			EntityExistsException cause = new EntityExistsException("duplicated common data : syncDataId = "
 					+ newSyncDataId);
@@ -168,7 +590,8 @@ public class SeparatedCommonDataSyncProvider implements SyncProvider {
 
 		CommonData newCommon = new CommonData(newSyncDataId, requestHeader, targetResourceIdStr);
 
-		repository.save(newCommon);
+		unitOfWork.registerNew(newCommon);
+		appendJournal(newCommon);
 
 		SyncResponseHeader responseHeader = newCommon.createResponseHeader();
 
@@ -179,24 +602,154 @@ public class SeparatedCommonDataSyncProvider implements SyncProvider {
 	}
 
 	/**
-	 * リソースに対応する共通データを更新し、保存します.<br>
-	 * ロックは開放されます.
+	 * リソースに対応する共通データの最終更新時刻が指定時刻以前の場合にのみ、共通データを更新して保存します.<br>
+	 * 最終更新時刻の比較と更新は1回の条件付き更新文で行い、更新した件数で競合を判定します. 行ロックを取得する検索は行いません.<br>
+	 * 更新文はエンティティを経由せずJDBCで発行するため、保存を待つ他の変更がフラッシュされることはありません.
+	 * この共通データにデータベースへ未反映の登録、変更がある場合のみ、先にユニットオブワークをフラッシュします.<br>
+	 * 読み込み済みの共通データエンティティは管理下のまま更新後の値に合わせ、コミット時に再度書き込まないようにします.
+	 * 更新できなかった場合は、共通データを読み込み直して以降の{@link #getCommonData(SyncRequestHeader)}で最新の共通データを返し、
+	 * nullを返します.
 	 *
 	 * @param requestHeader リソースへのリクエストヘッダ
-	 * @return リソースからのレスポンスヘッダ
+	 * @param expectedLastModified 更新を許可する最終更新時刻の上限
+	 * @return リソースからのレスポンスヘッダ(更新できなかった場合null)
 	 */
 	@Override
-	public SyncResponseHeader saveUpdatedCommonData(SyncRequestHeader requestHeader) {
+	public SyncResponseHeader compareAndSaveUpdatedCommonData(SyncRequestHeader requestHeader,
+			long expectedLastModified) {
 
 		CommonData updatingCommon = findBean(requestHeader.getSyncDataId());
 
+		currentUnitOfWork().flushIfPending(updatingCommon.getSyncDataId());
+
+		Session session = entityManager.unwrap(Session.class);
+		if (!compareAndUpdate(session, requestHeader, expectedLastModified)) {
+
+			// 他のトランザクションが更新していたため、最新の共通データを読み込み直す
+			session.refresh(updatingCommon);
+			return null;
+		}
+
+		// 更新後の値を読み込み時の状態として記録し直し、コミット時の差分に含めない
 		updatingCommon.modifiy(requestHeader);
+		session.setReadOnly(updatingCommon, true);
+		session.setReadOnly(updatingCommon, false);
 
-		repository.save(updatingCommon);
+		appendJournal(updatingCommon);
 
-		SyncResponseHeader responseHeader = updatingCommon.createResponseHeader();
+		return updatingCommon.createResponseHeader();
+	}
 
-		return responseHeader;
+	/**
+	 * 共通データの最終更新時刻が指定時刻以前の場合にのみ、登録形態と最終更新時刻をリクエストの内容で更新します.<br>
+	 * 現在のトランザクションのコネクションで条件付き更新文を1回発行します.
+	 *
+	 * @param session 現在のトランザクションのセッション
+	 * @param requestHeader リソースへのリクエストヘッダ
+	 * @param expectedLastModified 更新を許可する最終更新時刻の上限
+	 * @return 更新できた場合true
+	 */
+	private boolean compareAndUpdate(Session session, final SyncRequestHeader requestHeader,
+			final long expectedLastModified) {
+
+		final int[] updated = new int[1];
+		session.doWork(new Work() {
+
+			@Override
+			public void execute(Connection connection) throws SQLException {
+
+				try (PreparedStatement statement = connection.prepareStatement(COMPARE_AND_UPDATE_SQL)) {
+					statement.setInt(1, requestHeader.getSyncMethod().ordinal());
+					statement.setLong(2, requestHeader.getRequestTime());
+					statement.setString(3, requestHeader.getSyncDataId());
+					statement.setLong(4, expectedLastModified);
+					updated[0] = statement.executeUpdate();
+				}
+			}
+		});
+		return updated[0] > 0;
+	}
+
+	/**
+	 * 現在のトランザクションの{@link CommonDataUnitOfWork ユニットオブワーク}を返します.<br>
+	 * 最初の呼び出しで生成してトランザクションに関連付け、コミット前に記録した変更ジャーナルを採番、追記し、
+	 * コミット後に追記したジャーナルを通知して、完了時に破棄します.<br>
+	 * トランザクションの同期が有効でない場合は、変更ジャーナルを直ちに追記するユニットオブワークを呼び出しごとに生成します.
+	 *
+	 * @return ユニットオブワーク
+	 */
+	private CommonDataUnitOfWork currentUnitOfWork() {
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return new CommonDataUnitOfWork(repository, journalRepository, counterRepository, true);
+		}
+
+		CommonDataUnitOfWork unitOfWork = (CommonDataUnitOfWork) TransactionSynchronizationManager.getResource(this);
+		if (unitOfWork != null) {
+			return unitOfWork;
+		}
+
+		final CommonDataUnitOfWork newUnitOfWork = new CommonDataUnitOfWork(repository, journalRepository,
+				counterRepository, false);
+		TransactionSynchronizationManager.bindResource(this, newUnitOfWork);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+			@Override
+			public void beforeCommit(boolean readOnly) {
+				newUnitOfWork.flush();
+			}
+
+			@Override
+			public void afterCommit() {
+				for (ChangeJournal journal : newUnitOfWork.getAppendedJournals()) {
+					notifyChange(journal);
+				}
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				TransactionSynchronizationManager.unbindResourceIfPossible(SeparatedCommonDataSyncProvider.this);
+			}
+		});
+		return newUnitOfWork;
+	}
+
+	/**
+	 * 共通データの変更を変更ジャーナルに追記します.<br>
+	 * 通番の採番と追記はコミット直前に行い、コミット後に通知します.
+	 * トランザクションの同期が有効でない場合は、直ちに追記して通知します.
+	 *
+	 * @param common 変更された共通データ
+	 */
+	private void appendJournal(CommonData common) {
+
+		ChangeJournal journal = new ChangeJournal(common, currentTime());
+		currentUnitOfWork().registerJournal(journal);
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			notifyChange(journal);
+		}
+	}
+
+	/**
+	 * 変更ジャーナルのデータモデルの下り更新のキャッシュを破棄し、ウォーターマークを進めます.
+	 *
+	 * @param journal 追記した変更ジャーナル
+	 */
+	private void notifyChange(ChangeJournal journal) {
+
+		downloadCache.invalidate(journal.getDataModelName());
+		watermarkRegistry.advance(journal.getDataModelName(), journal.getSequenceNo());
+	}
+
+	/**
+	 * 現在時刻(ミリ秒)を返します.
+	 *
+	 * @return 現在時刻
+	 */
+	private long currentTime() {
+
+		return System.currentTimeMillis();
 	}
 
 	/**
@@ -220,11 +773,47 @@ public class SeparatedCommonDataSyncProvider implements SyncProvider {
 	 */
 	private CommonData findBean(String syncDataId) {
 
-		CommonData common = repository.findOne(syncDataId);
+		CommonData common = currentUnitOfWork().find(syncDataId);
 
 		if (common == null) {
 			throw new NotFoundException("entity not found");
 		}
 		return common;
 	}
+
+	/**
+	 * 同期データIDのSetで共通データエンティティを検索し、同期データIDをキーとするMapで返します.<br>
+	 * IN句の要素数が過大にならないよう、分割して検索します.<br>
+	 * クエリフィルタが指定された場合、条件を満たすリソースの共通データとトゥームストーンのみを検索します.
+	 *
+	 * @param syncDataIds 同期データIDのSet
+	 * @param queryFilter 共通データの検索時に適用するクエリフィルタ(nullの場合は適用しない)
+	 * @return 同期データIDをキーとする共通データエンティティのMap
+	 */
+	private Map<String, CommonData> findBeans(Set<String> syncDataIds, SyncQueryFilter queryFilter) {
+
+		Map<String, CommonData> commonMap = new HashMap<>();
+
+		List<String> idList = new ArrayList<>(syncDataIds);
+		for (int i = 0; i < idList.size(); i += IN_CLAUSE_LIMIT) {
+
+			List<String> chunk = idList.subList(i, Math.min(i + IN_CLAUSE_LIMIT, idList.size()));
+
+			List<CommonData> commons;
+			if (queryFilter == null) {
+				commons = repository.findBySyncDataIdIn(chunk);
+			} else {
+				TypedQuery<CommonData> query = createFilteredQuery(
+						"SELECT d FROM CommonData d WHERE d.syncDataId IN :syncDataIds AND (d.syncMethod = 2 OR "
+								+ queryFilter.toExistsClause("d") + ")", queryFilter);
+				query.setParameter("syncDataIds", chunk);
+				commons = query.getResultList();
+			}
+
+			for (CommonData common : commons) {
+				commonMap.put(common.getSyncDataId(), common);
+			}
+		}
+		return commonMap;
+	}
 }
@@ -17,18 +17,31 @@
 package com.htmlhifive.sync.resource.separated;
 
 import java.lang.reflect.ParameterizedType;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Resource;
 
+import org.springframework.beans.factory.annotation.Value;
+
 import com.htmlhifive.sync.exception.ConflictException;
 import com.htmlhifive.sync.exception.DuplicateElementException;
+import com.htmlhifive.sync.exception.NotFoundException;
+import com.htmlhifive.sync.resource.DownloadCache;
+import com.htmlhifive.sync.resource.EncodedElementCache;
 import com.htmlhifive.sync.resource.LockManager;
 import com.htmlhifive.sync.resource.UpdateStrategy;
+import com.htmlhifive.sync.resource.UploadPrediction;
 import com.htmlhifive.sync.resource.SyncMethod;
+import com.htmlhifive.sync.resource.SyncPage;
 import com.htmlhifive.sync.resource.SyncProvider;
+import com.htmlhifive.sync.resource.SyncQueryFilter;
 import com.htmlhifive.sync.resource.SyncRequestHeader;
 import com.htmlhifive.sync.resource.SyncResource;
 import com.htmlhifive.sync.resource.SyncResourceManager;
@@ -51,6 +64,19 @@ public abstract class SeparatedCommonDataSyncResource<I, E> implements SyncResou
 	@Resource
 	private SyncProvider syncProvider;
 
+	/**
+	 * 下り更新で取得したページを複数のクライアントで共有するキャッシュ.
+	 */
+	@Resource
+	private DownloadCache downloadCache;
+
+	/**
+	 * エンコード済みのリソースエレメントのキャッシュ.<br>
+	 * リソースエレメントを変更した際に、そのエレメントのエンコード結果を破棄します.
+	 */
+	@Resource
+	private EncodedElementCache encodedElementCache;
+
 	/**
 	 * リソースごとに決まるロック方式のマネージャオブジェクト.<br>
 	 * リソースが生成される際に{@link SyncResourceManager } からセットされる.
@@ -62,6 +88,13 @@ public abstract class SeparatedCommonDataSyncResource<I, E> implements SyncResou
 	 */
 	private UpdateStrategy updateStrategy;
 
+	/**
+	 * 複数データGETメソッドで、1回の検索で取得するリソースエレメントの最大件数.<br>
+	 * IDのIN句に指定する要素数の上限となるため、使用するDBの制限(Oracleでは1000)を超えないように設定します.
+	 */
+	@Value("${sync.resource.batchSize:500}")
+	private int batchSize = 500;
+
 	/**
 	 * リクエストヘッダが指定する単一のリソースエレメントを取得します.<br>
 	 *
@@ -84,30 +117,101 @@ public abstract class SeparatedCommonDataSyncResource<I, E> implements SyncResou
 	}
 
 	/**
-	 * リクエストヘッダが指定し、指定時刻以降に更新された全リソースエレメントを取得します.<br>
+	 * リクエストヘッダが指定し、指定時刻以降に更新されたリソースエレメントを共通データが返す順に取得します.<br>
+	 * リクエストヘッダに最大件数が指定されている場合はその件数までを取得し、カーソルが指定されている場合はその続きから取得します.<br>
+	 * データモデルのウォーターマークが変わらない間は、同じリクエストに対して{@link DownloadCache キャッシュ}したページを返します.<br>
+	 * ロックは取得しません. 必要な場合は取得したページに対して{@link #lockAll(SyncRequestHeader, List)}を呼び出します.
 	 *
-	 * @param lastSyncTime 指定時刻
-	 * @return 指定時刻以降に更新されたエレメントを含む同期レスポンスのリスト
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @return 指定時刻以降に更新されたエレメントを含む同期レスポンスのページ
 	 */
 	@Override
-	public Set<SyncResponse<E>> getModifiedSince(SyncRequestHeader requestHeader) {
+	public SyncPage<SyncResponse<E>> getModifiedSince(final SyncRequestHeader requestHeader) {
+
+		SyncPage<SyncResponse<E>> responsePage;
+		if (downloadCache.isEnabled()) {
+			// データモデルの変更がなければ、同じリクエストに対するページは他のクライアントと共有できる
+			long watermark = syncProvider.getWatermark(requestHeader.getDataModelName());
+			responsePage = downloadCache.get(requestHeader, watermark, new Callable<SyncPage<SyncResponse<E>>>() {
+
+				@Override
+				public SyncPage<SyncResponse<E>> call() {
+					return loadModifiedSince(requestHeader);
+				}
+			});
+		} else {
+			responsePage = loadModifiedSince(requestHeader);
+		}
 
-		Map<String, SyncResponseHeader> responseHeaderMap = syncProvider.getCommonDataModifiedSince(requestHeader);
+		return responsePage;
+	}
+
+	/**
+	 * 下り更新で取得した同期レスポンスが含むリソースエレメントのロックを、まとめて取得します.<br>
+	 * ロックはリクエストごとに、ページの全件をまとめて取得します.
+	 * 一括取得は全件を取得するか1件も取得しないため、他のクライアントがロックを保持するエレメントが含まれ一括取得できなかった場合は、
+	 * 1件ずつ取得できるロックを取得します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responses ロックを取得する同期レスポンスのList
+	 * @return 全てのロックを取得できた場合true. 取得できなかったロックがある場合false
+	 */
+	@Override
+	public boolean lockAll(SyncRequestHeader requestHeader, List<? extends SyncResponse<?>> responses) {
 
-		for (String resourceIdStr : responseHeaderMap.keySet()) {
-			lockManager.lock(requestHeader, responseHeaderMap.get(resourceIdStr));
+		List<SyncResponseHeader> responseHeaders = new ArrayList<>();
+		for (SyncResponse<?> response : responses) {
+			responseHeaders.add(response.getHeader());
+		}
+		if (lockManager.lockAll(requestHeader, responseHeaders)) {
+			return true;
 		}
 
-		Map<String, E> elementMap = getImpl(responseHeaderMap.keySet(), requestHeader.getQueryMap());
+		boolean lockedAll = true;
+		for (SyncResponseHeader responseHeader : responseHeaders) {
+			if (!lockManager.lock(requestHeader, responseHeader)) {
+				lockedAll = false;
+			}
+		}
+		return lockedAll;
+	}
+
+	/**
+	 * 指定時刻以降に更新された共通データと、それに対応するリソースエレメントを取得し、同期レスポンスのページを生成します.<br>
+	 * 削除された共通データ(トゥームストーン)はエレメントを取得せず、エレメントがnullの同期レスポンスとします.<br>
+	 * {@link #createQueryFilter(Map)}がクエリフィルタを返す場合、クエリは共通データの検索時に適用されます.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @return 指定時刻以降に更新されたエレメントを含む同期レスポンスのページ
+	 */
+	private SyncPage<SyncResponse<E>> loadModifiedSince(SyncRequestHeader requestHeader) {
+
+		SyncQueryFilter queryFilter = createQueryFilter(requestHeader.getQueryMap());
+
+		SyncPage<SyncResponseHeader> responseHeaderPage = queryFilter == null || queryFilter.isEmpty() ? syncProvider
+				.getCommonDataModifiedSince(requestHeader) : syncProvider.getCommonDataModifiedSince(requestHeader,
+				queryFilter);
+
+		// 共通データの順序を維持するためLinkedHashMapを使用する
+		Map<String, SyncResponseHeader> responseHeaderMap = new LinkedHashMap<>();
+		Set<String> existingResourceIdStrSet = new LinkedHashSet<>();
+		for (SyncResponseHeader responseHeader : responseHeaderPage.getContents()) {
+			responseHeaderMap.put(responseHeader.getResourceIdStr(), responseHeader);
+			if (responseHeader.getSyncMethod() != SyncMethod.DELETE) {
+				existingResourceIdStrSet.add(responseHeader.getResourceIdStr());
+			}
+		}
+
+		Map<String, E> elementMap = getImpl(existingResourceIdStrSet, requestHeader.getQueryMap());
 
-		Set<SyncResponse<E>> responseSet = new HashSet<>();
+		List<SyncResponse<E>> responseList = new ArrayList<>();
 		for (String targetResourceIdStr : responseHeaderMap.keySet()) {
 
-			responseSet.add(new SyncResponse<>(responseHeaderMap.get(targetResourceIdStr), elementMap
+			responseList.add(new SyncResponse<>(responseHeaderMap.get(targetResourceIdStr), elementMap
 					.get(targetResourceIdStr)));
 		}
 
-		return responseSet;
+		return new SyncPage<>(responseList, responseHeaderPage.getNextCursor(), responseHeaderPage.isLast());
 	}
 
 	/**
@@ -123,22 +227,15 @@ public abstract class SeparatedCommonDataSyncResource<I, E> implements SyncResou
 
 		SyncResponseHeader responseHeaderBeforUpdate = syncProvider.getCommonData(requestHeader);
 
-		// ロックエラー判定
-		E putElement = element;
-		if (!lockManager.canUpdate(requestHeader, responseHeaderBeforUpdate)) {
-
-			// サーバで保持しているエレメントを取得
-			E serverElement = responseHeaderBeforUpdate.getSyncMethod() == SyncMethod.DELETE ? null
-					: getImpl(responseHeaderBeforUpdate.getResourceIdStr());
-
-			// 楽観ロックエラー時の競合解決、更新エレメントを決定
-			putElement = updateStrategy.resolveConflict(requestHeader, element, responseHeaderBeforUpdate,
-					serverElement);
-		}
+		// ロックエラー判定、競合解決を行い、共通データを更新
+		SyncResponse<E> updated = resolveAndSaveCommonData(requestHeader, element, responseHeaderBeforUpdate);
+		E putElement = updated.getElement();
+		SyncResponseHeader responseHeaderAfterUpdate = updated.getHeader();
 
 		putImpl(responseHeaderBeforUpdate.getResourceIdStr(), putElement);
 
-		SyncResponseHeader responseHeaderAfterUpdate = syncProvider.saveUpdatedCommonData(requestHeader);
+		updateStrategy.elementSaved(responseHeaderAfterUpdate, putElement);
+		encodedElementCache.invalidate(responseHeaderAfterUpdate.getSyncDataId());
 
 		lockManager.release(requestHeader, responseHeaderAfterUpdate);
 
@@ -158,29 +255,19 @@ public abstract class SeparatedCommonDataSyncResource<I, E> implements SyncResou
 
 		SyncResponseHeader responseHeaderBeforUpdate = syncProvider.getCommonData(requestHeader);
 
-		// ロックエラー判定
-		E putElement = null;
-		if (!lockManager.canUpdate(requestHeader, responseHeaderBeforUpdate)) {
-
-			// サーバで保持しているエレメントを取得
-			E serverElement = responseHeaderBeforUpdate.getSyncMethod() == SyncMethod.DELETE ? null
-					: getImpl(responseHeaderBeforUpdate.getResourceIdStr());
-
-			// 楽観ロックエラー時の競合解決
-			putElement = updateStrategy.resolveConflict(requestHeader, null, responseHeaderBeforUpdate, serverElement);
-		}
+		// ロックエラー判定、競合解決を行い、共通データを更新
+		SyncResponse<E> updated = resolveAndSaveCommonData(requestHeader, null, responseHeaderBeforUpdate);
+		E putElement = updated.getElement();
+		SyncResponseHeader responseHeaderAfterUpdate = updated.getHeader();
 
 		// 更新するエレメントがあればputを行う
-		SyncResponseHeader responseHeaderAfterUpdate;
 		if (putElement == null) {
 			deleteImpl(responseHeaderBeforUpdate.getResourceIdStr());
 		} else {
 			putImpl(responseHeaderBeforUpdate.getResourceIdStr(), putElement);
-
-			// リクエストヘッダの同期メソッドを書き換える
-			requestHeader.setSyncMethod(SyncMethod.PUT);
+			updateStrategy.elementSaved(responseHeaderAfterUpdate, putElement);
 		}
-		responseHeaderAfterUpdate = syncProvider.saveUpdatedCommonData(requestHeader);
+		encodedElementCache.invalidate(responseHeaderAfterUpdate.getSyncDataId());
 
 		lockManager.release(requestHeader, responseHeaderAfterUpdate);
 
@@ -212,10 +299,113 @@ public abstract class SeparatedCommonDataSyncResource<I, E> implements SyncResou
 		}
 
 		SyncResponseHeader responseHeader = syncProvider.saveNewCommonData(requestHeader, newTargetResourceIdStr);
+		updateStrategy.elementSaved(responseHeader, newElement);
+		encodedElementCache.invalidate(responseHeader.getSyncDataId());
 
 		return new SyncResponse<>(responseHeader, newElement);
 	}
 
+	/**
+	 * 上り更新の前に、このリソースへの全てのリクエストが対象とする共通データとエンティティをまとめて取得します.<br>
+	 * 共通データは{@link SyncProvider#prefetchCommonData(List)}で、更新、削除するエンティティは{@link #prefetchImpl(List)}で
+	 * {@link #batchSize}件ずつ取得します. 取得したデータはトランザクション内で再利用されるため、
+	 * 以降の更新処理は検索を行わず、変更はコミット時にまとめて書き込まれます.<br>
+	 * 更新戦略が競合を解決しない場合、取得した共通データに対して
+	 * {@link LockManager#predictConflicts(List, Map)}で、更新、削除のリクエストが競合するかを予測して返します.
+	 *
+	 * @param requestHeaders このリソースへの同期リクエストヘッダのList
+	 * @return 競合の予測結果
+	 */
+	@Override
+	public UploadPrediction prepareUpload(List<SyncRequestHeader> requestHeaders) {
+
+		Map<String, SyncResponseHeader> responseHeaderMap = syncProvider.prefetchCommonData(requestHeaders);
+
+		List<SyncRequestHeader> updatingHeaders = new ArrayList<>();
+		Set<I> idSet = new LinkedHashSet<>();
+		for (SyncRequestHeader requestHeader : requestHeaders) {
+			if (requestHeader.getSyncMethod() == SyncMethod.POST) {
+				continue;
+			}
+
+			SyncResponseHeader responseHeader = responseHeaderMap.get(requestHeader.getSyncDataId());
+			if (responseHeader == null) {
+				continue;
+			}
+
+			updatingHeaders.add(requestHeader);
+			if (responseHeader.getSyncMethod() != SyncMethod.DELETE) {
+				idSet.add(resolveResourceId(responseHeader.getResourceIdStr()));
+			}
+		}
+
+		UploadPrediction prediction = updateStrategy.canResolveConflict() ? new UploadPrediction() : lockManager
+				.predictConflicts(updatingHeaders, responseHeaderMap);
+
+		List<I> idList = new ArrayList<>(idSet);
+		for (int fromIndex = 0; fromIndex < idList.size(); fromIndex += batchSize) {
+			prefetchImpl(idList.subList(fromIndex, Math.min(fromIndex + batchSize, idList.size())));
+		}
+
+		return prediction;
+	}
+
+	/**
+	 * ロックエラーを判定し、必要であれば競合を解決したうえで、リソースに対応する共通データを更新します.<br>
+	 * 共通データは、条件付き更新により、最終更新時刻が判定に使用した時刻以前のままである場合にのみ更新します.
+	 * 判定の後に他のトランザクションが更新していた場合は、最新の共通データで判定と競合解決を1回だけやり直します.<br>
+	 * DELETEの競合解決で更新するエレメントが返された場合、リクエストヘッダの同期メソッドをPUTに書き換えます.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param element 更新後のリソースエレメント(DELETEの場合null)
+	 * @param responseHeaderBeforUpdate 更新前の同期レスポンスヘッダ
+	 * @return 更新後の同期レスポンスヘッダと、更新するエレメント(削除する場合null)を含む同期レスポンス
+	 * @throws ConflictException 競合が解決できなかった場合
+	 */
+	private SyncResponse<E> resolveAndSaveCommonData(SyncRequestHeader requestHeader, E element,
+			SyncResponseHeader responseHeaderBeforUpdate) throws ConflictException {
+
+		SyncMethod requestedSyncMethod = requestHeader.getSyncMethod();
+
+		SyncResponseHeader responseHeader = responseHeaderBeforUpdate;
+		for (int attempt = 0; attempt < 2; attempt++) {
+
+			// ロックエラー判定
+			E putElement = element;
+			long expectedLastModified = requestHeader.getLastModified();
+			if (!lockManager.canUpdate(requestHeader, responseHeader)) {
+
+				// サーバで保持しているエレメントを取得
+				E serverElement = responseHeader.getSyncMethod() == SyncMethod.DELETE ? null : getImpl(responseHeader
+						.getResourceIdStr());
+
+				// ロックエラー時の競合解決、更新エレメントを決定
+				putElement = updateStrategy.resolveConflict(requestHeader, element, responseHeader, serverElement);
+				expectedLastModified = responseHeader.getLastModified();
+			}
+
+			// リクエストヘッダの同期メソッドを書き換える
+			if (requestedSyncMethod == SyncMethod.DELETE && putElement != null) {
+				requestHeader.setSyncMethod(SyncMethod.PUT);
+			}
+
+			SyncResponseHeader responseHeaderAfterUpdate = syncProvider.compareAndSaveUpdatedCommonData(
+					requestHeader, expectedLastModified);
+			if (responseHeaderAfterUpdate != null) {
+				return new SyncResponse<>(responseHeaderAfterUpdate, putElement);
+			}
+
+			// 他のトランザクションが更新していたため、最新の共通データでやり直す
+			requestHeader.setSyncMethod(requestedSyncMethod);
+			responseHeader = syncProvider.getCommonData(requestHeader);
+		}
+
+		E serverElement = responseHeader.getSyncMethod() == SyncMethod.DELETE ? null : getImpl(responseHeader
+				.getResourceIdStr());
+		throw new ConflictException("resource element has updated.", new SyncResponse<>(responseHeader,
+				serverElement));
+	}
+
 	/**
 	 * 単一データGETメソッドのリソース別独自処理を実装する抽象メソッド.<br>
 	 * サブクラスでは与えられたID文字列が示すリソースエレメントを返すようにこのメソッドを実装します.
@@ -226,14 +416,85 @@ public abstract class SeparatedCommonDataSyncResource<I, E> implements SyncResou
 	protected abstract E getImpl(String resourceIdStr);
 
 	/**
-	 * 複数データGETメソッドのリソース別独自処理を実装する抽象メソッド. <br>
-	 * サブクラスではID文字列が示す全てのリソースエレメントの中で与えられたクエリ条件を満たすものを返すようにこのメソッドを実装します.
+	 * 複数データGETメソッドの処理. <br>
+	 * リソースID文字列をリソースのIDオブジェクトに変換し、{@link #batchSize}件ずつに分割して{@link #getImpl(List, Map)}で取得します.<br>
+	 * 指定したリソースID文字列に対応するエレメントが1件でも取得できなかった場合、{@link NotFoundException}をスローします.
 	 *
 	 * @param resourceIdStrSet リソースID文字列のSet
 	 * @param queryMap クエリMap
 	 * @return リソースID文字列をKey、リソースエレメントをValueとするMap
+	 * @throws NotFoundException 指定されたIDのエレメントが存在しない場合
 	 */
-	protected abstract Map<String, E> getImpl(Set<String> resourceIdStrSet, Map<String, String[]> queryMap);
+	protected Map<String, E> getImpl(Set<String> resourceIdStrSet, Map<String, String[]> queryMap) {
+
+		// IDオブジェクトとリソースID文字列の対応を保持する
+		Map<I, String> resourceIdStrMap = new LinkedHashMap<>();
+		for (String resourceIdStr : resourceIdStrSet) {
+			resourceIdStrMap.put(resolveResourceId(resourceIdStr), resourceIdStr);
+		}
+		List<I> idList = new ArrayList<>(resourceIdStrMap.keySet());
+
+		Map<String, E> elementMap = new HashMap<>();
+		for (int fromIndex = 0; fromIndex < idList.size(); fromIndex += batchSize) {
+
+			List<I> batchIdList = idList.subList(fromIndex, Math.min(fromIndex + batchSize, idList.size()));
+			Map<I, E> batchElementMap = getImpl(batchIdList, queryMap);
+
+			for (I id : batchIdList) {
+				E element = batchElementMap.get(id);
+				if (element == null) {
+					throw new NotFoundException("entity not found :" + id);
+				}
+				elementMap.put(resourceIdStrMap.get(id), element);
+			}
+		}
+
+		return elementMap;
+	}
+
+	/**
+	 * 複数データGETメソッドのリソース別独自処理. <br>
+	 * IDオブジェクトのListが示すリソースエレメントを返します. Listの要素数は最大で{@link #batchSize}件です.<br>
+	 * デフォルトでは{@link #getImpl(String)}を1件ずつ呼び出します. サブクラスではIN句などで1回の検索で取得するようにこのメソッドをオーバーライドします.
+	 *
+	 * @param idList IDオブジェクトのList
+	 * @param queryMap クエリMap
+	 * @return IDオブジェクトをKey、リソースエレメントをValueとするMap
+	 */
+	protected Map<I, E> getImpl(List<I> idList, Map<String, String[]> queryMap) {
+
+		Map<I, E> elementMap = new HashMap<>();
+		for (I id : idList) {
+			elementMap.put(id, getImpl(generateNewResourceIdStr(id)));
+		}
+		return elementMap;
+	}
+
+	/**
+	 * 上り更新の前にエンティティをまとめて取得するリソース別独自処理. <br>
+	 * IDオブジェクトのListが示すエンティティを取得し、{@link #putImpl(String, Object)}、{@link #deleteImpl(String)}
+	 * での検索がデータベースにアクセスしないようにします. Listの要素数は最大で{@link #batchSize}件です.<br>
+	 * デフォルトでは何もしません. サブクラスではIN句などで1回の検索で取得するようにこのメソッドをオーバーライドします.
+	 *
+	 * @param idList IDオブジェクトのList
+	 */
+	protected void prefetchImpl(List<I> idList) {
+
+		// デフォルトでは取得しない
+	}
+
+	/**
+	 * 複数データGETメソッドで、クエリを共通データの検索条件として適用するためのクエリフィルタを生成します. <br>
+	 * サブクラスでは、対応するクエリのキーをエンティティに対する条件式に変換し、行を読み込む前にデータベースで絞り込むようにこのメソッドをオーバーライドします.<br>
+	 * デフォルトではnullを返し、クエリを適用しません.
+	 *
+	 * @param queryMap クエリMap(nullの場合あり)
+	 * @return クエリフィルタ(適用する条件がない場合null)
+	 */
+	protected SyncQueryFilter createQueryFilter(Map<String, String[]> queryMap) {
+
+		return null;
+	}
 
 	/**
 	 * データPUTメソッドのリソース別独自処理を実装する抽象メソッド. <br>
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.resource.separated;
+
+import javax.annotation.Resource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.htmlhifive.sync.commondata.ChangeJournalRepository;
+import com.htmlhifive.sync.commondata.CommonDataRepository;
+
+/**
+ * 保持期間を過ぎたトゥームストーン(削除された共通データ)と変更ジャーナルを削除するクラス.<br>
+ * {@link #compact()}を定期的に実行します.
+ * 保持期間は{@link SeparatedCommonDataSyncProvider}と同じ設定値を使用し、前回同期時刻が保持期間より前のクライアントには再同期を要求します.
+ *
+ * @author kishigam
+ */
+@Component
+public class TombstoneCompactor {
+
+	/**
+	 * Sync共通データのリポジトリ.
+	 */
+	@Resource
+	private CommonDataRepository repository;
+
+	/**
+	 * 変更ジャーナルのリポジトリ.
+	 */
+	@Resource
+	private ChangeJournalRepository journalRepository;
+
+	/**
+	 * トゥームストーンと変更ジャーナルの保持期間(ミリ秒).
+	 */
+	@Value("${sync.tombstone.retention:2592000000}")
+	private long tombstoneRetention = 2592000000L;
+
+	/**
+	 * 保持期間を過ぎたトゥームストーンと変更ジャーナルを削除します.
+	 */
+	@Transactional
+	public void compact() {
+
+		long horizon = System.currentTimeMillis() - tombstoneRetention;
+
+		repository.deleteTombstonesBefore(horizon);
+		journalRepository.deleteBefore(horizon);
+	}
+}
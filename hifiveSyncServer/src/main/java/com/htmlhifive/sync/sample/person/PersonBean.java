@@ -23,6 +23,7 @@ import javax.persistence.Table;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.hibernate.annotations.Index;
 
 /**
  * 人情報を保持するエンティティクラス.<br>
@@ -32,6 +33,8 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
  */
 @Entity
 @Table(name = "PERSON")
+@org.hibernate.annotations.Table(
+        appliesTo = "PERSON", indexes = { @Index(name = "IDX_PERSON_ORGANIZATION", columnNames = { "organization" }) })
 public class PersonBean {
 
     /**
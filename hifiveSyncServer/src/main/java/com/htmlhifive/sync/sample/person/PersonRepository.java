@@ -16,7 +16,12 @@
  */
 package com.htmlhifive.sync.sample.person;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * Personエンティティを永続化するためのリポジトリ. <br>
@@ -25,4 +30,13 @@ import org.springframework.data.jpa.repository.JpaRepository;
  * @author kishigam
  */
 public interface PersonRepository extends JpaRepository<PersonBean, String> {
+
+	/**
+	 * IDのCollectionに含まれるPersonエンティティを1回の検索で返します.
+	 *
+	 * @param ids IDのCollection
+	 * @return 検索したPersonエンティティのList
+	 */
+	@Query("SELECT p FROM PersonBean p WHERE p.id IN :ids")
+	List<PersonBean> findByIdIn(@Param("ids") Collection<String> ids);
 }
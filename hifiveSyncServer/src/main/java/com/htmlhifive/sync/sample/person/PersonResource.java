@@ -16,9 +16,10 @@
  */
 package com.htmlhifive.sync.sample.person;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.annotation.Resource;
 
@@ -29,6 +30,7 @@ import com.htmlhifive.sync.exception.DuplicateElementException;
 import com.htmlhifive.sync.exception.NotFoundException;
 import com.htmlhifive.sync.resource.ClientResolvingStrategy;
 import com.htmlhifive.sync.resource.OptimisticLockManager;
+import com.htmlhifive.sync.resource.SyncQueryFilter;
 import com.htmlhifive.sync.resource.SyncResourceService;
 import com.htmlhifive.sync.resource.separated.SeparatedCommonDataSyncResource;
 
@@ -62,37 +64,57 @@ public class PersonResource extends SeparatedCommonDataSyncResource<String, Pers
 	@Override
 	protected PersonResourceElement getImpl(String resourceIdStr) {
 
-		PersonBean gotBean = findBean(resourceIdStr);
-
-		PersonResourceElement element = new PersonResourceElement(gotBean.getId());
-		element.setName(gotBean.getName());
-		element.setAge(gotBean.getAge());
-		element.setOrganization(gotBean.getOrganization());
-		return element;
+		return createElement(findBean(resourceIdStr));
 	}
 
 	/**
 	 * 複数データGETメソッドのリソース別独自処理. <br>
-	 * 単一データの取得をループし、Mapに格納して返します. TODO: リポジトリアクセスは一回で済ませる改善
+	 * IDのListに含まれるエンティティをリポジトリから1回の検索で取得し、elementに設定してMapに格納して返します.<br>
+	 * クエリは{@link #createQueryFilter(Map)}によって共通データの検索時に適用済みです.
 	 *
-	 * @param resourceIdStrSet リソースID文字列のSet
+	 * @param idList エンティティのIDのList
 	 * @param queryMap クエリMap
 	 * @return リソースエレメント(IDをKeyとするMap)
-	 * @throws NotFoundException 指定されたIDのエンティティが存在しない場合
 	 */
 	@Override
-	protected Map<String, PersonResourceElement> getImpl(Set<String> resourceIdStrSet, Map<String, String[]> queryMap) {
+	protected Map<String, PersonResourceElement> getImpl(List<String> idList, Map<String, String[]> queryMap) {
 
 		Map<String, PersonResourceElement> elementMap = new HashMap<>();
-		for (String resourceIdStr : resourceIdStrSet) {
+		for (PersonBean gotBean : repository.findByIdIn(idList)) {
+			elementMap.put(gotBean.getId(), createElement(gotBean));
+		}
+		return elementMap;
+	}
 
-			PersonResourceElement element = getImpl(resourceIdStr);
+	/**
+	 * 上り更新の前にエンティティをまとめて取得するリソース別独自処理. <br>
+	 * IDのListに含まれるエンティティをリポジトリから1回の検索で取得します.
+	 *
+	 * @param idList エンティティのIDのList
+	 */
+	@Override
+	protected void prefetchImpl(List<String> idList) {
 
-			// TODO: queryの適用
+		repository.findByIdIn(idList);
+	}
 
-			elementMap.put(resourceIdStr, element);
+	/**
+	 * 複数データGETメソッドのクエリを、共通データの検索条件として適用するクエリフィルタを生成します. <br>
+	 * クエリのキー"organization"に対応し、いずれかの組織に所属する人のみを返します.
+	 *
+	 * @param queryMap クエリMap
+	 * @return クエリフィルタ(対応するキーがない場合null)
+	 */
+	@Override
+	protected SyncQueryFilter createQueryFilter(Map<String, String[]> queryMap) {
+
+		if (queryMap == null || queryMap.get("organization") == null || queryMap.get("organization").length == 0) {
+			return null;
 		}
-		return elementMap;
+
+		return new SyncQueryFilter(PersonBean.class, "id", TARGET_ID_PREFIX.length()).addPredicate(
+				"e.organization IN :qOrganizations").setParameter("qOrganizations",
+				Arrays.asList(queryMap.get("organization")));
 	}
 
 	/**
@@ -138,7 +160,8 @@ public class PersonResource extends SeparatedCommonDataSyncResource<String, Pers
 	@Override
 	protected String postImpl(PersonResourceElement newElement) throws DuplicateElementException {
 
-		if (repository.exists(newElement.getId())) {
+		// 件数を数える検索は未反映の変更をフラッシュするため、IDで検索する
+		if (repository.findOne(newElement.getId()) != null) {
 
 			String resourceIdStr = generateNewResourceIdStr(newElement.getId());
 			throw new DuplicateElementException(resourceIdStr, getImpl(resourceIdStr));
@@ -155,6 +178,21 @@ public class PersonResource extends SeparatedCommonDataSyncResource<String, Pers
 		return generateNewResourceIdStr(newEntity.getId());
 	}
 
+	/**
+	 * エンティティの内容を設定したリソースエレメントを生成します.
+	 *
+	 * @param gotBean Personエンティティ
+	 * @return リソースエレメント
+	 */
+	private PersonResourceElement createElement(PersonBean gotBean) {
+
+		PersonResourceElement element = new PersonResourceElement(gotBean.getId());
+		element.setName(gotBean.getName());
+		element.setAge(gotBean.getAge());
+		element.setOrganization(gotBean.getOrganization());
+		return element;
+	}
+
 	/**
 	 * リソースID文字列から1件のエンティティをリポジトリを検索して取得します. <br>
 	 * エンティティのIDは{@link this#resolveResourceId(String)}で与えられます.<br>
@@ -25,6 +25,7 @@ import javax.persistence.Table;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.hibernate.annotations.Index;
 
 /**
  * 予定情報における予定日情報を保持するエンティティクラス.<br>
@@ -33,6 +34,9 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
  */
 @Entity
 @Table(name = "SCHEDULE_DATE")
+@org.hibernate.annotations.Table(
+        appliesTo = "SCHEDULE_DATE", indexes = { @Index(
+                name = "IDX_SCHEDULE_DATE_DATE", columnNames = { "scheduleDate" }) })
 public class ScheduleDateBean {
 
     /**
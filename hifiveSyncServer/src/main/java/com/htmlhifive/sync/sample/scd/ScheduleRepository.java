@@ -16,7 +16,12 @@
  */
 package com.htmlhifive.sync.sample.scd;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * 予定データエンティティを永続化するためのリポジトリ. <br>
@@ -25,4 +30,24 @@ import org.springframework.data.jpa.repository.JpaRepository;
  * @author kishigam
  * */
 public interface ScheduleRepository extends JpaRepository<ScheduleBean, String> {
+
+	/**
+	 * IDのCollectionに含まれる予定エンティティを、参加者(Personエンティティ)のリストを初期化した状態で1回の検索で返します.<br>
+	 * 日付のリストと同時にフェッチすると直積となるため、日付は{@link #findWithDatesByScheduleIdIn(Collection)}で別途初期化します.
+	 *
+	 * @param scheduleIds IDのCollection
+	 * @return 検索した予定エンティティのList
+	 */
+	@Query("SELECT DISTINCT s FROM ScheduleBean s LEFT JOIN FETCH s.userBeans WHERE s.scheduleId IN :scheduleIds")
+	List<ScheduleBean> findWithUsersByScheduleIdIn(@Param("scheduleIds") Collection<String> scheduleIds);
+
+	/**
+	 * IDのCollectionに含まれる予定エンティティを、日付のリストを初期化した状態で1回の検索で返します.<br>
+	 * 同じトランザクション内で既に取得済みのエンティティについては、そのエンティティの日付のリストが初期化されます.
+	 *
+	 * @param scheduleIds IDのCollection
+	 * @return 検索した予定エンティティのList
+	 */
+	@Query("SELECT DISTINCT s FROM ScheduleBean s LEFT JOIN FETCH s.dateBeans WHERE s.scheduleId IN :scheduleIds")
+	List<ScheduleBean> findWithDatesByScheduleIdIn(@Param("scheduleIds") Collection<String> scheduleIds);
 }
@@ -17,10 +17,12 @@
 package com.htmlhifive.sync.sample.scd;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 
 import javax.annotation.Resource;
@@ -29,9 +31,10 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.htmlhifive.sync.exception.NotFoundException;
-import com.htmlhifive.sync.resource.ClientResolvingStrategy;
-import com.htmlhifive.sync.resource.OptimisticLockManager;
+import com.htmlhifive.sync.resource.PessimisticLockManager;
+import com.htmlhifive.sync.resource.SyncQueryFilter;
 import com.htmlhifive.sync.resource.SyncResourceService;
+import com.htmlhifive.sync.resource.ThreeWayMergeStrategy;
 import com.htmlhifive.sync.resource.separated.SeparatedCommonDataSyncResource;
 import com.htmlhifive.sync.sample.person.PersonBean;
 import com.htmlhifive.sync.sample.person.PersonRepository;
@@ -42,7 +45,7 @@ import com.htmlhifive.sync.sample.person.PersonRepository;
  *
  * @author kishigam
  */
-@SyncResourceService(syncDataModel = "schedule", lockManager = OptimisticLockManager.class, updateStrategy = ClientResolvingStrategy.class)
+@SyncResourceService(syncDataModel = "schedule", lockManager = PessimisticLockManager.class, updateStrategy = ThreeWayMergeStrategy.class)
 @Transactional(propagation = Propagation.MANDATORY)
 public class ScheduleResource extends SeparatedCommonDataSyncResource<String, ScheduleResourceElement> {
 
@@ -65,7 +68,8 @@ public class ScheduleResource extends SeparatedCommonDataSyncResource<String, Sc
 
 	/**
 	 * 単一データGETメソッドのリソース別独自処理. <br>
-	 * エンティティをリポジトリから取得しエレメント(コンストラクタ）wokaesu .します.
+	 * エンティティをリポジトリから取得しエレメント(コンストラクタ）wokaesu .します.<br>
+	 * 参加者と日付のリストは複数データGETと同じ検索でまとめて取得します.
 	 *
 	 * @param resourceIdStr リソースID文字列
 	 * @return リソースエレメント
@@ -74,43 +78,107 @@ public class ScheduleResource extends SeparatedCommonDataSyncResource<String, Sc
 	@Override
 	protected ScheduleResourceElement getImpl(String resourceIdStr) {
 
-		ScheduleBean bean = findBean(resourceIdStr);
-
-		ScheduleResourceElement element = new ScheduleResourceElement(bean.getScheduleId());
-		element.setUserIds(bean.getUserIds());
-		element.setTitle(bean.getTitle());
-		element.setCategory(bean.getCategory());
-		element.setDates(bean.getDates());
-		element.setStartTime(bean.getStartTime());
-		element.setFinishTime(bean.getFinishTime());
-		element.setDetail(bean.getDetail());
-		element.setPlace(bean.getPlace());
+		String scheduleId = resolveResourceId(resourceIdStr);
 
-		return element;
+		List<ScheduleBean> found = findBeansWithRelations(Collections.singletonList(scheduleId));
+		if (found.isEmpty()) {
+			throw new NotFoundException("entity not found :" + scheduleId);
+		}
+		return createElement(found.get(0));
 	}
 
 	/**
 	 * 複数データGETメソッドのリソース別独自処理. <br>
-	 * 単一データの取得をループし、Mapに格納して返します. TODO: リポジトリアクセスは一回で済ませる改善
+	 * IDのListに含まれるエンティティを関連データとともにリポジトリから取得し、エレメントに設定してMapに格納して返します.<br>
+	 * クエリは{@link #createQueryFilter(Map)}によって共通データの検索時に適用済みです.
 	 *
-	 * @param resourceIdStrSet リソースID文字列のSet
+	 * @param idList エンティティのIDのList
 	 * @param queryMap クエリMap
 	 * @return リソースエレメント(IDをKeyとするMap)
-	 * @throws NotFoundException 指定されたIDのエンティティが存在しない場合
 	 */
 	@Override
-	protected Map<String, ScheduleResourceElement> getImpl(Set<String> resourceIdStrSet, Map<String, String[]> queryMap) {
+	protected Map<String, ScheduleResourceElement> getImpl(List<String> idList, Map<String, String[]> queryMap) {
 
 		Map<String, ScheduleResourceElement> elementMap = new HashMap<>();
-		for (String resourceIdStr : resourceIdStrSet) {
+		for (ScheduleBean bean : findBeansWithRelations(idList)) {
+			elementMap.put(bean.getScheduleId(), createElement(bean));
+		}
+		return elementMap;
+	}
 
-			ScheduleResourceElement element = getImpl(resourceIdStr);
+	/**
+	 * 上り更新の前にエンティティをまとめて取得するリソース別独自処理. <br>
+	 * IDのListに含まれるエンティティを関連データとともにリポジトリから取得します.
+	 *
+	 * @param idList エンティティのIDのList
+	 */
+	@Override
+	protected void prefetchImpl(List<String> idList) {
+
+		findBeansWithRelations(idList);
+	}
+
+	/**
+	 * 複数データGETメソッドのクエリを、共通データの検索条件として適用するクエリフィルタを生成します. <br>
+	 * 以下のクエリのキーに対応します. 日付は文字列の順序で比較します.
+	 * <ul>
+	 * <li>userIds : いずれかの人が参加者に含まれる予定</li>
+	 * <li>dateFrom : 指定日付以降の日付を含む予定</li>
+	 * <li>dateTo : 指定日付以前の日付を含む予定(dateFromと同時に指定した場合、その範囲の日付を含む予定)</li>
+	 * </ul>
+	 *
+	 * @param queryMap クエリMap
+	 * @return クエリフィルタ(対応するキーがない場合null)
+	 */
+	@Override
+	protected SyncQueryFilter createQueryFilter(Map<String, String[]> queryMap) {
+
+		if (queryMap == null) {
+			return null;
+		}
 
-			// TODO: queryの適用
+		SyncQueryFilter filter = new SyncQueryFilter(ScheduleBean.class, "scheduleId", TARGET_ID_PREFIX.length());
 
-			elementMap.put(resourceIdStr, element);
+		String[] userIds = queryMap.get("userIds");
+		if (userIds != null && userIds.length > 0) {
+			filter.addPredicate(
+					"EXISTS (SELECT u FROM ScheduleBean su JOIN su.userBeans u "
+							+ "WHERE su.scheduleId = e.scheduleId AND u.id IN :qUserIds)").setParameter("qUserIds",
+					Arrays.asList(userIds));
 		}
-		return elementMap;
+
+		String dateFrom = firstValue(queryMap, "dateFrom");
+		String dateTo = firstValue(queryMap, "dateTo");
+		if (dateFrom != null || dateTo != null) {
+
+			// 範囲の両端は同じ日付に対して判定する
+			StringBuilder datePredicate = new StringBuilder(
+					"EXISTS (SELECT sd FROM ScheduleDateBean sd WHERE sd.schedule.scheduleId = e.scheduleId");
+			if (dateFrom != null) {
+				datePredicate.append(" AND sd.scheduleDate >= :qDateFrom");
+				filter.setParameter("qDateFrom", dateFrom);
+			}
+			if (dateTo != null) {
+				datePredicate.append(" AND sd.scheduleDate <= :qDateTo");
+				filter.setParameter("qDateTo", dateTo);
+			}
+			filter.addPredicate(datePredicate.append(')').toString());
+		}
+
+		return filter.isEmpty() ? null : filter;
+	}
+
+	/**
+	 * クエリMapから、キーに対応する最初の値を返します.
+	 *
+	 * @param queryMap クエリMap
+	 * @param key クエリのキー
+	 * @return 最初の値(値がない場合null)
+	 */
+	private String firstValue(Map<String, String[]> queryMap, String key) {
+
+		String[] values = queryMap.get(key);
+		return values == null || values.length == 0 ? null : values[0];
 	}
 
 	/**
@@ -168,7 +236,9 @@ public class ScheduleResource extends SeparatedCommonDataSyncResource<String, Sc
 	protected String postImpl(ScheduleResourceElement newElement) {
 
 		// 既に存在するIDの場合、IDを振りなおす
-		ScheduleBean newEntity = repository.exists(newElement.getScheduleId()) ? new ScheduleBean(generateNewId())
+		// 件数を数える検索は未反映の変更をフラッシュするため、IDで検索する
+		ScheduleBean newEntity = repository.findOne(newElement.getScheduleId()) != null ? new ScheduleBean(
+				generateNewId())
 				: new ScheduleBean(newElement.getScheduleId());
 
 		List<PersonBean> userIdBeans = new ArrayList<>();
@@ -190,6 +260,47 @@ public class ScheduleResource extends SeparatedCommonDataSyncResource<String, Sc
 		return generateNewResourceIdStr(newEntity.getScheduleId());
 	}
 
+	/**
+	 * エンティティの内容を設定したリソースエレメントを生成します.
+	 *
+	 * @param bean 予定エンティティ
+	 * @return リソースエレメント
+	 */
+	private ScheduleResourceElement createElement(ScheduleBean bean) {
+
+		ScheduleResourceElement element = new ScheduleResourceElement(bean.getScheduleId());
+		element.setUserIds(bean.getUserIds());
+		element.setTitle(bean.getTitle());
+		element.setCategory(bean.getCategory());
+		element.setDates(bean.getDates());
+		element.setStartTime(bean.getStartTime());
+		element.setFinishTime(bean.getFinishTime());
+		element.setDetail(bean.getDetail());
+		element.setPlace(bean.getPlace());
+
+		return element;
+	}
+
+	/**
+	 * IDのCollectionに含まれるエンティティを、参加者と日付のリストを初期化した状態で取得します.<br>
+	 * 件数によらず、参加者と日付それぞれをフェッチする2回の検索で取得します.
+	 *
+	 * @param scheduleIds エンティティのIDのCollection
+	 * @return 予定エンティティのList(存在しないIDのエンティティは含まない)
+	 */
+	private List<ScheduleBean> findBeansWithRelations(Collection<String> scheduleIds) {
+
+		List<ScheduleBean> found = repository.findWithUsersByScheduleIdIn(scheduleIds);
+		if (found.isEmpty()) {
+			return found;
+		}
+
+		// 取得済みのエンティティの日付のリストが初期化される
+		repository.findWithDatesByScheduleIdIn(scheduleIds);
+
+		return found;
+	}
+
 	/**
 	 * リソースID文字列から1件のエンティティをリポジトリを検索して取得します. <br>
 	 * エンティティのIDは{@link this#resolveResourceId(String)}で与えられます.<br>
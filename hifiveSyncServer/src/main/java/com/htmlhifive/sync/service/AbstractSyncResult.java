@@ -16,6 +16,7 @@
  */
 package com.htmlhifive.sync.service;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
@@ -80,13 +81,13 @@ public abstract class AbstractSyncResult {
 	}
 
 	/**
-	 * 指定された同期レスポンスオブジェクトのセットの内容を、このオブジェクトが保持しているセットに全て加えます.
+	 * 指定された同期レスポンスオブジェクトのコレクションの内容を、このオブジェクトが保持しているセットに全て加えます.
 	 *
-	 * @param responseSet 同期レスポンスオブジェクトのSet
+	 * @param responses 同期レスポンスオブジェクトのCollection
 	 */
-	public void addAllResultData(Set<? extends SyncResponse<?>> responseSet) {
+	public void addAllResultData(Collection<? extends SyncResponse<?>> responses) {
 
-		resultDataSet.addAll(responseSet);
+		resultDataSet.addAll(responses);
 	}
 
 	/**
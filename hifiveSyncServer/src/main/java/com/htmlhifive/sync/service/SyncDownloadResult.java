@@ -16,7 +16,14 @@
  */
 package com.htmlhifive.sync.service;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.htmlhifive.sync.resource.DownloadCursor;
 
 /**
  * クライアントからの下り更新リクエストに対する同期結果を保持するデータオブジェクト.
@@ -31,6 +38,17 @@ public class SyncDownloadResult extends AbstractSyncResult {
 	 */
 	private static final long RESULT_TIME_DELAY = 2L * 60L * 1_000L;
 
+	/**
+	 * データモデルごとの、次回の下り更新で続きを取得するためのカーソル文字列.<br>
+	 * データモデル名をKey、カーソル文字列をValueとします.
+	 */
+	private Map<String, String> nextCursorMap = new LinkedHashMap<>();
+
+	/**
+	 * 現時点で続きのデータが存在するデータモデル名のSet.
+	 */
+	private Set<String> incompleteDataModelNames = new HashSet<>();
+
 	/**
 	 * ストレージIDを指定して同期結果オブジェクトを生成します.
 	 *
@@ -49,4 +67,39 @@ public class SyncDownloadResult extends AbstractSyncResult {
 
 		setCurrentSyncTime(new Date().getTime() - RESULT_TIME_DELAY);
 	}
+
+	/**
+	 * データモデルについて、次回の下り更新で続きを取得するためのカーソルと、続きのデータが存在するかどうかを設定します.<br>
+	 * カーソルがnullの場合、カーソルは設定しません.
+	 *
+	 * @param dataModelName データモデル名
+	 * @param nextCursor 続きを取得するためのカーソル
+	 * @param last 現時点で続きのデータが存在しない場合true
+	 */
+	public void putNextCursor(String dataModelName, DownloadCursor nextCursor, boolean last) {
+
+		if (nextCursor != null) {
+			nextCursorMap.put(dataModelName, nextCursor.toToken());
+		}
+		if (!last) {
+			incompleteDataModelNames.add(dataModelName);
+		}
+	}
+
+	/**
+	 * 全てのデータモデルについて、現時点でのデータを返し終えたかどうかを返します.
+	 *
+	 * @return 続きのデータが存在するデータモデルがない場合true
+	 */
+	public boolean isComplete() {
+
+		return incompleteDataModelNames.isEmpty();
+	}
+
+	/**
+	 * @return nextCursorMap
+	 */
+	public Map<String, String> getNextCursorMap() {
+		return Collections.unmodifiableMap(nextCursorMap);
+	}
 }
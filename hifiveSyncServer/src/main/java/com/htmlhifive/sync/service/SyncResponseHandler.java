@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.service;
+
+import com.htmlhifive.sync.resource.SyncResponse;
+
+/**
+ * 下り更新で取得した同期レスポンスを、取得した順に1件ずつ受け取るハンドラインターフェース.<br>
+ * 同期結果オブジェクトに全件を保持せず、クライアントへ逐次書き出す場合に使用します.
+ *
+ * @author kishigam
+ */
+public interface SyncResponseHandler {
+
+	/**
+	 * 下り更新で取得した同期レスポンスを1件処理します.
+	 *
+	 * @param response 同期レスポンスオブジェクト
+	 */
+	void handle(SyncResponse<?> response);
+}
@@ -39,4 +39,10 @@ public enum SyncResultType {
 	 * 他のクライアントが既に登録したリソースエレメントを二重に登録しようとしたため、下り更新が失敗したことを表します.
 	 */
 	DUPLICATEDID,
+
+	/**
+	 * 前回同期時刻がトゥームストーンの保持期間より前であるため、差分の下り更新ができないことを表します.<br>
+	 * クライアントは初回の下り更新からやり直す必要があります.
+	 */
+	RESYNC_REQUIRED,
 }
@@ -16,7 +16,12 @@
  */
 package com.htmlhifive.sync.service;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.htmlhifive.sync.resource.SyncResponse;
 
 /**
  * クライアントからの上り更新リクエストに対する同期結果を保持するデータオブジェクト.
@@ -24,6 +29,13 @@ import java.util.Date;
  * @author kishigam
  */
 public class SyncUploadResult extends AbstractSyncResult {
+
+	/**
+	 * 部分コミットモードで、競合が発生した後もコミットされる同期結果のSet.<br>
+	 * 競合が発生していない間は、同期結果は{@link #getResultDataSet() 結果のSet}に保持します.
+	 */
+	private Set<SyncResponse<?>> committedDataSet = new LinkedHashSet<>();
+
 	/**
 	 * ストレージIDを指定して同期結果オブジェクトを生成します.
 	 *
@@ -42,4 +54,31 @@ public class SyncUploadResult extends AbstractSyncResult {
 
 		setCurrentSyncTime(new Date().getTime());
 	}
+
+	/**
+	 * 指定された同期レスポンスオブジェクトを、コミットされる同期結果のSetに加えます.
+	 *
+	 * @param response 同期レスポンスオブジェクト
+	 */
+	public void addCommittedData(SyncResponse<?> response) {
+
+		committedDataSet.add(response);
+	}
+
+	/**
+	 * このオブジェクトが保持している同期結果を、全てコミットされる同期結果のSetに移します.<br>
+	 * 部分コミットモードで最初の競合が発生した際に、それまでの同期結果を競合した結果と分けるために使用します.
+	 */
+	public void moveResultSetToCommitted() {
+
+		committedDataSet.addAll(getResultDataSet());
+		clearResultSet();
+	}
+
+	/**
+	 * @return committedDataSet
+	 */
+	public Set<SyncResponse<?>> getCommittedDataSet() {
+		return Collections.unmodifiableSet(committedDataSet);
+	}
 }
@@ -16,6 +16,7 @@
  */
 package com.htmlhifive.sync.service;
 
+import java.util.Iterator;
 import java.util.List;
 
 import com.htmlhifive.sync.jsonctrl.download.DownloadRequestMessage;
@@ -39,6 +40,30 @@ public interface Synchronizer {
 	public SyncDownloadResult syncDownload(final String storageId,
 			final List<? extends DownloadRequestMessage> requestMessages);
 
+	/**
+	 * 下り更新を実行し、取得した同期レスポンスを1件ずつハンドラに渡します.<br>
+	 * 同期レスポンスは返却する同期結果オブジェクトには保持されません.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param requestMessages 下り更新のリクエストメッセージのリスト
+	 * @param handler 同期レスポンスを受け取るハンドラ
+	 * @return 同期レスポンスを含まない下り更新結果オブジェクト
+	 */
+	public SyncDownloadResult syncDownload(final String storageId,
+			final List<? extends DownloadRequestMessage> requestMessages, final SyncResponseHandler handler);
+
+	/**
+	 * リソースのロックを取得せずに下り更新を実行し、取得した同期レスポンスを1件ずつハンドラに渡します.<br>
+	 * 特定のクライアントに返すのではない、下り更新のスナップショットの作成などに使用します.
+	 *
+	 * @param storageId 下り更新を実行するストレージID
+	 * @param requestMessages 下り更新のリクエストメッセージのリスト
+	 * @param handler 同期レスポンスを受け取るハンドラ
+	 * @return 同期レスポンスを含まない下り更新結果オブジェクト
+	 */
+	public SyncDownloadResult syncDownloadWithoutLock(final String storageId,
+			final List<? extends DownloadRequestMessage> requestMessages, final SyncResponseHandler handler);
+
 	/**
 	 * 上り更新を実行します.<br>
 	 * 対象のリソースを判断し、リソースエレメントの更新内容に応じてリクエストを発行します.
@@ -48,4 +73,26 @@ public interface Synchronizer {
 	 * @return 上り更新結果オブジェクト
 	 */
 	public SyncUploadResult syncUpload(String storageId, List<? extends UploadRequestMessage<?>> requestMessages);
+
+	/**
+	 * リクエストメッセージを1件ずつ取り出しながら上り更新を実行します.<br>
+	 * 処理済みのメッセージを保持しないため、リクエスト全体をメモリ上に保持せずに処理できます.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param requestMessages 上り更新のリクエストメッセージのイテレータ
+	 * @return 上り更新結果オブジェクト
+	 */
+	public SyncUploadResult syncUpload(String storageId, Iterator<? extends UploadRequestMessage<?>> requestMessages);
+
+	/**
+	 * リクエストメッセージを1件ずつ取り出しながら上り更新を実行します.<br>
+	 * 部分コミットモードの場合、競合が発生してもトランザクションをロールバックせず、競合しなかったメッセージの更新をコミットします.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param requestMessages 上り更新のリクエストメッセージのイテレータ
+	 * @param partialCommit 部分コミットモードの場合true
+	 * @return 上り更新結果オブジェクト
+	 */
+	public SyncUploadResult syncUpload(String storageId, Iterator<? extends UploadRequestMessage<?>> requestMessages,
+			boolean partialCommit);
 }
\ No newline at end of file
@@ -16,24 +16,48 @@
  */
 package com.htmlhifive.sync.service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.htmlhifive.sync.exception.BadRequestException;
 import com.htmlhifive.sync.exception.ConflictException;
 import com.htmlhifive.sync.exception.DuplicateElementException;
+import com.htmlhifive.sync.exception.SyncException;
 import com.htmlhifive.sync.jsonctrl.JsonDataConvertor;
 import com.htmlhifive.sync.jsonctrl.download.DownloadRequestMessage;
 import com.htmlhifive.sync.jsonctrl.upload.UploadRequestMessage;
+import com.htmlhifive.sync.resource.SyncPage;
+import com.htmlhifive.sync.resource.SyncProvider;
 import com.htmlhifive.sync.resource.SyncRequestHeader;
 import com.htmlhifive.sync.resource.SyncResource;
 import com.htmlhifive.sync.resource.SyncResourceManager;
 import com.htmlhifive.sync.resource.SyncResponse;
+import com.htmlhifive.sync.resource.UploadPrediction;
 
 /**
  * リソースに対する同期処理を実行するサービス実装. <br>
@@ -47,9 +71,93 @@ public class SynchronizerImpl implements Synchronizer {
 	@Resource
 	private SyncResourceManager resourceManager;
 
+	/**
+	 * 下り更新で再同期が必要かどうかを判定する共通データサービス.
+	 */
+	@Resource
+	private SyncProvider syncProvider;
+
+	/**
+	 * 1回の下り更新でデータモデルごとに返すデータの最大件数.<br>
+	 * 超えた分はカーソルを指定した次回の下り更新で返します. 0以下の場合は件数を制限しません.
+	 */
+	@Value("${sync.download.pageSize:1000}")
+	private int downloadPageSize = 1000;
+
+	/**
+	 * 下り更新でデータモデルごとの取得を並列に実行する際の最大並列数.<br>
+	 * 並列実行ではデータモデルごとの取得を、全てのリクエストで共有するスレッドプールから別のトランザクション(コネクション)で実行します.
+	 * 取得を待つ間、呼び出し元のスレッドはコネクションを保持しないため、並列実行の取得が同時に使用するコネクションはサーバ全体でこの数までとなります.
+	 * コネクションプールを使用する場合は、通常のリクエストが使用する分に加えてこの数のコネクションを確保できるように設定します.<br>
+	 * 1以下の場合は並列実行せず、1つのトランザクション内で順に取得します.
+	 */
+	@Value("${sync.download.parallelism:1}")
+	private int downloadParallelism = 1;
+
+	/**
+	 * 上り更新で、対象のデータをまとめて取得する単位となるメッセージの最大件数.<br>
+	 * 0以下の場合は分割せず、全てのメッセージの対象をまとめて取得します.
+	 */
+	@Value("${sync.upload.chunkSize:500}")
+	private int uploadChunkSize = 500;
+
+	/**
+	 * 下り更新のトランザクションを開始するためのトランザクションマネージャ.
+	 */
+	@Resource
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * 下り更新で、ロックの取得を含む処理を実行するテンプレート.
+	 */
+	private TransactionTemplate transactionTemplate;
+
+	/**
+	 * 下り更新で、データの取得のみを読み取り専用のトランザクションで実行するテンプレート.
+	 */
+	private TransactionTemplate readOnlyTransactionTemplate;
+
+	/**
+	 * データモデルごとの取得を並列に実行するスレッドプール.<br>
+	 * 並列実行しない場合はnull.
+	 */
+	private ExecutorService downloadExecutor;
+
+	/**
+	 * トランザクションテンプレートと、並列実行する場合はスレッドプールを初期化します.
+	 */
+	@PostConstruct
+	public void init() {
+
+		transactionTemplate = new TransactionTemplate(transactionManager);
+
+		readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+		readOnlyTransactionTemplate.setReadOnly(true);
+
+		if (downloadParallelism <= 1) {
+			return;
+		}
+
+		downloadExecutor = Executors.newFixedThreadPool(downloadParallelism, new CustomizableThreadFactory(
+				"sync-download-"));
+	}
+
+	/**
+	 * スレッドプールを終了します.
+	 */
+	@PreDestroy
+	public void destroy() {
+
+		if (downloadExecutor != null) {
+			downloadExecutor.shutdownNow();
+		}
+	}
+
 	/**
 	 * 下り更新を実行します.<br>
-	 * 前回同期時刻以降、messageで指定したリソースにおける更新データをGETします.
+	 * 前回同期時刻以降、messageで指定したリソースにおける更新データをGETします.<br>
+	 * 各リソースからは最大件数までのデータを返し、続きがある場合は次ページ取得用のカーソルを結果に設定します.<br>
+	 * 変更がない場合にトランザクションを開始せずに応答できるよう、トランザクションは呼び出し元ではなくこのメソッドで開始します.
 	 *
 	 * @param storageId クライアントのストレージID
 	 * @param requestMessages 下り更新のリクエストメッセージのリスト
@@ -60,31 +168,278 @@ public class SynchronizerImpl implements Synchronizer {
 			final List<? extends DownloadRequestMessage> requestMessages) {
 
 		// 同期結果オブジェクトを生成、同期実行時刻(＝リクエスト時刻)が設定される
+		final SyncDownloadResult downloadResult = new SyncDownloadResult(storageId);
+
+		// 結果は他のリクエストのものとマージされる
+		doSyncDownload(downloadResult, requestMessages, new SyncResponseHandler() {
+
+			@Override
+			public void handle(SyncResponse<?> response) {
+				downloadResult.addResultData(response);
+			}
+		}, true);
+
+		return downloadResult;
+	}
+
+	/**
+	 * 下り更新を実行し、取得した同期レスポンスを1件ずつハンドラに渡します.<br>
+	 * 同期レスポンスは返却する同期結果オブジェクトには保持されないため、結果の件数によらずメモリ使用量を一定に保つことができます.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param requestMessages 下り更新のリクエストメッセージのリスト
+	 * @param handler 同期レスポンスを受け取るハンドラ
+	 * @return 同期レスポンスを含まない下り更新結果オブジェクト
+	 */
+	@Override
+	public SyncDownloadResult syncDownload(final String storageId,
+			final List<? extends DownloadRequestMessage> requestMessages, final SyncResponseHandler handler) {
+
+		// 同期結果オブジェクトを生成、同期実行時刻(＝リクエスト時刻)が設定される
+		SyncDownloadResult downloadResult = new SyncDownloadResult(storageId);
+
+		doSyncDownload(downloadResult, requestMessages, handler, true);
+
+		return downloadResult;
+	}
+
+	/**
+	 * リソースのロックを取得せずに下り更新を実行し、取得した同期レスポンスを1件ずつハンドラに渡します.<br>
+	 * 更新を行わないため、全ての取得を読み取り専用のトランザクションで実行します.
+	 *
+	 * @param storageId 下り更新を実行するストレージID
+	 * @param requestMessages 下り更新のリクエストメッセージのリスト
+	 * @param handler 同期レスポンスを受け取るハンドラ
+	 * @return 同期レスポンスを含まない下り更新結果オブジェクト
+	 */
+	@Override
+	public SyncDownloadResult syncDownloadWithoutLock(final String storageId,
+			final List<? extends DownloadRequestMessage> requestMessages, final SyncResponseHandler handler) {
+
 		SyncDownloadResult downloadResult = new SyncDownloadResult(storageId);
 
-		// リクエストに含まれるMessageごとに処理
+		doSyncDownload(downloadResult, requestMessages, handler, false);
+
+		return downloadResult;
+	}
+
+	/**
+	 * 下り更新のリクエストメッセージごとにリソースから更新データを取得し、ハンドラに渡すヘルパー.<br>
+	 * 続きのデータが存在するリソースについては、次ページ取得用のカーソルを同期結果オブジェクトに設定します.<br>
+	 * 並列実行しない場合は、判定、取得、ロックの取得を1つのトランザクションで実行します.
+	 * 並列実行する場合は、呼び出し元のスレッドでトランザクションを保持せずに取得の完了を待ち、
+	 * ロックは取得したページごとに別の書き込み可能なトランザクションで取得します.
+	 * ハンドラへはリクエストメッセージの順に、呼び出し元のスレッドから渡します.<br>
+	 * いずれかのリソースで再同期が必要な場合、データを取得せずに結果を{@link SyncResultType#RESYNC_REQUIRED}とします.
+	 *
+	 * @param downloadResult 下り更新結果オブジェクト
+	 * @param requestMessages 下り更新のリクエストメッセージのリスト
+	 * @param handler 同期レスポンスを受け取るハンドラ
+	 * @param lock リソースのロックを取得する場合true
+	 */
+	private void doSyncDownload(final SyncDownloadResult downloadResult,
+			List<? extends DownloadRequestMessage> requestMessages, final SyncResponseHandler handler,
+			final boolean lock) {
+
+		// 同期リクエストヘッダ作成
+		final List<SyncRequestHeader> requestHeaders = new ArrayList<>();
 		for (DownloadRequestMessage message : requestMessages) {
 
-			// 同期リクエストヘッダ作成
-			SyncRequestHeader requestHeader = message.createHeader(storageId, downloadResult.getCurrentSyncTime());
+			SyncRequestHeader requestHeader = message.createHeader(downloadResult.getStorageId(),
+					downloadResult.getCurrentSyncTime());
+			requestHeader.setLimit(downloadPageSize);
+			requestHeaders.add(requestHeader);
+		}
+
+		if (downloadExecutor == null || requestHeaders.size() <= 1) {
+
+			TransactionTemplate template = lock ? transactionTemplate : readOnlyTransactionTemplate;
+			template.execute(new TransactionCallbackWithoutResult() {
+
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+
+					if (isResyncRequired(downloadResult, requestHeaders)) {
+						return;
+					}
+
+					// リクエストに含まれるMessageごとに処理
+					for (SyncRequestHeader requestHeader : requestHeaders) {
+						SyncPage<? extends SyncResponse<?>> responsePage = getModifiedSince(requestHeader);
+						if (lock) {
+							lockAll(requestHeader, responsePage);
+						}
+						handleResponsePage(downloadResult, requestHeader, responsePage, handler);
+					}
+					downloadResult.setResultType(SyncResultType.OK);
+				}
+			});
+			return;
+		}
+
+		boolean resyncRequired = readOnlyTransactionTemplate.execute(new TransactionCallback<Boolean>() {
 
-			// synchronizerへリクエスト発行
-			SyncResource<?> resource = resourceManager.locateSyncResource(requestHeader.getDataModelName());
+			@Override
+			public Boolean doInTransaction(TransactionStatus status) {
+				return isResyncRequired(downloadResult, requestHeaders);
+			}
+		});
+		if (resyncRequired) {
+			return;
+		}
 
-			Set<? extends SyncResponse<?>> responseSet = resource.getModifiedSince(requestHeader);
+		// データモデルごとに並列に取得し、リクエストに含まれるMessageの順に結果を処理
+		List<Future<SyncPage<? extends SyncResponse<?>>>> futures = new ArrayList<>();
+		try {
+			for (SyncRequestHeader requestHeader : requestHeaders) {
+				futures.add(downloadExecutor.submit(createReadOnlyDownloadTask(requestHeader)));
+			}
+			for (int i = 0; i < requestHeaders.size(); i++) {
+				final SyncRequestHeader requestHeader = requestHeaders.get(i);
+				final SyncPage<? extends SyncResponse<?>> responsePage = waitFor(futures.get(i));
+				if (lock) {
+					transactionTemplate.execute(new TransactionCallbackWithoutResult() {
 
-			// 結果は他のリクエストのものとマージされる
-			downloadResult.addAllResultData(responseSet);
+						@Override
+						protected void doInTransactionWithoutResult(TransactionStatus status) {
+							lockAll(requestHeader, responsePage);
+						}
+					});
+				}
+				handleResponsePage(downloadResult, requestHeader, responsePage, handler);
+			}
+		} finally {
+			// エラー発生時は未完了の取得を中断する
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
 		}
 
 		// OK
 		downloadResult.setResultType(SyncResultType.OK);
-		return downloadResult;
+	}
+
+	/**
+	 * いずれかのリソースで、削除を漏れなく返せないために再同期が必要かどうかを判定します.<br>
+	 * 再同期が必要な場合は、下り更新結果オブジェクトの結果を{@link SyncResultType#RESYNC_REQUIRED}とします.
+	 *
+	 * @param downloadResult 下り更新結果オブジェクト
+	 * @param requestHeaders 同期リクエストヘッダのList
+	 * @return 再同期が必要な場合true
+	 */
+	private boolean isResyncRequired(SyncDownloadResult downloadResult, List<SyncRequestHeader> requestHeaders) {
+
+		for (SyncRequestHeader requestHeader : requestHeaders) {
+			if (syncProvider.isResyncRequired(requestHeader)) {
+				downloadResult.setResultType(SyncResultType.RESYNC_REQUIRED);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * リクエストヘッダが指定するリソースから、更新データを1ページ分取得します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @return 同期レスポンスのページ
+	 */
+	private SyncPage<? extends SyncResponse<?>> getModifiedSince(SyncRequestHeader requestHeader) {
+
+		// synchronizerへリクエスト発行
+		SyncResource<?> resource = resourceManager.locateSyncResource(requestHeader.getDataModelName());
+
+		return resource.getModifiedSince(requestHeader);
+	}
+
+	/**
+	 * 取得した1ページ分の同期レスポンスが含むリソースエレメントのロックを、まとめて取得します.<br>
+	 * 他のクライアントがロックを保持するエレメントもそのまま返し、その更新は上り更新で競合として処理されます.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responsePage 同期レスポンスのページ
+	 */
+	private void lockAll(SyncRequestHeader requestHeader, SyncPage<? extends SyncResponse<?>> responsePage) {
+
+		SyncResource<?> resource = resourceManager.locateSyncResource(requestHeader.getDataModelName());
+		resource.lockAll(requestHeader, responsePage.getContents());
+	}
+
+	/**
+	 * 取得した1ページ分の同期レスポンスをハンドラに渡し、次ページ取得用のカーソルを同期結果オブジェクトに設定します.
+	 *
+	 * @param downloadResult 下り更新結果オブジェクト
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @param responsePage 同期レスポンスのページ
+	 * @param handler 同期レスポンスを受け取るハンドラ
+	 */
+	private void handleResponsePage(SyncDownloadResult downloadResult, SyncRequestHeader requestHeader,
+			SyncPage<? extends SyncResponse<?>> responsePage, SyncResponseHandler handler) {
+
+		for (SyncResponse<?> response : responsePage.getContents()) {
+			handler.handle(response);
+		}
+		downloadResult.putNextCursor(requestHeader.getDataModelName(), responsePage.getNextCursor(),
+				responsePage.isLast());
+	}
+
+	/**
+	 * リクエストヘッダが指定するリソースからの取得を、スレッドプールのスレッドで読み取り専用のトランザクションで実行するタスクを生成します.
+	 *
+	 * @param requestHeader 同期リクエストヘッダ
+	 * @return 同期レスポンスのページを返すタスク
+	 */
+	private Callable<SyncPage<? extends SyncResponse<?>>> createReadOnlyDownloadTask(
+			final SyncRequestHeader requestHeader) {
+
+		return new Callable<SyncPage<? extends SyncResponse<?>>>() {
+
+			@Override
+			public SyncPage<? extends SyncResponse<?>> call() {
+
+				return readOnlyTransactionTemplate
+						.execute(new TransactionCallback<SyncPage<? extends SyncResponse<?>>>() {
+
+							@Override
+							public SyncPage<? extends SyncResponse<?>> doInTransaction(TransactionStatus status) {
+								return getModifiedSince(requestHeader);
+							}
+						});
+			}
+		};
+	}
+
+	/**
+	 * 並列実行したタスクの完了を待ち、結果を返します.<br>
+	 * タスクで発生した実行時例外はそのままスローします.
+	 *
+	 * @param future タスクの結果
+	 * @return 同期レスポンスのページ
+	 * @throws SyncException タスクの完了待ちが中断された場合、または検査例外が発生した場合
+	 */
+	private SyncPage<? extends SyncResponse<?>> waitFor(Future<SyncPage<? extends SyncResponse<?>>> future) {
+
+		try {
+			return future.get();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SyncException("download has been interrupted.", e);
+
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new SyncException("download has failed.", e.getCause());
+		}
 	}
 
 	/**
 	 * 上り更新を実行します.<br>
-	 * 対象のリソースを判断し、リソースエレメントの更新内容に応じてリクエストを発行します.
+	 * 対象のリソースを判断し、リソースエレメントの更新内容に応じてリクエストを発行します.<br>
+	 * リクエストの処理前に、データモデルごとに対象の共通データとエンティティを{@link SyncResource#prepareUpload(List) まとめて取得}します.<br>
+	 * 取得したデータから確実に競合すると判定したメッセージがある場合、そのメッセージのみを処理し、他のメッセージの書き込みを行わずに競合結果を返します.
+	 * 競合が発生した後も同様に、競合が予測されたメッセージのみを処理します.
 	 *
 	 * @param storageId クライアントのストレージID
 	 * @param requestMessages 上り更新のリクエストメッセージのリスト
@@ -93,13 +448,122 @@ public class SynchronizerImpl implements Synchronizer {
 	@Override
 	public SyncUploadResult syncUpload(String storageId, List<? extends UploadRequestMessage<?>> requestMessages) {
 
+		return syncUpload(storageId, requestMessages.iterator());
+	}
+
+	/**
+	 * リクエストメッセージを1件ずつ取り出しながら上り更新を実行します.<br>
+	 * メッセージは最大件数ごとのチャンクに分けて取り出し、チャンクごとに対象のデータをまとめて取得してからメッセージの順に処理します.
+	 * 処理済みのチャンクのメッセージは保持しないため、メッセージを逐次読み込むイテレータを指定すると、リクエスト全体をメモリ上に保持せずに処理できます.<br>
+	 * キー重複が発生した場合は、以降のメッセージを取り出しません.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param requestMessages 上り更新のリクエストメッセージのイテレータ
+	 * @return 上り更新結果オブジェクト
+	 */
+	@Override
+	public SyncUploadResult syncUpload(String storageId, Iterator<? extends UploadRequestMessage<?>> requestMessages) {
+
+		return syncUpload(storageId, requestMessages, false);
+	}
+
+	/**
+	 * リクエストメッセージを1件ずつ取り出しながら上り更新を実行します.<br>
+	 * 部分コミットモードの場合、競合が発生してもトランザクションをロールバック対象にせず、キー重複が発生しても以降のメッセージを処理します.
+	 * 競合したメッセージは判定時点でまだ何も書き込んでいないため、競合しなかったメッセージの更新のみがコミットされます.
+	 * 競合が発生した場合、競合しなかったメッセージの同期結果は{@link SyncUploadResult#getCommittedDataSet()}に保持します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param requestMessages 上り更新のリクエストメッセージのイテレータ
+	 * @param partialCommit 部分コミットモードの場合true
+	 * @return 上り更新結果オブジェクト
+	 */
+	@Override
+	public SyncUploadResult syncUpload(String storageId, Iterator<? extends UploadRequestMessage<?>> requestMessages,
+			boolean partialCommit) {
+
 		SyncUploadResult result = new SyncUploadResult(storageId);
 		result.setResultType(SyncResultType.OK);
 
+		List<UploadRequestMessage<?>> chunk = new ArrayList<>();
+		while (requestMessages.hasNext()) {
+
+			chunk.add(requestMessages.next());
+
+			if (uploadChunkSize > 0 && chunk.size() >= uploadChunkSize) {
+				if (!syncUploadChunk(result, chunk, partialCommit)) {
+					return result;
+				}
+				chunk.clear();
+			}
+		}
+
+		syncUploadChunk(result, chunk, partialCommit);
+
+		return result;
+	}
+
+	/**
+	 * チャンクに含まれるリクエストメッセージの上り更新を実行し、結果を上り更新結果オブジェクトに追加します.
+	 *
+	 * @param result 上り更新結果オブジェクト
+	 * @param requestMessages チャンクに含まれる上り更新のリクエストメッセージのリスト
+	 * @param partialCommit 部分コミットモードの場合true
+	 * @return 以降のメッセージの処理を継続する場合true、キー重複により中断する場合false
+	 */
+	private boolean syncUploadChunk(SyncUploadResult result, List<UploadRequestMessage<?>> requestMessages,
+			boolean partialCommit) {
+
+		// ヘッダの生成
+		List<SyncRequestHeader> requestHeaders = new ArrayList<>();
+		Map<String, List<SyncRequestHeader>> requestHeaderMap = new LinkedHashMap<>();
 		for (UploadRequestMessage<?> requestMessage : requestMessages) {
 
-			// ヘッダの生成
-			SyncRequestHeader requestHeader = requestMessage.createtHeader(storageId, result.getCurrentSyncTime());
+			SyncRequestHeader requestHeader = requestMessage.createtHeader(result.getStorageId(),
+					result.getCurrentSyncTime());
+			requestHeaders.add(requestHeader);
+
+			List<SyncRequestHeader> modelRequestHeaders = requestHeaderMap.get(requestHeader.getDataModelName());
+			if (modelRequestHeaders == null) {
+				modelRequestHeaders = new ArrayList<>();
+				requestHeaderMap.put(requestHeader.getDataModelName(), modelRequestHeaders);
+			}
+			modelRequestHeaders.add(requestHeader);
+		}
+
+		// データモデルごとに、対象のデータをまとめて取得し、競合するメッセージを予測する
+		UploadPrediction prediction = new UploadPrediction();
+		for (Map.Entry<String, List<SyncRequestHeader>> entry : requestHeaderMap.entrySet()) {
+			prediction.addAll(resourceManager.locateSyncResource(entry.getKey()).prepareUpload(entry.getValue()));
+		}
+		Set<SyncRequestHeader> certainHeaders = Collections
+				.newSetFromMap(new IdentityHashMap<SyncRequestHeader, Boolean>());
+		certainHeaders.addAll(prediction.getCertainConflicts());
+		Set<SyncRequestHeader> conflictedHeaders = Collections
+				.newSetFromMap(new IdentityHashMap<SyncRequestHeader, Boolean>());
+		conflictedHeaders.addAll(prediction.getCertainConflicts());
+		conflictedHeaders.addAll(prediction.getPossibleConflicts());
+
+		// 全てロールバックする場合、確実な競合があれば、そのメッセージのみを処理して他のメッセージは書き込まない
+		boolean certainOnly = !partialCommit && prediction.hasCertainConflict();
+
+		// 競合の判定結果を変えないよう、メッセージの順に処理する
+		// 書き込みはコミット時にJDBCバッチでまとめて実行される
+		for (int i = 0; i < requestMessages.size(); i++) {
+
+			UploadRequestMessage<?> requestMessage = requestMessages.get(i);
+			SyncRequestHeader requestHeader = requestHeaders.get(i);
+
+			if (certainOnly && !certainHeaders.contains(requestHeader)) {
+				continue;
+			}
+
+			// 全てロールバックする場合、実際に競合が発生した後は競合が予測されたメッセージのみを処理し、ロールバックされる書き込みを行わない
+			// ロックによる予測は判定後のロックの解除により外れることがあるため、競合が発生するまではスキップしない
+			if (!partialCommit && result.getResultType() != SyncResultType.OK
+					&& !conflictedHeaders.contains(requestHeader)) {
+				continue;
+			}
 
 			try {
 				SyncResource<?> resource = resourceManager.locateSyncResource(requestHeader.getDataModelName());
@@ -107,33 +571,53 @@ public class SynchronizerImpl implements Synchronizer {
 
 				// 一度CONFLICTEDになったらOKになることはなく、OKの結果データは不要
 				// 他のCONFLICTED更新を検知するためメッセージの処理は継続
+				// 部分コミットモードでは、競合後のOKデータもコミットされるため保持する
 				if (result.getResultType() == SyncResultType.OK) {
 					result.addResultData(response);
+				} else if (partialCommit) {
+					result.addCommittedData(response);
 				}
 
 			} catch (ConflictException e) {
 
-				// 全てのリクエスト処理結果をロールバックする
-				// (ここで例外を止めてしまうため、Transactionalアノテーションの"rollbackFor"が効かない？)
-				TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+				if (!partialCommit) {
+
+					// 全てのリクエスト処理結果をロールバックする
+					// (ここで例外を止めてしまうため、Transactionalアノテーションの"rollbackFor"が効かない？)
+					TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+				}
 
 				// 最初のCONFLICTED(UPDATED)のときにOKデータを除去する
+				// 部分コミットモードでは、コミットされるデータとして分けて保持する
 				if (result.getResultType() == SyncResultType.OK) {
-					result.clearResultSet();
+					if (partialCommit) {
+						result.moveResultSetToCommitted();
+					} else {
+						result.clearResultSet();
+					}
 				}
 
 				result.addResultData(e.getConflictedResponse());
 
 				// CREATEのキー重複が発生した場合は以降のメッセージ処理は行わず、中断
+				// 部分コミットモードでは、他のメッセージの処理を継続する
 				if (e.getCause() instanceof DuplicateElementException) {
 					result.setResultType(SyncResultType.DUPLICATEDID);
-					break;
+					if (!partialCommit) {
+						return false;
+					}
+				} else if (result.getResultType() != SyncResultType.DUPLICATEDID) {
+					result.setResultType(SyncResultType.UPDATED);
 				}
-				result.setResultType(SyncResultType.UPDATED);
 			}
 		}
 
-		return result;
+		// 確実な競合が発生しなかった場合、スキップしたメッセージを含めてコミットしてしまうため処理を中断する
+		if (certainOnly && result.getResultType() == SyncResultType.OK) {
+			throw new SyncException("predicted conflict has not occurred.");
+		}
+
+		return true;
 	}
 
 	/**
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.service;
+
+import java.util.UUID;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * 非同期に実行する上り更新のジョブを表すクラス.<br>
+ * ジョブIDはクライアントが結果を取得する際に指定します. 実行が終了すると、上り更新結果または発生した例外を保持します.
+ *
+ * @author kishigam
+ */
+public class UploadJob {
+
+	/**
+	 * ジョブID.
+	 */
+	private final String jobId;
+
+	/**
+	 * ジョブを登録したクライアントのストレージID.
+	 */
+	private final String storageId;
+
+	/**
+	 * ジョブの実行が終了した時刻.<br>
+	 * 終了していない場合は0.
+	 */
+	private volatile long completedAt;
+
+	/**
+	 * 上り更新結果オブジェクト.
+	 */
+	private volatile SyncUploadResult result;
+
+	/**
+	 * 上り更新中に発生した例外.
+	 */
+	private volatile RuntimeException failure;
+
+	/**
+	 * ストレージIDを指定して、新しいジョブIDのジョブを生成します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 */
+	public UploadJob(String storageId) {
+
+		this.jobId = UUID.randomUUID().toString();
+		this.storageId = storageId;
+	}
+
+	/**
+	 * ジョブの実行が終了しているかどうかを返します.
+	 *
+	 * @return 終了している場合true
+	 */
+	public boolean isDone() {
+
+		return completedAt != 0L;
+	}
+
+	/**
+	 * 終了後、指定した時刻に保持期間を過ぎているかどうかを返します.
+	 *
+	 * @param now 現在時刻
+	 * @param ttl 終了したジョブの保持期間(ミリ秒)
+	 * @return 保持期間を過ぎている場合true
+	 */
+	public boolean isExpired(long now, long ttl) {
+
+		return isDone() && completedAt + ttl < now;
+	}
+
+	/**
+	 * 上り更新結果を設定し、ジョブを終了します.
+	 *
+	 * @param result 上り更新結果オブジェクト
+	 */
+	void complete(SyncUploadResult result) {
+
+		this.result = result;
+		this.completedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * 発生した例外を設定し、ジョブを終了します.
+	 *
+	 * @param failure 上り更新中に発生した例外
+	 */
+	void fail(RuntimeException failure) {
+
+		this.failure = failure;
+		this.completedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return jobId
+	 */
+	public String getJobId() {
+		return jobId;
+	}
+
+	/**
+	 * @return storageId
+	 */
+	public String getStorageId() {
+		return storageId;
+	}
+
+	/**
+	 * @return result
+	 */
+	public SyncUploadResult getResult() {
+		return result;
+	}
+
+	/**
+	 * @return failure
+	 */
+	public RuntimeException getFailure() {
+		return failure;
+	}
+}
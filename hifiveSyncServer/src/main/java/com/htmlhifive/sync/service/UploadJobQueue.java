@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.interceptor.MatchAlwaysTransactionAttributeSource;
+import org.springframework.transaction.interceptor.RollbackRuleAttribute;
+import org.springframework.transaction.interceptor.RuleBasedTransactionAttribute;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import com.htmlhifive.sync.exception.SyncException;
+
+/**
+ * 上り更新を非同期に実行するジョブキュー.<br>
+ * 登録された上り更新は上限のあるキューに入れ、ワーカースレッドがそれぞれ新しいトランザクションで実行します.
+ * リクエストを受け付けたスレッドは、実行の終了を待たずにジョブIDを返すことができます.<br>
+ * 終了したジョブは保持期間の間、結果を取得できます. 保持期間を過ぎたジョブは{@link #purgeExpired()}で破棄します.<br>
+ * ジョブはこのサーバのメモリ上にのみ保持するため、結果の取得は登録したサーバに対して行う必要があります.
+ *
+ * @author kishigam
+ */
+@Component
+public class UploadJobQueue {
+
+	/**
+	 * ジョブを実行するワーカースレッドの数.<br>
+	 * ワーカーごとにトランザクション(コネクション)を使用するため、コネクションプールの上限を超えないように設定します.
+	 */
+	@Value("${sync.upload.async.workers:2}")
+	private int workers = 2;
+
+	/**
+	 * 実行を待つジョブの最大件数.<br>
+	 * 超えた場合、ジョブを登録せずにクライアントへ再送を求めます.
+	 */
+	@Value("${sync.upload.async.queueCapacity:100}")
+	private int queueCapacity = 100;
+
+	/**
+	 * 終了したジョブの結果を保持する期間(ミリ秒).
+	 */
+	@Value("${sync.upload.async.resultTtl:600000}")
+	private long resultTtl = 600000L;
+
+	/**
+	 * ジョブのトランザクションを開始するためのトランザクションマネージャ.
+	 */
+	@Resource
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * ジョブをトランザクション内で実行するインターセプタ.<br>
+	 * 競合時に{@link SynchronizerImpl}がトランザクションをロールバック対象に設定できるよう、
+	 * {@link org.springframework.transaction.annotation.Transactional}と同じ仕組みでトランザクションを開始します.
+	 */
+	private TransactionInterceptor transactionInterceptor;
+
+	/**
+	 * ジョブを実行するスレッドプール.
+	 */
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * ジョブIDとジョブのMap.
+	 */
+	private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+
+	/**
+	 * スレッドプールとトランザクションインターセプタを初期化します.<br>
+	 * 例外が発生した場合は、検査例外であってもロールバックします.
+	 */
+	@PostConstruct
+	public void init() {
+
+		RuleBasedTransactionAttribute transactionAttribute = new RuleBasedTransactionAttribute();
+		transactionAttribute.getRollbackRules().add(new RollbackRuleAttribute(Exception.class));
+
+		MatchAlwaysTransactionAttributeSource transactionAttributeSource = new MatchAlwaysTransactionAttributeSource();
+		transactionAttributeSource.setTransactionAttribute(transactionAttribute);
+
+		transactionInterceptor = new TransactionInterceptor(transactionManager, transactionAttributeSource);
+
+		executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new CustomizableThreadFactory("sync-upload-"));
+	}
+
+	/**
+	 * スレッドプールを終了します.
+	 */
+	@PreDestroy
+	public void destroy() {
+
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * 上り更新をジョブとして登録します.<br>
+	 * 上り更新はワーカースレッドで新しいトランザクションを開始して実行します.
+	 * 実行時例外が発生した場合はトランザクションをロールバックし、例外をジョブに保持します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param upload 上り更新を実行し、結果を返す処理
+	 * @return 登録したジョブ(キューが一杯で登録できない場合null)
+	 */
+	public UploadJob submit(String storageId, final Callable<SyncUploadResult> upload) {
+
+		final UploadJob job = new UploadJob(storageId);
+		jobs.put(job.getJobId(), job);
+
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					execute(job, upload);
+				}
+			});
+			return job;
+
+		} catch (RejectedExecutionException e) {
+			jobs.remove(job.getJobId());
+			return null;
+		}
+	}
+
+	/**
+	 * ストレージIDとジョブIDを指定してジョブを返します.<br>
+	 * 他のクライアントが登録したジョブは返しません.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param jobId ジョブID
+	 * @return ジョブ(存在しない場合null)
+	 */
+	public UploadJob find(String storageId, String jobId) {
+
+		UploadJob job = jobs.get(jobId);
+		if (job == null || !job.getStorageId().equals(storageId)) {
+			return null;
+		}
+		return job;
+	}
+
+	/**
+	 * 保持期間を過ぎたジョブを破棄します.
+	 */
+	public void purgeExpired() {
+
+		long now = System.currentTimeMillis();
+
+		for (Iterator<UploadJob> itr = jobs.values().iterator(); itr.hasNext();) {
+			if (itr.next().isExpired(now, resultTtl)) {
+				itr.remove();
+			}
+		}
+	}
+
+	/**
+	 * ジョブを新規トランザクションで実行し、結果をジョブに設定します.
+	 *
+	 * @param job ジョブ
+	 * @param upload 上り更新を実行し、結果を返す処理
+	 */
+	@SuppressWarnings("unchecked")
+	private void execute(UploadJob job, Callable<SyncUploadResult> upload) {
+
+		ProxyFactory proxyFactory = new ProxyFactory(upload);
+		proxyFactory.addAdvice(transactionInterceptor);
+		Callable<SyncUploadResult> transactionalUpload = (Callable<SyncUploadResult>) proxyFactory.getProxy();
+
+		try {
+			job.complete(transactionalUpload.call());
+
+		} catch (RuntimeException e) {
+			job.fail(e);
+
+		} catch (Exception e) {
+			job.fail(new SyncException("failed to execute upload job.", e));
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.status;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Resource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 冪等キーを指定した上り更新の処理結果を保持するストア.<br>
+ * 処理結果は上り更新と同じトランザクションでデータベースに保存し、コミット後にメモリ上のキャッシュにも保持します.
+ * 再送された上り更新はキャッシュ、またはデータベースを主キーで1回検索するだけで処理結果を返すことができます.<br>
+ * キャッシュは最大件数を超えると最も古く参照されたものから破棄し、有効期間を過ぎた処理結果は参照時に無視して{@link #purgeExpired()}で削除します.<br>
+ * 同じ冪等キーの上り更新が同時に処理されないよう、処理中の冪等キーをサーバ内で管理します.
+ *
+ * @author kishigam
+ */
+@Service
+public class IdempotencyStore {
+
+	/**
+	 * 処理結果を永続化するリポジトリ.
+	 */
+	@Resource
+	private UploadOutcomeRepository repository;
+
+	/**
+	 * メモリ上に保持する処理結果の最大件数.
+	 */
+	@Value("${sync.idempotency.maxEntries:10000}")
+	private int maxEntries = 10000;
+
+	/**
+	 * 処理結果の有効期間(ミリ秒).<br>
+	 * クライアントが再送する可能性のある期間より長い値を設定します.
+	 */
+	@Value("${sync.idempotency.ttl:86400000}")
+	private long ttl = 86400000L;
+
+	/**
+	 * エンティティのIDと処理結果のMap.<br>
+	 * 参照順に並べ、最大件数を超えた場合に最も古く参照された処理結果を破棄します.
+	 */
+	private final Map<String, UploadOutcome> outcomes = new LinkedHashMap<String, UploadOutcome>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, UploadOutcome> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	/**
+	 * 処理中の冪等キーから生成したエンティティのIDのSet.
+	 */
+	private final Set<String> inFlightIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * ストレージIDと冪等キーに対する処理結果を返します.<br>
+	 * キャッシュにない場合はデータベースを検索し、取得した処理結果をキャッシュします.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param idempotencyKey 冪等キー
+	 * @return 処理結果(存在しないか有効期間を過ぎている場合null)
+	 */
+	@Transactional(propagation = Propagation.MANDATORY)
+	public UploadOutcome find(String storageId, String idempotencyKey) {
+
+		String outcomeId = UploadOutcome.createOutcomeId(storageId, idempotencyKey);
+		long now = System.currentTimeMillis();
+
+		UploadOutcome outcome;
+		synchronized (outcomes) {
+			outcome = outcomes.get(outcomeId);
+		}
+
+		if (outcome == null) {
+			outcome = repository.findOne(outcomeId);
+			if (outcome == null) {
+				return null;
+			}
+			cache(outcome);
+		}
+
+		return outcome.isExpired(now, ttl) ? null : outcome;
+	}
+
+	/**
+	 * 冪等キーの処理を開始します.<br>
+	 * 同じ冪等キーを他の要求が処理中の場合はfalseを返します. 処理中の状態はトランザクションの完了時に解除します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param idempotencyKey 冪等キー
+	 * @return 処理を開始できた場合true
+	 */
+	public boolean begin(String storageId, String idempotencyKey) {
+
+		final String outcomeId = UploadOutcome.createOutcomeId(storageId, idempotencyKey);
+		if (!inFlightIds.add(outcomeId)) {
+			return false;
+		}
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			inFlightIds.remove(outcomeId);
+			return true;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+			@Override
+			public void afterCompletion(int status) {
+				inFlightIds.remove(outcomeId);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * 処理結果を保存します.<br>
+	 * キャッシュにはトランザクションのコミット後に追加し、ロールバックされた処理結果は保持しません.
+	 *
+	 * @param outcome 処理結果
+	 */
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void save(final UploadOutcome outcome) {
+
+		repository.save(outcome);
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			cache(outcome);
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+			@Override
+			public void afterCommit() {
+				cache(outcome);
+			}
+		});
+	}
+
+	/**
+	 * 有効期間を過ぎた処理結果を、キャッシュとデータベースから削除します.
+	 */
+	@Transactional
+	public void purgeExpired() {
+
+		long now = System.currentTimeMillis();
+
+		synchronized (outcomes) {
+			for (Iterator<UploadOutcome> itr = outcomes.values().iterator(); itr.hasNext();) {
+				if (itr.next().isExpired(now, ttl)) {
+					itr.remove();
+				}
+			}
+		}
+
+		repository.deleteCreatedBefore(now - ttl);
+	}
+
+	/**
+	 * 処理結果をキャッシュします.
+	 *
+	 * @param outcome 処理結果
+	 */
+	private void cache(UploadOutcome outcome) {
+
+		synchronized (outcomes) {
+			outcomes.put(outcome.getOutcomeId(), outcome);
+		}
+	}
+}
@@ -44,6 +44,12 @@ public class LastUploadStatus {
 	 */
 	private long lastUploadTime;
 
+	/**
+	 * {@link LastUploadStatusService}のキャッシュから生成したインスタンスかどうか.<br>
+	 * 永続マネージャーの管理外のため、保存時には更新クエリを使用します.
+	 */
+	private transient boolean cached;
+
 	/**
 	 * プライベートのデフォルトコンストラクタ. <br>
 	 * 永続マネージャーが使用するため、実装する必要があります.
@@ -61,6 +67,21 @@ public class LastUploadStatus {
 		this.storageId = storageId;
 	}
 
+	/**
+	 * キャッシュしている前回上り更新時刻から、エンティティインスタンスを生成します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param lastUploadTime 前回上り更新時刻
+	 * @return 前回上り更新ステータス
+	 */
+	static LastUploadStatus fromCache(String storageId, long lastUploadTime) {
+
+		LastUploadStatus status = new LastUploadStatus(storageId);
+		status.lastUploadTime = lastUploadTime;
+		status.cached = true;
+		return status;
+	}
+
 	/**
 	 * @see Object#equals(Object)
 	 */
@@ -98,6 +119,16 @@ public class LastUploadStatus {
 		return currentSyncTime <= this.lastUploadTime;
 	}
 
+	/**
+	 * キャッシュから生成したインスタンスかどうかを返します.
+	 *
+	 * @return キャッシュから生成したインスタンスの場合true
+	 */
+	boolean isCached() {
+
+		return cached;
+	}
+
 	/**
 	 * @return storageId
 	 */
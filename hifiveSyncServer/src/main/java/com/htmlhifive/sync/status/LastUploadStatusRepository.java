@@ -17,6 +17,9 @@
 package com.htmlhifive.sync.status;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * LastUploadStatusエンティティを永続化するためのリポジトリ. <br>
@@ -26,4 +29,14 @@ import org.springframework.data.jpa.repository.JpaRepository;
  */
 public interface LastUploadStatusRepository extends JpaRepository<LastUploadStatus, String> {
 
+	/**
+	 * 前回上り更新時刻を、エンティティを検索せずに更新します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param lastUploadTime 前回上り更新時刻
+	 * @return 更新した件数
+	 */
+	@Modifying
+	@Query("UPDATE LastUploadStatus s SET s.lastUploadTime = :lastUploadTime WHERE s.storageId = :storageId")
+	int updateLastUploadTime(@Param("storageId") String storageId, @Param("lastUploadTime") long lastUploadTime);
 }
@@ -16,15 +16,27 @@
  */
 package com.htmlhifive.sync.status;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.annotation.Resource;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * 前回上り更新ステータスによる同期ステータス管理サービス実装.<br>
- * 前回上り更新ステータスを永続データリポジトリを使用して保持します.
+ * 前回上り更新ステータスを永続データリポジトリを使用して保持します.<br>
+ * 保存済みの前回上り更新時刻をメモリ上にキャッシュし、キャッシュにあるクライアントについてはリポジトリを検索しません.
+ * 保存はリポジトリに書き込んだうえで、トランザクションのコミット後にキャッシュへ反映し、ロールバックされた場合はキャッシュから破棄します.<br>
+ * キャッシュはこのサーバ内でのみ有効なため、他のサーバが同じデータベースを更新する構成では最大件数に0を設定します.
  *
  * @author kishigam
  */
@@ -39,7 +51,38 @@ public class LastUploadStatusService implements SyncStatusService<LastUploadStat
 	private LastUploadStatusRepository repository;
 
 	/**
-	 * ストレージIDで指定されたクライアントについて、保存している前回上り更新ステータスを取得します.
+	 * キャッシュする前回上り更新時刻の最大件数.
+	 */
+	@Value("${sync.statusCache.maxEntries:10000}")
+	private int maxEntries = 10000;
+
+	/**
+	 * ストレージIDと、保存済みの前回上り更新時刻のMap.<br>
+	 * 参照順に並べ、最大件数を超えた場合に最も古く参照されたものを破棄します.
+	 */
+	private final Map<String, Long> lastUploadTimes = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, Long> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	/**
+	 * キャッシュから前回上り更新ステータスを返した回数.
+	 */
+	private final AtomicLong hitCount = new AtomicLong();
+
+	/**
+	 * キャッシュになく、リポジトリを検索した回数.
+	 */
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * ストレージIDで指定されたクライアントについて、保存している前回上り更新ステータスを取得します.<br>
+	 * キャッシュにない場合のみリポジトリを検索し、保存済みのステータスであればキャッシュします.
 	 *
 	 * @param storageId クライアントのストレージID
 	 * @return 前回上り更新ステータス
@@ -47,9 +90,21 @@ public class LastUploadStatusService implements SyncStatusService<LastUploadStat
 	@Override
 	public LastUploadStatus currentStatus(String storageId) {
 
+		Long lastUploadTime;
+		synchronized (lastUploadTimes) {
+			lastUploadTime = lastUploadTimes.get(storageId);
+		}
+		if (lastUploadTime != null) {
+			hitCount.incrementAndGet();
+			return LastUploadStatus.fromCache(storageId, lastUploadTime);
+		}
+		missCount.incrementAndGet();
+
 		LastUploadStatus status = repository.findOne(storageId);
 		if (status == null) {
 			status = new LastUploadStatus(storageId);
+		} else {
+			cache(storageId, status.getLastUploadTime());
 		}
 
 		return status;
@@ -57,7 +112,8 @@ public class LastUploadStatusService implements SyncStatusService<LastUploadStat
 
 	/**
 	 * ストレージIDで指定されたクライアントについての前回上り更新ステータスを保存します.<br>
-	 * まだ保存しているステータスがない場合は、新規に保存します.
+	 * まだ保存しているステータスがない場合は、新規に保存します.<br>
+	 * キャッシュから取得したステータスは、エンティティを検索せずに更新クエリで保存します.
 	 *
 	 * @param storageId クライアントのストレージID
 	 * @param status 前回上り更新ステータス
@@ -65,6 +121,75 @@ public class LastUploadStatusService implements SyncStatusService<LastUploadStat
 	@Override
 	public void updateStatus(LastUploadStatus status) {
 
-		repository.save(status);
+		if (!status.isCached() || repository.updateLastUploadTime(status.getStorageId(),
+				status.getLastUploadTime()) == 0) {
+			repository.save(status);
+		}
+
+		final String storageId = status.getStorageId();
+		final long lastUploadTime = status.getLastUploadTime();
+
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			cache(storageId, lastUploadTime);
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+			@Override
+			public void afterCompletion(int completionStatus) {
+
+				if (completionStatus == TransactionSynchronization.STATUS_COMMITTED) {
+					cache(storageId, lastUploadTime);
+				} else {
+					evict(storageId);
+				}
+			}
+		});
+	}
+
+	/**
+	 * キャッシュから前回上り更新ステータスを返した回数を返します.
+	 *
+	 * @return キャッシュのヒット数
+	 */
+	public long getHitCount() {
+
+		return hitCount.get();
+	}
+
+	/**
+	 * キャッシュになく、リポジトリを検索した回数を返します.
+	 *
+	 * @return キャッシュのミス数
+	 */
+	public long getMissCount() {
+
+		return missCount.get();
+	}
+
+	/**
+	 * 前回上り更新時刻をキャッシュします.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param lastUploadTime 前回上り更新時刻
+	 */
+	private void cache(String storageId, long lastUploadTime) {
+
+		synchronized (lastUploadTimes) {
+			lastUploadTimes.put(storageId, lastUploadTime);
+		}
+	}
+
+	/**
+	 * 前回上り更新時刻をキャッシュから破棄します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 */
+	private void evict(String storageId) {
+
+		synchronized (lastUploadTimes) {
+			lastUploadTimes.remove(storageId);
+		}
 	}
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.status;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.hibernate.annotations.Index;
+
+/**
+ * クライアントが指定した冪等キーに対する上り更新の処理結果を保持するエンティティ.<br>
+ * 同じ冪等キーで再送された上り更新には、保持しているレスポンスをそのまま返します.<br>
+ * 有効期間を過ぎたものを削除するため、作成時刻のインデックスを定義しています.
+ *
+ * @author kishigam
+ */
+@Entity
+@Table(name = "UPLOAD_OUTCOME")
+@org.hibernate.annotations.Table(appliesTo = "UPLOAD_OUTCOME", indexes = { @Index(name = "IDX_UPLOAD_OUTCOME_CREATED", columnNames = { "createdAt" }) })
+public class UploadOutcome {
+
+	/**
+	 * ストレージIDと冪等キーの区切り文字.
+	 */
+	private static final char ID_SEPARATOR = ' ';
+
+	/**
+	 * このエンティティのID.<br>
+	 * ストレージIDと冪等キーから生成します.
+	 */
+	@Id
+	private String outcomeId;
+
+	/**
+	 * クライアントのストレージID.
+	 */
+	private String storageId;
+
+	/**
+	 * クライアントが指定した冪等キー.
+	 */
+	private String idempotencyKey;
+
+	/**
+	 * レスポンスのステータスコード.
+	 */
+	private int statusCode;
+
+	/**
+	 * JSON形式のレスポンスボディ.
+	 */
+	@Lob
+	private String responseBody;
+
+	/**
+	 * 作成時刻(ミリ秒).
+	 */
+	private long createdAt;
+
+	/**
+	 * プライベートのデフォルトコンストラクタ. <br>
+	 * 永続マネージャーが使用するため、実装する必要があります.
+	 */
+	@SuppressWarnings("unused")
+	private UploadOutcome() {
+	}
+
+	/**
+	 * 処理結果の内容を指定して、新規エンティティインスタンスを生成します.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param idempotencyKey 冪等キー
+	 * @param statusCode レスポンスのステータスコード
+	 * @param responseBody JSON形式のレスポンスボディ
+	 * @param createdAt 作成時刻
+	 */
+	public UploadOutcome(String storageId, String idempotencyKey, int statusCode, String responseBody, long createdAt) {
+
+		this.outcomeId = createOutcomeId(storageId, idempotencyKey);
+		this.storageId = storageId;
+		this.idempotencyKey = idempotencyKey;
+		this.statusCode = statusCode;
+		this.responseBody = responseBody;
+		this.createdAt = createdAt;
+	}
+
+	/**
+	 * ストレージIDと冪等キーから、エンティティのIDを生成します.<br>
+	 * 冪等キーはクライアントごとに一意であればよいため、ストレージIDと組み合わせます.
+	 *
+	 * @param storageId クライアントのストレージID
+	 * @param idempotencyKey 冪等キー
+	 * @return エンティティのID
+	 */
+	public static String createOutcomeId(String storageId, String idempotencyKey) {
+
+		return storageId + ID_SEPARATOR + idempotencyKey;
+	}
+
+	/**
+	 * 指定した時刻において、有効期間を過ぎているかどうかを返します.
+	 *
+	 * @param now 現在時刻
+	 * @param ttl 有効期間(ミリ秒)
+	 * @return 有効期間を過ぎている場合true
+	 */
+	public boolean isExpired(long now, long ttl) {
+
+		return createdAt < now - ttl;
+	}
+
+	/**
+	 * @see Object#equals(Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+
+		return EqualsBuilder.reflectionEquals(this, obj);
+	}
+
+	/**
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+
+		return HashCodeBuilder.reflectionHashCode(this);
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+
+	/**
+	 * @return outcomeId
+	 */
+	public String getOutcomeId() {
+		return outcomeId;
+	}
+
+	/**
+	 * @return storageId
+	 */
+	public String getStorageId() {
+		return storageId;
+	}
+
+	/**
+	 * @return idempotencyKey
+	 */
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+
+	/**
+	 * @return statusCode
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return responseBody
+	 */
+	public String getResponseBody() {
+		return responseBody;
+	}
+
+	/**
+	 * @return createdAt
+	 */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012 NS Solutions Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.htmlhifive.sync.status;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * UploadOutcomeエンティティを永続化するためのリポジトリ. <br>
+ *
+ * @author kishigam
+ */
+public interface UploadOutcomeRepository extends JpaRepository<UploadOutcome, String> {
+
+	/**
+	 * 指定時刻より前に作成された処理結果を削除します.
+	 *
+	 * @param before 削除する処理結果の作成時刻の上限(この値を含まない)
+	 * @return 削除した件数
+	 */
+	@Modifying
+	@Query("DELETE FROM UploadOutcome o WHERE o.createdAt < :before")
+	int deleteCreatedBefore(@Param("before") long before);
+}
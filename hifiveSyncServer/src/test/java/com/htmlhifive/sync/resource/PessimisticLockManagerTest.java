@@ -0,0 +1,363 @@
+/**
+ *
+ */
+package com.htmlhifive.sync.resource;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mockit.Expectations;
+
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+/**
+ * <H3>PessimisticLockManagerのテストクラス.</H3>
+ *
+ * @author kishigam
+ */
+public class PessimisticLockManagerTest {
+
+	/**
+	 * {@link PessimisticLockManager#lockAll(SyncRequestHeader, Collection)}用テストメソッド.<br>
+	 * 全てのロックを新たに取得できた場合、1回の条件付き更新のみで取得する.
+	 */
+	@Test
+	public void testLockAllAcquiresAllLocks() {
+
+		// Arrange：正常系
+		final PessimisticLockManager target = new PessimisticLockManager();
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 0L);
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			{
+				setField(target, "syncProvider", syncProvider);
+
+				// 件数の確認や延長、取り消しは行わない
+				syncProvider.getLocks("storage1", Arrays.asList("a", "b"), anyLong);
+				result = 2;
+			}
+		};
+
+		// Act
+		boolean actual = target.lockAll(requestHeader, createResponseHeaders("a", "b", "a"));
+
+		// Assert：全てのロックを取得できること
+		assertThat(actual, is(true));
+	}
+
+	/**
+	 * {@link PessimisticLockManager#lockAll(SyncRequestHeader, Collection)}用テストメソッド.<br>
+	 * 一部のロックを以前から保持していた場合、残りを新たに取得し、以前から保持していたロックの有効期限を延長する.
+	 */
+	@Test
+	public void testLockAllRenewsPreHeldLocks() {
+
+		// Arrange：正常系(bを以前から保持)
+		final PessimisticLockManager target = new PessimisticLockManager();
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 0L);
+		final long lockExpiry = System.currentTimeMillis() + 600000L;
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			{
+				setField(target, "syncProvider", syncProvider);
+				setField(target, "lastLockExpiry", new AtomicLong(lockExpiry - 1));
+
+				syncProvider.getLocks("storage1", Arrays.asList("a", "b"), lockExpiry);
+				result = 1;
+
+				syncProvider.countLocks("storage1", Arrays.asList("a", "b"));
+				result = 2;
+
+				// 新たに取得したロックと同じ有効期限まで延長する
+				syncProvider.renewLocks("storage1", Arrays.asList("a", "b"), lockExpiry);
+			}
+		};
+
+		// Act
+		boolean actual = target.lockAll(requestHeader, createResponseHeaders("a", "b"));
+
+		// Assert：全てのロックを取得できること
+		assertThat(actual, is(true));
+	}
+
+	/**
+	 * {@link PessimisticLockManager#lockAll(SyncRequestHeader, Collection)}用テストメソッド.<br>
+	 * 他のクライアントが保持するロックがある場合、このメソッドで新たに設定したロックのみを有効期限を指定して取り消し、
+	 * 以前から保持していたロックは解除も延長もしない.
+	 */
+	@Test
+	public void testLockAllCancelsOnlyNewlyAcquiredLocks() {
+
+		// Arrange：異常系(bを以前から保持、cを他のクライアントが保持)
+		final PessimisticLockManager target = new PessimisticLockManager();
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 0L);
+		final long lockExpiry = System.currentTimeMillis() + 600000L;
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			{
+				setField(target, "syncProvider", syncProvider);
+				setField(target, "lastLockExpiry", new AtomicLong(lockExpiry - 1));
+
+				syncProvider.getLocks("storage1", Arrays.asList("a", "b", "c"), lockExpiry);
+				result = 1;
+
+				syncProvider.countLocks("storage1", Arrays.asList("a", "b", "c"));
+				result = 2;
+
+				// 取り消しはこのメソッドで設定した有効期限のロックに限定する
+				syncProvider.cancelLocks("storage1", Arrays.asList("a", "b", "c"), lockExpiry);
+			}
+		};
+
+		// Act
+		boolean actual = target.lockAll(requestHeader, createResponseHeaders("a", "b", "c"));
+
+		// Assert：ロックを取得できないこと
+		assertThat(actual, is(false));
+	}
+
+	/**
+	 * {@link PessimisticLockManager#lockAll(SyncRequestHeader, Collection)}用テストメソッド.<br>
+	 * 同じミリ秒内に取得しても、以前に設定したロックと有効期限が重複しない.
+	 */
+	@Test
+	public void testLockAllUsesDistinctLockExpiry() {
+
+		// Arrange：正常系
+		final PessimisticLockManager target = new PessimisticLockManager();
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 0L);
+		final long lastLockExpiry = System.currentTimeMillis() + 600000L;
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			{
+				setField(target, "syncProvider", syncProvider);
+				setField(target, "lastLockExpiry", new AtomicLong(lastLockExpiry));
+
+				// 有効期間(300秒)後の時刻が以前の有効期限より前でも、以前の有効期限より後にずらす
+				syncProvider.getLocks("storage1", Arrays.asList("a"), lastLockExpiry + 1);
+				result = 1;
+
+				syncProvider.getLocks("storage1", Arrays.asList("a"), lastLockExpiry + 2);
+				result = 1;
+			}
+		};
+
+		// Act
+		target.lockAll(requestHeader, createResponseHeaders("a"));
+		target.lockAll(requestHeader, createResponseHeaders("a"));
+	}
+
+	/**
+	 * {@link PessimisticLockManager#canUpdate(SyncRequestHeader, SyncResponseHeader)}用テストメソッド.<br>
+	 * 他のクライアントのロックが有効期限を過ぎている場合は取得して更新でき、
+	 * 同じトランザクションでの2回目以降の判定ではデータベースを使用しない.
+	 */
+	@Test
+	public void testCanUpdateAcquiresExpiredLockOnce() {
+
+		// Arrange：正常系
+		final PessimisticLockManager target = new PessimisticLockManager();
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.PUT, "storage1", 20L);
+		requestHeader.setLastModified(10L);
+		final SyncResponseHeader responseHeader = createResponseHeaders("a").get(0);
+		responseHeader.setLastModified(10L);
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			{
+				setField(target, "syncProvider", syncProvider);
+
+				// 有効期限を過ぎたロックは条件付き更新で取得できる
+				syncProvider.getLocks("storage1", Arrays.asList("a"), anyLong);
+				result = 1;
+				times = 1;
+			}
+		};
+
+		// Act
+		boolean first;
+		boolean second;
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			first = target.canUpdate(requestHeader, responseHeader);
+			second = target.canUpdate(requestHeader, responseHeader);
+
+			TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+					TransactionSynchronization.STATUS_COMMITTED);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		// Assert：更新でき、トランザクションの完了後に判定結果が破棄されていること
+		assertThat(first, is(true));
+		assertThat(second, is(true));
+		assertThat(TransactionSynchronizationManager.hasResource(target), is(false));
+	}
+
+	/**
+	 * {@link PessimisticLockManager#canUpdate(SyncRequestHeader, SyncResponseHeader)}用テストメソッド.<br>
+	 * 他のクライアントが有効期限内のロックを保持している場合は更新できない.
+	 */
+	@Test
+	public void testCannotUpdateBecauseOfLockHeldByAnotherClient() {
+
+		// Arrange：異常系
+		final PessimisticLockManager target = new PessimisticLockManager();
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.PUT, "storage1", 20L);
+		requestHeader.setLastModified(10L);
+		final SyncResponseHeader responseHeader = createResponseHeaders("a").get(0);
+		responseHeader.setLastModified(10L);
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			{
+				setField(target, "syncProvider", syncProvider);
+
+				syncProvider.getLocks("storage1", Arrays.asList("a"), anyLong);
+				result = 0;
+
+				syncProvider.countLocks("storage1", Arrays.asList("a"));
+				result = 0;
+
+				syncProvider.cancelLocks("storage1", Arrays.asList("a"), anyLong);
+			}
+		};
+
+		// Act
+		boolean actual = target.canUpdate(requestHeader, responseHeader);
+
+		// Assert：更新できないこと
+		assertThat(actual, is(false));
+	}
+
+	/**
+	 * {@link PessimisticLockManager#canUpdate(SyncRequestHeader, SyncResponseHeader)}用テストメソッド.<br>
+	 * クライアントが取得した後にサーバ側で更新されていた場合は、ロックを判定せずに更新できない.
+	 */
+	@Test
+	public void testCannotUpdateBecauseOfServerSideModification() {
+
+		// Arrange：異常系
+		final PessimisticLockManager target = new PessimisticLockManager();
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.PUT, "storage1", 20L);
+		requestHeader.setLastModified(10L);
+		final SyncResponseHeader responseHeader = createResponseHeaders("a").get(0);
+		responseHeader.setLastModified(15L);
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			{
+				setField(target, "syncProvider", syncProvider);
+			}
+		};
+
+		// Act
+		boolean actual = target.canUpdate(requestHeader, responseHeader);
+
+		// Assert：更新できないこと
+		assertThat(actual, is(false));
+	}
+
+	/**
+	 * {@link PessimisticLockManager#predictConflicts(List, Map)}用テストメソッド.<br>
+	 * サーバ側で更新されていたリクエストを確実な競合、他のクライアントがロックを保持するリクエストを予測される競合とし、
+	 * ロックを取得せずに1回の検索で判定する.
+	 */
+	@Test
+	public void testPredictConflictsDoesNotAcquireLocks() {
+
+		// Arrange：正常系(aはサーバ側で更新済み、bは他のクライアントがロックを保持、cは更新可能)
+		final PessimisticLockManager target = new PessimisticLockManager();
+
+		final List<SyncRequestHeader> requestHeaders = new ArrayList<>();
+		final Map<String, SyncResponseHeader> responseHeaderMap = new HashMap<>();
+		for (SyncResponseHeader responseHeader : createResponseHeaders("a", "b", "c")) {
+			SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.PUT, "storage1", 20L);
+			requestHeader.setSyncDataId(responseHeader.getSyncDataId());
+			requestHeader.setLastModified(10L);
+			requestHeaders.add(requestHeader);
+
+			responseHeader.setLastModified(10L);
+			responseHeaderMap.put(responseHeader.getSyncDataId(), responseHeader);
+		}
+		responseHeaderMap.get("a").setLastModified(15L);
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			{
+				setField(target, "syncProvider", syncProvider);
+
+				// サーバ側で更新されていないリクエストのみを検索し、ロックは取得しない
+				syncProvider.findLockedByOthers("storage1", new LinkedHashSet<>(Arrays.asList("b", "c")));
+				result = Collections.singleton("b");
+			}
+		};
+
+		// Act
+		UploadPrediction actual = target.predictConflicts(requestHeaders, responseHeaderMap);
+
+		// Assert：aが確実な競合、bが予測される競合となること
+		assertThat(actual.getCertainConflicts().size(), is(1));
+		assertThat(actual.getCertainConflicts().get(0), is(sameInstance(requestHeaders.get(0))));
+		assertThat(actual.getPossibleConflicts().size(), is(1));
+		assertThat(actual.getPossibleConflicts().get(0), is(sameInstance(requestHeaders.get(1))));
+	}
+
+	/**
+	 * {@link PessimisticLockManager#releaseAll(SyncRequestHeader, Collection)}用テストメソッド.<br>
+	 * ロックの解除はリクエストしたクライアントのロックキーに限定して行う.
+	 */
+	@Test
+	public void testReleaseAllIsLimitedToOwnLocks() {
+
+		// Arrange：正常系(他のクライアントが保持するロックの解除)
+		final PessimisticLockManager target = new PessimisticLockManager();
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.PUT, "storage2", 20L);
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			{
+				setField(target, "syncProvider", syncProvider);
+
+				syncProvider.releaseLocks("storage2", Arrays.asList("a", "b"));
+			}
+		};
+
+		// Act
+		target.releaseAll(requestHeader, createResponseHeaders("a", "b"));
+	}
+
+	/**
+	 * 同期データIDを指定した同期レスポンスヘッダのListを生成するヘルパー.
+	 *
+	 * @param syncDataIds 同期データID
+	 * @return 同期レスポンスヘッダのList
+	 */
+	private List<SyncResponseHeader> createResponseHeaders(String... syncDataIds) {
+
+		SyncResponseHeader[] responseHeaders = new SyncResponseHeader[syncDataIds.length];
+		for (int i = 0; i < syncDataIds.length; i++) {
+			responseHeaders[i] = new SyncResponseHeader("res" + i);
+			responseHeaders[i].setSyncDataId(syncDataIds[i]);
+		}
+		return Arrays.asList(responseHeaders);
+	}
+}
@@ -0,0 +1,559 @@
+/**
+ *
+ */
+package com.htmlhifive.sync.resource.separated;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import mockit.Delegate;
+import mockit.Deencapsulation;
+import mockit.Expectations;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.junit.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import com.htmlhifive.sync.commondata.ChangeJournal;
+import com.htmlhifive.sync.commondata.ChangeJournalCounter;
+import com.htmlhifive.sync.commondata.ChangeJournalCounterRepository;
+import com.htmlhifive.sync.commondata.ChangeJournalRepository;
+import com.htmlhifive.sync.commondata.CommonData;
+import com.htmlhifive.sync.commondata.CommonDataRepository;
+import com.htmlhifive.sync.resource.DownloadCache;
+import com.htmlhifive.sync.resource.DownloadCursor;
+import com.htmlhifive.sync.resource.SyncMethod;
+import com.htmlhifive.sync.resource.SyncPage;
+import com.htmlhifive.sync.resource.SyncRequestHeader;
+import com.htmlhifive.sync.resource.SyncResponseHeader;
+import com.htmlhifive.sync.resource.WatermarkRegistry;
+
+/**
+ * <H3>SeparatedCommonDataSyncProviderのテストクラス.</H3>
+ *
+ * @author kishigam
+ */
+public class SeparatedCommonDataSyncProviderTest {
+
+	/**
+	 * {@link SeparatedCommonDataSyncProvider#getCommonDataModifiedSince(SyncRequestHeader)}用テストメソッド.<br>
+	 * 通番のカーソルが指定された場合、変更ジャーナルの続きから、同じ共通データを重複させずに返す.
+	 */
+	@Test
+	public void testGetCommonDataModifiedSinceFromJournal() {
+
+		// Arrange：正常系
+		final SeparatedCommonDataSyncProvider target = new SeparatedCommonDataSyncProvider();
+
+		final SyncRequestHeader requestHeader = createRequestHeader(10L);
+		final CommonData commonA = new CommonData("a", requestHeader, "resA");
+		final CommonData commonB = new CommonData("b", requestHeader, "resB");
+
+		new Expectations() {
+			CommonDataRepository repository;
+			ChangeJournalRepository journalRepository;
+			{
+				setField(target, "repository", repository);
+				setField(target, "journalRepository", journalRepository);
+
+				journalRepository.findAfter("model", 10L, withInstanceOf(Pageable.class));
+				result = createJournals(commonA, 11L, commonB, 12L, commonA, 13L);
+
+				repository.findBySyncDataIdIn(Arrays.asList("a", "b"));
+				result = Arrays.asList(commonB, commonA);
+			}
+		};
+
+		// Act
+		SyncPage<SyncResponseHeader> actual = target.getCommonDataModifiedSince(requestHeader);
+
+		// Assert：最初に現れた順に1件ずつ返され、最後の通番がカーソルとなること
+		assertThat(actual.getContents().size(), is(2));
+		assertThat(actual.getContents().get(0).getSyncDataId(), is("a"));
+		assertThat(actual.getContents().get(1).getSyncDataId(), is("b"));
+		assertThat(actual.getNextCursor(), is(equalTo(DownloadCursor.ofSequence(13L))));
+		assertThat(actual.isLast(), is(true));
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncProvider#saveNewCommonData(SyncRequestHeader, String)}用テストメソッド.<br>
+	 * 変更ジャーナルは変更時には追記せず、コミット直前に共通データの変更を反映した後で、採番カウンタから記録した順に通番を採番して追記する.
+	 * 追記したジャーナルはコミット後に通知する.
+	 */
+	@Test
+	public void testJournalsAreNumberedAtCommit() {
+
+		// Arrange：正常系(カウンタの通番10の後に2件を採番)
+		final SeparatedCommonDataSyncProvider target = new SeparatedCommonDataSyncProvider();
+
+		final SyncRequestHeader requestHeaderA = new SyncRequestHeader(SyncMethod.POST, "storage1", 20L);
+		requestHeaderA.setDataModelName("model");
+		requestHeaderA.setStorageLocalId("a");
+
+		final SyncRequestHeader requestHeaderB = new SyncRequestHeader(SyncMethod.POST, "storage1", 20L);
+		requestHeaderB.setDataModelName("model");
+		requestHeaderB.setStorageLocalId("b");
+
+		new Expectations() {
+			CommonDataRepository repository;
+			ChangeJournalRepository journalRepository;
+			ChangeJournalCounterRepository counterRepository;
+			DownloadCache downloadCache;
+			WatermarkRegistry watermarkRegistry;
+			{
+				setField(target, "repository", repository);
+				setField(target, "journalRepository", journalRepository);
+				setField(target, "counterRepository", counterRepository);
+				setField(target, "downloadCache", downloadCache);
+				setField(target, "watermarkRegistry", watermarkRegistry);
+
+				repository.findOne("storage1a");
+				result = null;
+				repository.save(withInstanceOf(CommonData.class));
+				repository.findOne("storage1b");
+				result = null;
+				repository.save(withInstanceOf(CommonData.class));
+
+				// コミット直前に共通データの登録を反映してから採番する
+				repository.flush();
+
+				counterRepository.advance(ChangeJournalCounter.COUNTER_ID, 2);
+				result = 1;
+				counterRepository.findLastSequenceNo(ChangeJournalCounter.COUNTER_ID);
+				result = 12L;
+
+				journalRepository.save(withInstanceOf(List.class));
+
+				// コミット後に採番した通番を通知する
+				downloadCache.invalidate("model");
+				watermarkRegistry.advance("model", 11L);
+				downloadCache.invalidate("model");
+				watermarkRegistry.advance("model", 12L);
+			}
+		};
+
+		// Act
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			target.saveNewCommonData(requestHeaderA, "resA");
+			target.saveNewCommonData(requestHeaderB, "resB");
+
+			TransactionSynchronizationUtils.triggerBeforeCommit(false);
+			TransactionSynchronizationUtils.triggerAfterCommit();
+			TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+					TransactionSynchronization.STATUS_COMMITTED);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		// Assert：トランザクションの完了後にユニットオブワークが破棄されていること
+		assertThat(TransactionSynchronizationManager.getResource(target), is(nullValue()));
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncProvider#compareAndSaveUpdatedCommonData(SyncRequestHeader, long)}用テストメソッド.<br>
+	 * PUTの処理と同じく共通データの取得、条件付き更新、更新後の取得を行っても、
+	 * 共通データの読み込みは1回、書き込みは条件付き更新文の1回のみとなる.
+	 */
+	@Test
+	public void testPutReadsAndWritesCommonDataOnce() throws Exception {
+
+		// Arrange：正常系
+		final SeparatedCommonDataSyncProvider target = new SeparatedCommonDataSyncProvider();
+
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.PUT, "storage1", 10L);
+		requestHeader.setDataModelName("model");
+		requestHeader.setSyncDataId("a");
+		final CommonData commonA = new CommonData("a", requestHeader, "resA");
+		requestHeader.setRequestTime(20L);
+
+		new Expectations() {
+			CommonDataRepository repository;
+			ChangeJournalRepository journalRepository;
+			ChangeJournalCounterRepository counterRepository;
+			EntityManager entityManager;
+			Session session;
+			Connection connection;
+			PreparedStatement statement;
+			{
+				setField(target, "repository", repository);
+				setField(target, "journalRepository", journalRepository);
+				setField(target, "counterRepository", counterRepository);
+				setField(target, "entityManager", entityManager);
+
+				// 読み込みは1回のみ
+				repository.findOne("a");
+				result = commonA;
+				times = 1;
+
+				// 書き込みは条件付き更新文の1回のみ
+				entityManager.unwrap(Session.class);
+				result = session;
+				session.doWork(withInstanceOf(Work.class));
+				result = new Delegate() {
+					@SuppressWarnings("unused")
+					void doWork(Work work) throws SQLException {
+						work.execute(connection);
+					}
+				};
+				connection.prepareStatement(anyString);
+				result = statement;
+				statement.setInt(anyInt, anyInt);
+				statement.setLong(anyInt, anyLong);
+				statement.setString(anyInt, anyString);
+				statement.setLong(anyInt, anyLong);
+				statement.executeUpdate();
+				result = 1;
+				times = 1;
+				statement.close();
+				session.setReadOnly(commonA, true);
+				session.setReadOnly(commonA, false);
+
+				// コミット前は変更ジャーナルのみを追記する
+				repository.flush();
+				counterRepository.advance(ChangeJournalCounter.COUNTER_ID, 1);
+				result = 1;
+				counterRepository.findLastSequenceNo(ChangeJournalCounter.COUNTER_ID);
+				result = 1L;
+				journalRepository.save(withInstanceOf(List.class));
+			}
+		};
+
+		// Act
+		SyncResponseHeader actual;
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			target.getCommonData(requestHeader);
+			target.compareAndSaveUpdatedCommonData(requestHeader, 10L);
+			actual = target.getCommonData(requestHeader);
+
+			TransactionSynchronizationUtils.triggerBeforeCommit(false);
+			TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+					TransactionSynchronization.STATUS_COMMITTED);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		// Assert：更新後の取得で変更が反映されていること
+		assertThat(actual.getLastModified(), is(20L));
+		assertThat(TransactionSynchronizationManager.getResource(target), is(nullValue()));
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncProvider#compareAndSaveUpdatedCommonData(SyncRequestHeader, long)}用テストメソッド.<br>
+	 * 行ロックを取得する検索を行わず、1回の条件付き更新文で比較と更新を行う.
+	 * 読み込み済みの共通データは更新後の値に合わせ、コミット時に再度保存しない.
+	 */
+	@Test
+	public void testCompareAndSaveIssuesSingleConditionalUpdate() throws Exception {
+
+		// Arrange：正常系(最終更新時刻10の共通データを、判定時刻10で更新)
+		final SeparatedCommonDataSyncProvider target = new SeparatedCommonDataSyncProvider();
+
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.PUT, "storage1", 10L);
+		requestHeader.setDataModelName("model");
+		requestHeader.setSyncDataId("a");
+		final CommonData commonA = new CommonData("a", requestHeader, "resA");
+		requestHeader.setRequestTime(20L);
+
+		new Expectations() {
+			CommonDataRepository repository;
+			ChangeJournalRepository journalRepository;
+			ChangeJournalCounterRepository counterRepository;
+			EntityManager entityManager;
+			Session session;
+			Connection connection;
+			PreparedStatement statement;
+			{
+				setField(target, "repository", repository);
+				setField(target, "journalRepository", journalRepository);
+				setField(target, "counterRepository", counterRepository);
+				setField(target, "entityManager", entityManager);
+
+				repository.findOne("a");
+				result = commonA;
+
+				entityManager.unwrap(Session.class);
+				result = session;
+
+				// セッションのフラッシュを伴わないJDBCの更新文を1回だけ発行する
+				session.doWork(withInstanceOf(Work.class));
+				result = new Delegate() {
+					@SuppressWarnings("unused")
+					void doWork(Work work) throws SQLException {
+						work.execute(connection);
+					}
+				};
+				connection.prepareStatement(withPrefix("UPDATE COMMON_DATA"));
+				result = statement;
+				statement.setInt(1, SyncMethod.PUT.ordinal());
+				statement.setLong(2, 20L);
+				statement.setString(3, "a");
+				statement.setLong(4, 10L);
+				statement.executeUpdate();
+				result = 1;
+				statement.close();
+
+				// 更新後の値を読み込み時の状態として記録し直す
+				session.setReadOnly(commonA, true);
+				session.setReadOnly(commonA, false);
+
+				// コミット前は変更ジャーナルの追記のみで、共通データは保存しない
+				repository.flush();
+				counterRepository.advance(ChangeJournalCounter.COUNTER_ID, 1);
+				result = 1;
+				counterRepository.findLastSequenceNo(ChangeJournalCounter.COUNTER_ID);
+				result = 1L;
+				journalRepository.save(withInstanceOf(List.class));
+			}
+		};
+
+		// Act
+		SyncResponseHeader actual;
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			actual = target.compareAndSaveUpdatedCommonData(requestHeader, 10L);
+
+			TransactionSynchronizationUtils.triggerBeforeCommit(false);
+			TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+					TransactionSynchronization.STATUS_COMMITTED);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		// Assert：変更が共通データに反映されていること
+		assertThat(actual.getLastModified(), is(20L));
+		assertThat(commonA.getLastModified(), is(20L));
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncProvider#compareAndSaveUpdatedCommonData(SyncRequestHeader, long)}用テストメソッド.<br>
+	 * 条件付き更新文で更新できなかった場合、行ロックを取得せずに共通データを読み込み直し、nullを返す.
+	 */
+	@Test
+	public void testCompareAndSaveReturnsNullWhenModifiedByOthers() throws Exception {
+
+		// Arrange：異常系(他のトランザクションが更新済み)
+		final SeparatedCommonDataSyncProvider target = new SeparatedCommonDataSyncProvider();
+
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.PUT, "storage1", 10L);
+		requestHeader.setDataModelName("model");
+		requestHeader.setSyncDataId("a");
+		final CommonData commonA = new CommonData("a", requestHeader, "resA");
+		requestHeader.setRequestTime(20L);
+
+		new Expectations() {
+			CommonDataRepository repository;
+			ChangeJournalRepository journalRepository;
+			EntityManager entityManager;
+			Session session;
+			Connection connection;
+			PreparedStatement statement;
+			{
+				setField(target, "repository", repository);
+				setField(target, "journalRepository", journalRepository);
+				setField(target, "entityManager", entityManager);
+
+				repository.findOne("a");
+				result = commonA;
+
+				entityManager.unwrap(Session.class);
+				result = session;
+
+				session.doWork(withInstanceOf(Work.class));
+				result = new Delegate() {
+					@SuppressWarnings("unused")
+					void doWork(Work work) throws SQLException {
+						work.execute(connection);
+					}
+				};
+				connection.prepareStatement(withPrefix("UPDATE COMMON_DATA"));
+				result = statement;
+				statement.setInt(1, SyncMethod.PUT.ordinal());
+				statement.setLong(2, 20L);
+				statement.setString(3, "a");
+				statement.setLong(4, 10L);
+				statement.executeUpdate();
+				result = 0;
+				statement.close();
+
+				// 行ロックを取得せずに最新の共通データを読み込み直す
+				session.refresh(commonA);
+			}
+		};
+
+		// Act
+		SyncResponseHeader actual;
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			actual = target.compareAndSaveUpdatedCommonData(requestHeader, 10L);
+
+			TransactionSynchronizationUtils.triggerBeforeCommit(false);
+			TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+					TransactionSynchronization.STATUS_COMMITTED);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		// Assert：更新されず、変更ジャーナルも追記されないこと
+		assertThat(actual, is(nullValue()));
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncProvider#getLocks(String, java.util.Collection, long)}用テストメソッド.<br>
+	 * IN句の上限を超える場合は分割して条件付き更新を行い、取得した件数の合計を返す.
+	 */
+	@Test
+	public void testGetLocksSplitsInClause() {
+
+		// Arrange：正常系(501件のうち1件は他のクライアントが保持)
+		final SeparatedCommonDataSyncProvider target = new SeparatedCommonDataSyncProvider();
+
+		final List<String> syncDataIds = new ArrayList<>();
+		for (int i = 0; i < 501; i++) {
+			syncDataIds.add("id" + i);
+		}
+
+		new Expectations() {
+			CommonDataRepository repository;
+			{
+				setField(target, "repository", repository);
+
+				repository.updateLocks("storage1", syncDataIds.subList(0, 500), 500L, anyLong);
+				result = 500;
+
+				repository.updateLocks("storage1", syncDataIds.subList(500, 501), 500L, anyLong);
+				result = 0;
+			}
+		};
+
+		// Act
+		int actual = target.getLocks("storage1", syncDataIds, 500L);
+
+		// Assert：取得できた件数が返されること
+		assertThat(actual, is(500));
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncProvider#countLocks(String, java.util.Collection)}用テストメソッド.<br>
+	 * ロックキーが合致する有効期限内のロックの件数を返す.
+	 */
+	@Test
+	public void testCountLocks() {
+
+		// Arrange：正常系
+		final SeparatedCommonDataSyncProvider target = new SeparatedCommonDataSyncProvider();
+
+		new Expectations() {
+			CommonDataRepository repository;
+			{
+				setField(target, "repository", repository);
+
+				repository.countLocks("storage1", Arrays.asList("a", "b"), anyLong);
+				result = 1L;
+			}
+		};
+
+		// Act
+		int actual = target.countLocks("storage1", Arrays.asList("a", "b"));
+
+		// Assert
+		assertThat(actual, is(1));
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncProvider#cancelLocks(String, java.util.Collection, long)}用テストメソッド.<br>
+	 * ロックキーと有効期限の両方が合致するロックのみを解除し、以前から保持していたロックは解除しない.
+	 */
+	@Test
+	public void testCancelLocksClearsOnlyLocksExpiringAt() {
+
+		// Arrange：正常系
+		final SeparatedCommonDataSyncProvider target = new SeparatedCommonDataSyncProvider();
+
+		new Expectations() {
+			CommonDataRepository repository;
+			{
+				setField(target, "repository", repository);
+
+				// 有効期限を指定しない解除は行わない
+				repository.clearLocksExpiringAt("storage1", Arrays.asList("a", "b"), 500L);
+				result = 1;
+			}
+		};
+
+		// Act
+		target.cancelLocks("storage1", Arrays.asList("a", "b"), 500L);
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncProvider#releaseLocks(String, java.util.Collection)}用テストメソッド.<br>
+	 * 他のクライアントが保持するロックは解除されず、例外もスローされない.
+	 */
+	@Test
+	public void testReleaseLocksHeldByAnotherClientIsNoOp() {
+
+		// Arrange：正常系(storage1が保持するロックをstorage2が解除)
+		final SeparatedCommonDataSyncProvider target = new SeparatedCommonDataSyncProvider();
+
+		new Expectations() {
+			CommonDataRepository repository;
+			{
+				setField(target, "repository", repository);
+
+				repository.clearLocks("storage2", Arrays.asList("a"));
+				result = 0;
+			}
+		};
+
+		// Act
+		target.releaseLocks("storage2", Arrays.asList("a"));
+	}
+
+	/**
+	 * 通番のカーソルを指定したリクエストヘッダを生成するヘルパー.
+	 *
+	 * @param sequenceNo 通番
+	 * @return リクエストヘッダ
+	 */
+	private SyncRequestHeader createRequestHeader(long sequenceNo) {
+
+		SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 0L);
+		requestHeader.setDataModelName("model");
+		requestHeader.setDownloadCursor(DownloadCursor.ofSequence(sequenceNo));
+		requestHeader.setLimit(100);
+		return requestHeader;
+	}
+
+	/**
+	 * 共通データと通番の組から変更ジャーナルのListを生成するヘルパー.
+	 *
+	 * @param commonsAndSequenceNos 共通データと通番を交互に並べた配列
+	 * @return 変更ジャーナルのList
+	 */
+	private List<ChangeJournal> createJournals(Object... commonsAndSequenceNos) {
+
+		List<ChangeJournal> journals = new ArrayList<>();
+		for (int i = 0; i < commonsAndSequenceNos.length; i += 2) {
+			ChangeJournal journal = new ChangeJournal((CommonData) commonsAndSequenceNos[i], 0L);
+			Deencapsulation.setField(journal, "sequenceNo", commonsAndSequenceNos[i + 1]);
+			journals.add(journal);
+		}
+		return journals;
+	}
+}
@@ -10,8 +10,9 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,9 +24,12 @@ import org.junit.Test;
 import com.htmlhifive.sync.exception.ConflictException;
 import com.htmlhifive.sync.exception.DuplicateElementException;
 import com.htmlhifive.sync.exception.NotFoundException;
+import com.htmlhifive.sync.resource.DownloadCache;
+import com.htmlhifive.sync.resource.EncodedElementCache;
 import com.htmlhifive.sync.resource.LockManager;
 import com.htmlhifive.sync.resource.UpdateStrategy;
 import com.htmlhifive.sync.resource.SyncMethod;
+import com.htmlhifive.sync.resource.SyncPage;
 import com.htmlhifive.sync.resource.SyncProvider;
 import com.htmlhifive.sync.resource.SyncRequestHeader;
 import com.htmlhifive.sync.resource.SyncResourceService;
@@ -286,6 +290,7 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 				setField(target, "lockManager", lockManager);
 
 				syncProvider.getCommonData(requestHeader);
@@ -332,6 +337,7 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 
 				syncProvider.getCommonData(requestHeader);
 				result = new NotFoundException("CommonDataNotFound");
@@ -376,24 +382,14 @@ public class SeparatedCommonDataSyncResourceTest {
 		final SyncResponseHeader expectedResponseHeader1 = new SyncResponseHeader(resourceIdStr1);
 		final SyncResponseHeader expectedResponseHeader2 = new SyncResponseHeader(resourceIdStr2);
 
-		@SuppressWarnings("serial")
-		final Map<String, SyncResponseHeader> expectedResponseHeaderMap = new HashMap<String, SyncResponseHeader>() {
-			{
-				put(resourceIdStr1, expectedResponseHeader1);
-				put(resourceIdStr2, expectedResponseHeader2);
-			}
-		};
+		final SyncPage<SyncResponseHeader> expectedResponseHeaderPage = new SyncPage<>(Arrays.asList(
+				expectedResponseHeader1, expectedResponseHeader2), null);
 
 		final SyncResponse<?> expectedResponse1 = new SyncResponse<>(expectedResponseHeader1, expectedElement1);
 		final SyncResponse<?> expectedResponse2 = new SyncResponse<>(expectedResponseHeader2, expectedElement2);
 
-		@SuppressWarnings("serial")
-		final Set<? extends SyncResponse<?>> expectedResponseSet = new HashSet<SyncResponse<?>>() {
-			{
-				add(expectedResponse1);
-				add(expectedResponse2);
-			}
-		};
+		final SyncPage<? extends SyncResponse<?>> expectedResponsePage = new SyncPage<>(Arrays.asList(
+				expectedResponse1, expectedResponse2), null);
 
 		new Expectations() {
 			SyncProvider syncProvider;
@@ -401,23 +397,92 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 				setField(target, "lockManager", lockManager);
+				setField(target, "downloadCache", new DownloadCache());
+
+				syncProvider.getWatermark((String) any);
+				result = 1L;
 
 				syncProvider.getCommonDataModifiedSince(requestHeader);
-				result = expectedResponseHeaderMap;
+				result = expectedResponseHeaderPage;
+
+				// ロックは取得しない
+			}
+		};
+
+		// Act
+		SyncPage<? extends SyncResponse<?>> actual = target.getModifiedSince(requestHeader);
 
-				lockManager.lock(requestHeader, expectedResponseHeader1);
+		// Assert：結果が正しいこと
+		assertEqualsHelper(actual, expectedResponsePage);
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncResource#lockAll(SyncRequestHeader, List)}用テストメソッド.<br>
+	 * 同期レスポンスのヘッダをまとめて、1回でロックを取得する.
+	 */
+	@Test
+	public void testLockAll(@Mocked final SyncRequestHeader requestHeader) {
+
+		// Arrange：正常系
+		final SeparatedCommonDataSyncResource<?, ?> target = new TargetSubClass();
+
+		final SyncResponseHeader responseHeader1 = new SyncResponseHeader("test1");
+		final SyncResponseHeader responseHeader2 = new SyncResponseHeader("test2");
+
+		new Expectations() {
+			LockManager lockManager;
+			{
+				setField(target, "lockManager", lockManager);
+
+				lockManager.lockAll(requestHeader, Arrays.asList(responseHeader1, responseHeader2));
 				result = true;
-				lockManager.lock(requestHeader, expectedResponseHeader2);
+			}
+		};
+
+		// Act
+		boolean actual = target.lockAll(requestHeader, Arrays.asList(new SyncResponse<>(responseHeader1,
+				new Object()), new SyncResponse<>(responseHeader2, new Object())));
+
+		// Assert：全てのロックを取得できること
+		assertThat(actual, is(true));
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncResource#lockAll(SyncRequestHeader, List)}用テストメソッド.<br>
+	 * 一括取得できなかった場合は1件ずつ取得し、取得できないロックがあることを返す.
+	 */
+	@Test
+	public void testLockAllFallsBackToEachLock(@Mocked final SyncRequestHeader requestHeader) {
+
+		// Arrange：正常系(test2は他のクライアントがロックを保持)
+		final SeparatedCommonDataSyncResource<?, ?> target = new TargetSubClass();
+
+		final SyncResponseHeader responseHeader1 = new SyncResponseHeader("test1");
+		final SyncResponseHeader responseHeader2 = new SyncResponseHeader("test2");
+
+		new Expectations() {
+			LockManager lockManager;
+			{
+				setField(target, "lockManager", lockManager);
+
+				lockManager.lockAll(requestHeader, Arrays.asList(responseHeader1, responseHeader2));
+				result = false;
+
+				lockManager.lock(requestHeader, responseHeader1);
 				result = true;
+				lockManager.lock(requestHeader, responseHeader2);
+				result = false;
 			}
 		};
 
 		// Act
-		Set<? extends SyncResponse<?>> actual = target.getModifiedSince(requestHeader);
+		boolean actual = target.lockAll(requestHeader, Arrays.asList(new SyncResponse<>(responseHeader1,
+				new Object()), new SyncResponse<>(responseHeader2, new Object())));
 
-		// Assert：結果が正しいこと
-		assertEqualsHelper(actual, expectedResponseSet);
+		// Assert：取得できないロックがあること
+		assertThat(actual, is(false));
 	}
 
 	/**
@@ -435,52 +500,82 @@ public class SeparatedCommonDataSyncResourceTest {
 	}
 
 	/**
-	 * {@link SeparatedCommonDataSyncResource#getModifiedSince(SyncRequestHeader)}用テストメソッド.<br>
-	 * 1件でもSyncProviderからNotFoundExceptionがスローされた場合、catchせず上げる.
+	 * {@link SeparatedCommonDataSyncResource#lockAll(SyncRequestHeader, List)}用テストメソッド.<br>
+	 * 1件でもLockManagerからNotFoundExceptionがスローされた場合、catchせず上げる.
 	 */
 	@Test(expected = NotFoundException.class)
-	public void testCannotGetModifiedSinceBecauseOfNotFoundException(@Mocked final SyncRequestHeader requestHeader) {
+	public void testCannotLockAllBecauseOfNotFoundException(@Mocked final SyncRequestHeader requestHeader) {
 
 		// Arrange：異常系
-		final String resourceIdStr1 = "test1";
-		final Object expectedElement1 = new Object();
-		final String resourceIdStr2 = "test2";
-
-		final SeparatedCommonDataSyncResource<?, ?> target = new TargetSubClass(new String[] { resourceIdStr1,
-				resourceIdStr2 }, new Object[] { expectedElement1, null });
-
-		final SyncResponseHeader expectedResponseHeader1 = new SyncResponseHeader(resourceIdStr1);
+		final SeparatedCommonDataSyncResource<?, ?> target = new TargetSubClass();
 
-		final SyncResponseHeader expectedResponseHeader2 = new SyncResponseHeader(resourceIdStr2);
+		final SyncResponseHeader responseHeader1 = new SyncResponseHeader("test1");
+		final SyncResponseHeader responseHeader2 = new SyncResponseHeader("test2");
 
-		@SuppressWarnings("serial")
-		final Map<String, SyncResponseHeader> expectedResponseHeaderMap = new HashMap<String, SyncResponseHeader>() {
+		new Expectations() {
+			LockManager lockManager;
 			{
-				put(resourceIdStr1, expectedResponseHeader1);
-				put(resourceIdStr2, expectedResponseHeader2);
+				setField(target, "lockManager", lockManager);
+
+				lockManager.lockAll(requestHeader, Arrays.asList(responseHeader1, responseHeader2));
+				result = new NotFoundException("CommonDataNotFound");
 			}
 		};
 
+		// Act
+		target.lockAll(requestHeader, Arrays.asList(new SyncResponse<>(responseHeader1, new Object()),
+				new SyncResponse<>(responseHeader2, new Object())));
+	}
+
+	/**
+	 * {@link SeparatedCommonDataSyncResource#getModifiedSince(SyncRequestHeader)}用テストメソッド.<br>
+	 * ウォーターマークが変わらない間の同じリクエストには、キャッシュしたページを返す.
+	 */
+	@Test
+	public void testGetModifiedSinceReturnsCachedPage() {
+
+		// Arrange：正常系
+		final String resourceIdStr = "test1";
+		final Object expectedElement = new Object();
+
+		final SeparatedCommonDataSyncResource<?, ?> target = new TargetSubClass(resourceIdStr, expectedElement);
+
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 0L);
+		requestHeader.setDataModelName("test");
+
+		final SyncResponseHeader expectedResponseHeader = new SyncResponseHeader(resourceIdStr);
+		final SyncPage<SyncResponseHeader> expectedResponseHeaderPage = new SyncPage<>(
+				Arrays.asList(expectedResponseHeader), null);
+
 		new Expectations() {
 			SyncProvider syncProvider;
 			LockManager lockManager;
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 				setField(target, "lockManager", lockManager);
+				setField(target, "downloadCache", new DownloadCache());
 
+				syncProvider.getWatermark("test");
+				result = 1L;
+
+				// 共通データの取得は1回のみ
 				syncProvider.getCommonDataModifiedSince(requestHeader);
-				result = expectedResponseHeaderMap;
+				result = expectedResponseHeaderPage;
 
-				lockManager.lock(requestHeader, expectedResponseHeader1);
-				result = true;
-				lockManager.lock(requestHeader, expectedResponseHeader2);
-				result = new NotFoundException("CommonDataNotFound");
+				syncProvider.getWatermark("test");
+				result = 1L;
 			}
 		};
 
 		// Act
-		target.getModifiedSince(requestHeader);
+		SyncPage<? extends SyncResponse<?>> first = target.getModifiedSince(requestHeader);
+		SyncPage<? extends SyncResponse<?>> second = target.getModifiedSince(requestHeader);
+
+		// Assert：同じページが返されること
+		assertThat(second.getContents().get(0).getElement(), is(expectedElement));
+		assertEqualsHelper(second, first);
 	}
 
 	//	 TODO:悲観的ロック対応
@@ -525,6 +620,7 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 				setField(target, "lockManager", lockManager);
 				setField(target, "updateStrategy", updateStrategy);
 
@@ -534,9 +630,11 @@ public class SeparatedCommonDataSyncResourceTest {
 				lockManager.canUpdate(requestHeader, expectedResponseHeaderBeforeUpdate);
 				result = true;
 
-				syncProvider.saveUpdatedCommonData(requestHeader);
+				syncProvider.compareAndSaveUpdatedCommonData(requestHeader, 0L);
 				result = expectedResponseHeaderAfterUpdate;
 
+				updateStrategy.elementSaved(expectedResponseHeaderAfterUpdate, updateElement);
+
 				lockManager.release(requestHeader, expectedResponseHeaderAfterUpdate);
 			}
 		};
@@ -588,6 +686,7 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 
 				syncProvider.getCommonData(requestHeader);
 				result = new NotFoundException("CommonDataNotFound");
@@ -627,6 +726,7 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 				setField(target, "lockManager", lockManager);
 				setField(target, "updateStrategy", updateStrategy);
 
@@ -680,6 +780,7 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 				setField(target, "lockManager", lockManager);
 
 				syncProvider.getCommonData(requestHeader);
@@ -688,7 +789,7 @@ public class SeparatedCommonDataSyncResourceTest {
 				lockManager.canUpdate(requestHeader, expectedResponseHeaderBeforeDelete);
 				result = true;
 
-				syncProvider.saveUpdatedCommonData(requestHeader);
+				syncProvider.compareAndSaveUpdatedCommonData(requestHeader, 0L);
 				result = expectedResponseHeaderAfterDelete;
 
 				lockManager.release(requestHeader, expectedResponseHeaderAfterDelete);
@@ -739,6 +840,7 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 
 				syncProvider.getCommonData(requestHeader);
 				result = new NotFoundException("CommonDataNotFound");
@@ -777,6 +879,7 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 				setField(target, "lockManager", lockManager);
 				setField(target, "updateStrategy", updateStrategy);
 
@@ -834,12 +937,19 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 				setField(target, "lockManager", lockManager);
 				setField(target, "updateStrategy", updateStrategy);
 
 				syncProvider.getCommonData(requestHeader);
 				result = expectedResponseHeaderBeforeUpdate;
 
+				requestHeader.getSyncMethod();
+				result = SyncMethod.DELETE;
+
+				requestHeader.getLastModified();
+				result = 0L;
+
 				lockManager.canUpdate(requestHeader, expectedResponseHeaderBeforeUpdate);
 				result = false;
 
@@ -850,9 +960,11 @@ public class SeparatedCommonDataSyncResourceTest {
 				// リクエストヘッダが書き換えられる
 				requestHeader.setSyncMethod(SyncMethod.PUT);
 
-				syncProvider.saveUpdatedCommonData(requestHeader);
+				syncProvider.compareAndSaveUpdatedCommonData(requestHeader, 0L);
 				result = expectedResponseHeaderAfterUpdate;
 
+				updateStrategy.elementSaved(expectedResponseHeaderAfterUpdate, putElement);
+
 				lockManager.release(requestHeader, expectedResponseHeaderAfterUpdate);
 			}
 		};
@@ -886,13 +998,18 @@ public class SeparatedCommonDataSyncResourceTest {
 		new Expectations() {
 			SyncProvider syncProvider;
 			LockManager lockManager;
+			UpdateStrategy updateStrategy;
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 				setField(target, "lockManager", lockManager);
+				setField(target, "updateStrategy", updateStrategy);
 
 				syncProvider.saveNewCommonData(requestHeader, expectedResourceIdStr);
 				result = expectedResponseHeader;
+
+				updateStrategy.elementSaved(expectedResponseHeader, createElement);
 			}
 		};
 
@@ -949,6 +1066,7 @@ public class SeparatedCommonDataSyncResourceTest {
 			{
 
 				setField(target, "syncProvider", syncProvider);
+				setField(target, "encodedElementCache", new EncodedElementCache());
 
 				requestHeader.getDataModelName();
 				result = any;
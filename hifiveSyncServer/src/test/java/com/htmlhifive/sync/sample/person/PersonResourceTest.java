@@ -0,0 +1,391 @@
+/**
+ *
+ */
+package com.htmlhifive.sync.sample.person;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mockit.Expectations;
+
+import org.junit.Test;
+
+import com.htmlhifive.sync.exception.NotFoundException;
+import com.htmlhifive.sync.resource.DownloadCache;
+import com.htmlhifive.sync.resource.LockManager;
+import com.htmlhifive.sync.resource.SyncMethod;
+import com.htmlhifive.sync.resource.SyncPage;
+import com.htmlhifive.sync.resource.SyncProvider;
+import com.htmlhifive.sync.resource.SyncQueryFilter;
+import com.htmlhifive.sync.resource.SyncRequestHeader;
+import com.htmlhifive.sync.resource.SyncResponse;
+import com.htmlhifive.sync.resource.SyncResponseHeader;
+import com.htmlhifive.sync.resource.UpdateStrategy;
+import com.htmlhifive.sync.resource.UploadPrediction;
+
+/**
+ * <H3>PersonResourceのテストクラス.</H3>
+ *
+ * @author kishigam
+ */
+public class PersonResourceTest {
+
+	/**
+	 * {@link PersonResource#getModifiedSince(SyncRequestHeader)}用テストメソッド.<br>
+	 * エンティティはバッチサイズごとに1回のIN検索で取得され、1件ずつの検索は発行されない.
+	 */
+	@Test
+	public void testGetModifiedSinceLoadsElementsInBatches() {
+
+		// Arrange：正常系(5件をバッチサイズ2で取得)
+		final PersonResource target = new PersonResource();
+
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 0L);
+		final SyncPage<SyncResponseHeader> responseHeaderPage = createResponseHeaderPage("p1", "p2", "p3", "p4",
+				"p5");
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			LockManager lockManager;
+			PersonRepository repository;
+			{
+				setField(target, "syncProvider", syncProvider);
+				setField(target, "lockManager", lockManager);
+				setField(target, "repository", repository);
+				setField(target, "batchSize", 2);
+				setField(target, "downloadCache", new DownloadCache());
+
+				syncProvider.getWatermark((String) any);
+				result = 1L;
+
+				syncProvider.getCommonDataModifiedSince(requestHeader);
+				result = responseHeaderPage;
+
+				// 発行される検索は3回のみ
+				repository.findByIdIn(Arrays.asList("p1", "p2"));
+				result = createBeans("p1", "p2");
+				repository.findByIdIn(Arrays.asList("p3", "p4"));
+				result = createBeans("p3", "p4");
+				repository.findByIdIn(Arrays.asList("p5"));
+				result = createBeans("p5");
+			}
+		};
+
+		// Act
+		SyncPage<SyncResponse<PersonResourceElement>> actual = target.getModifiedSince(requestHeader);
+
+		// Assert：全件のエレメントが共通データの順に取得されていること
+		assertThat(actual.getContents().size(), is(5));
+		for (int i = 0; i < 5; i++) {
+			SyncResponse<PersonResourceElement> response = actual.getContents().get(i);
+			assertThat(response.getElement(), notNullValue());
+			assertThat(response.getElement().getId(), is("p" + (i + 1)));
+		}
+	}
+
+	/**
+	 * {@link PersonResource#getModifiedSince(SyncRequestHeader)}用テストメソッド.<br>
+	 * 削除された共通データはエンティティを検索せず、エレメントがnullのトゥームストーンとして返される.
+	 */
+	@Test
+	public void testGetModifiedSinceReturnsTombstones() {
+
+		// Arrange：正常系(p2が削除済み)
+		final PersonResource target = new PersonResource();
+
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 1L);
+		final SyncPage<SyncResponseHeader> responseHeaderPage = createResponseHeaderPage("p1", "p2", "p3");
+		responseHeaderPage.getContents().get(1).setSyncMethod(SyncMethod.DELETE);
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			LockManager lockManager;
+			PersonRepository repository;
+			{
+				setField(target, "syncProvider", syncProvider);
+				setField(target, "lockManager", lockManager);
+				setField(target, "repository", repository);
+				setField(target, "downloadCache", new DownloadCache());
+
+				syncProvider.getWatermark((String) any);
+				result = 1L;
+
+				syncProvider.getCommonDataModifiedSince(requestHeader);
+				result = responseHeaderPage;
+
+				// 削除済みのp2は検索しない
+				repository.findByIdIn(Arrays.asList("p1", "p3"));
+				result = createBeans("p1", "p3");
+			}
+		};
+
+		// Act
+		SyncPage<SyncResponse<PersonResourceElement>> actual = target.getModifiedSince(requestHeader);
+
+		// Assert：トゥームストーンが共通データの順に含まれること
+		assertThat(actual.getContents().size(), is(3));
+		assertThat(actual.getContents().get(0).getElement().getId(), is("p1"));
+		assertThat(actual.getContents().get(1).getHeader().getSyncMethod(), is(SyncMethod.DELETE));
+		assertThat(actual.getContents().get(1).getElement(), nullValue());
+		assertThat(actual.getContents().get(2).getElement().getId(), is("p3"));
+	}
+
+	/**
+	 * {@link PersonResource#getModifiedSince(SyncRequestHeader)}用テストメソッド.<br>
+	 * 組織のクエリが指定された場合、クエリフィルタを指定して共通データを検索する.
+	 */
+	@Test
+	public void testGetModifiedSinceAppliesQueryFilter() {
+
+		// Arrange：正常系
+		final PersonResource target = new PersonResource();
+
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 1L);
+		Map<String, String[]> queryMap = new HashMap<>();
+		queryMap.put("organization", new String[] { "org1", "org2" });
+		requestHeader.setQueryMap(queryMap);
+
+		final SyncPage<SyncResponseHeader> responseHeaderPage = createResponseHeaderPage("p1");
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			LockManager lockManager;
+			PersonRepository repository;
+			{
+				setField(target, "syncProvider", syncProvider);
+				setField(target, "lockManager", lockManager);
+				setField(target, "repository", repository);
+				setField(target, "downloadCache", new DownloadCache());
+
+				syncProvider.getWatermark((String) any);
+				result = 1L;
+
+				// 組織の条件を持つフィルタで共通データを検索する
+				syncProvider.getCommonDataModifiedSince(requestHeader, withInstanceOf(SyncQueryFilter.class));
+				result = responseHeaderPage;
+				forEachInvocation = new Object() {
+					@SuppressWarnings("unused")
+					void validate(SyncRequestHeader header, SyncQueryFilter queryFilter) {
+						assertThat(queryFilter.toExistsClause("d").contains("e.organization IN :qOrganizations"), is(true));
+						assertThat(queryFilter.getParameters().get("qOrganizations"),
+								is((Object) Arrays.asList("org1", "org2")));
+					}
+				};
+
+				repository.findByIdIn(Arrays.asList("p1"));
+				result = createBeans("p1");
+			}
+		};
+
+		// Act
+		SyncPage<SyncResponse<PersonResourceElement>> actual = target.getModifiedSince(requestHeader);
+
+		// Assert
+		assertThat(actual.getContents().size(), is(1));
+	}
+
+	/**
+	 * {@link PersonResource#getModifiedSince(SyncRequestHeader)}用テストメソッド.<br>
+	 * 共通データに対応するエンティティが存在しない場合、NotFoundExceptionがスローされる.
+	 */
+	@Test(expected = NotFoundException.class)
+	public void testCannotGetModifiedSinceBecauseOfMissingEntity() {
+
+		// Arrange：異常系
+		final PersonResource target = new PersonResource();
+
+		final SyncRequestHeader requestHeader = new SyncRequestHeader(SyncMethod.GET, "storage1", 0L);
+		final SyncPage<SyncResponseHeader> responseHeaderPage = createResponseHeaderPage("p1", "p2");
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			LockManager lockManager;
+			PersonRepository repository;
+			{
+				setField(target, "syncProvider", syncProvider);
+				setField(target, "lockManager", lockManager);
+				setField(target, "repository", repository);
+				setField(target, "downloadCache", new DownloadCache());
+
+				syncProvider.getWatermark((String) any);
+				result = 1L;
+
+				syncProvider.getCommonDataModifiedSince(requestHeader);
+				result = responseHeaderPage;
+
+				repository.findByIdIn(Arrays.asList("p1", "p2"));
+				result = createBeans("p1");
+			}
+		};
+
+		// Act
+		target.getModifiedSince(requestHeader);
+	}
+
+	/**
+	 * {@link PersonResource#prepareUpload(List)}用テストメソッド.<br>
+	 * 共通データをまとめて取得し、更新、削除対象のエンティティのみを1回のIN検索で取得する.
+	 */
+	@Test
+	public void testPrepareUploadPrefetchesEntitiesInBatches() {
+
+		// Arrange：正常系(p1の更新、p2の削除、p3の新規登録、p4の削除済みデータの更新)
+		final PersonResource target = new PersonResource();
+
+		final List<SyncRequestHeader> requestHeaders = Arrays.asList(createUploadHeader(SyncMethod.PUT, "s1"),
+				createUploadHeader(SyncMethod.DELETE, "s2"), createUploadHeader(SyncMethod.POST, null),
+				createUploadHeader(SyncMethod.PUT, "s4"));
+
+		final Map<String, SyncResponseHeader> responseHeaderMap = new HashMap<>();
+		for (SyncResponseHeader responseHeader : createResponseHeaderPage("p1", "p2", "p4").getContents()) {
+			responseHeaderMap.put("s" + responseHeader.getResourceIdStr().substring(
+					PersonResource.class.getName().length() + 1), responseHeader);
+		}
+		responseHeaderMap.get("s4").setSyncMethod(SyncMethod.DELETE);
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			LockManager lockManager;
+			UpdateStrategy updateStrategy;
+			PersonRepository repository;
+			{
+				setField(target, "syncProvider", syncProvider);
+				setField(target, "lockManager", lockManager);
+				setField(target, "updateStrategy", updateStrategy);
+				setField(target, "repository", repository);
+
+				syncProvider.prefetchCommonData(requestHeaders);
+				result = responseHeaderMap;
+
+				updateStrategy.canResolveConflict();
+				result = false;
+
+				// 新規登録以外の3件について競合を予測する
+				lockManager.predictConflicts(
+						Arrays.asList(requestHeaders.get(0), requestHeaders.get(1), requestHeaders.get(3)),
+						responseHeaderMap);
+				result = new UploadPrediction();
+
+				// 削除済みのp4と新規登録は検索しない
+				repository.findByIdIn(Arrays.asList("p1", "p2"));
+			}
+		};
+
+		// Act
+		UploadPrediction actual = target.prepareUpload(requestHeaders);
+
+		// Assert：競合が予測されたリクエストはないこと
+		assertThat(actual.hasCertainConflict(), is(false));
+		assertThat(actual.getPossibleConflicts().isEmpty(), is(true));
+	}
+
+	/**
+	 * {@link PersonResource#prepareUpload(List)}用テストメソッド.<br>
+	 * 更新戦略が競合を解決しない場合、ロックマネージャが予測した競合を返す.
+	 */
+	@Test
+	public void testPrepareUploadReturnsCertainConflicts() {
+
+		// Arrange：正常系(p1の更新が競合、p2の更新は更新可能)
+		final PersonResource target = new PersonResource();
+
+		final SyncRequestHeader conflictedHeader = createUploadHeader(SyncMethod.PUT, "s1");
+		final SyncRequestHeader updatableHeader = createUploadHeader(SyncMethod.PUT, "s2");
+		final List<SyncRequestHeader> requestHeaders = Arrays.asList(conflictedHeader, updatableHeader);
+
+		final UploadPrediction prediction = new UploadPrediction();
+		prediction.addCertainConflict(conflictedHeader);
+
+		final Map<String, SyncResponseHeader> responseHeaderMap = new HashMap<>();
+		for (SyncResponseHeader responseHeader : createResponseHeaderPage("p1", "p2").getContents()) {
+			responseHeaderMap.put("s" + responseHeader.getResourceIdStr().substring(
+					PersonResource.class.getName().length() + 1), responseHeader);
+		}
+
+		new Expectations() {
+			SyncProvider syncProvider;
+			LockManager lockManager;
+			UpdateStrategy updateStrategy;
+			PersonRepository repository;
+			{
+				setField(target, "syncProvider", syncProvider);
+				setField(target, "lockManager", lockManager);
+				setField(target, "updateStrategy", updateStrategy);
+				setField(target, "repository", repository);
+
+				syncProvider.prefetchCommonData(requestHeaders);
+				result = responseHeaderMap;
+
+				updateStrategy.canResolveConflict();
+				result = false;
+
+				lockManager.predictConflicts(requestHeaders, responseHeaderMap);
+				result = prediction;
+
+				// 競合が予測されても、サーバのエレメントを返すためにエンティティは取得する
+				repository.findByIdIn(Arrays.asList("p1", "p2"));
+			}
+		};
+
+		// Act
+		UploadPrediction actual = target.prepareUpload(requestHeaders);
+
+		// Assert：競合するリクエストのみが確実な競合として返されること
+		assertThat(actual.getCertainConflicts().size(), is(1));
+		assertThat(actual.getCertainConflicts().get(0), is(sameInstance(conflictedHeader)));
+		assertThat(actual.getPossibleConflicts().isEmpty(), is(true));
+	}
+
+	/**
+	 * 上り更新の同期リクエストヘッダを生成するヘルパー.
+	 *
+	 * @param syncMethod 同期メソッド
+	 * @param syncDataId 同期データID
+	 * @return 同期リクエストヘッダ
+	 */
+	private SyncRequestHeader createUploadHeader(SyncMethod syncMethod, String syncDataId) {
+
+		SyncRequestHeader requestHeader = new SyncRequestHeader(syncMethod, "storage1", 1L);
+		requestHeader.setSyncDataId(syncDataId);
+		return requestHeader;
+	}
+
+	/**
+	 * 指定したPersonのIDに対応する共通データのページを生成するヘルパー.
+	 *
+	 * @param ids PersonのID
+	 * @return レスポンスヘッダのページ
+	 */
+	private SyncPage<SyncResponseHeader> createResponseHeaderPage(String... ids) {
+
+		List<SyncResponseHeader> responseHeaders = new ArrayList<>();
+		for (String id : ids) {
+			responseHeaders.add(new SyncResponseHeader(PersonResource.class.getName() + id));
+		}
+		return new SyncPage<>(responseHeaders, null);
+	}
+
+	/**
+	 * 指定したIDのPersonエンティティのListを生成するヘルパー.
+	 *
+	 * @param ids PersonのID
+	 * @return PersonエンティティのList
+	 */
+	private List<PersonBean> createBeans(String... ids) {
+
+		List<PersonBean> beans = new ArrayList<>();
+		for (String id : ids) {
+			beans.add(new PersonBean(id));
+		}
+		return beans;
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ *
+ */
+package com.htmlhifive.sync.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import mockit.Delegate;
+import mockit.Expectations;
+
+import org.junit.Test;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import com.htmlhifive.sync.exception.ConflictException;
+import com.htmlhifive.sync.jsonctrl.SyncAction;
+import com.htmlhifive.sync.jsonctrl.upload.UploadRequestMessage;
+import com.htmlhifive.sync.resource.SyncRequestHeader;
+import com.htmlhifive.sync.resource.SyncResource;
+import com.htmlhifive.sync.resource.SyncResourceManager;
+import com.htmlhifive.sync.resource.SyncResponse;
+import com.htmlhifive.sync.resource.SyncResponseHeader;
+import com.htmlhifive.sync.resource.UploadPrediction;
+
+/**
+ * <H3>SynchronizerImplのテストクラス.</H3>
+ *
+ * @author kishigam
+ */
+public class SynchronizerImplTest {
+
+	/**
+	 * {@link SynchronizerImpl#syncUpload(String, List)}用テストメソッド.<br>
+	 * 確実な競合が予測された場合、競合するメッセージのみを処理し、他のメッセージの書き込みを行わない.
+	 */
+	@Test
+	public void testSyncUploadSkipsWritesWhenConflictIsCertain() throws Exception {
+
+		// Arrange：正常系(s1の更新は競合しない、s2の削除が確実に競合する)
+		final SynchronizerImpl target = new SynchronizerImpl();
+
+		List<UploadRequestMessage<?>> requestMessages = Arrays.<UploadRequestMessage<?>> asList(
+				createMessage(SyncAction.UPDATE, "s1", "a"), createMessage(SyncAction.DELETE, "s2", null));
+
+		final SyncResponse<String> conflictedResponse = new SyncResponse<>(new SyncResponseHeader("p2"), "server");
+
+		new Expectations() {
+			SyncResourceManager resourceManager;
+			SyncResource<String> resource;
+			TransactionAspectSupport transactionAspectSupport;
+			TransactionStatus status;
+			{
+				setField(target, "resourceManager", resourceManager);
+
+				resourceManager.locateSyncResource("person");
+				result = resource;
+				resource.prepareUpload(withInstanceOf(List.class));
+				result = new Delegate() {
+					@SuppressWarnings("unused")
+					UploadPrediction prepareUpload(List<SyncRequestHeader> requestHeaders) {
+						UploadPrediction prediction = new UploadPrediction();
+						prediction.addCertainConflict(requestHeaders.get(1));
+						return prediction;
+					}
+				};
+
+				// 競合しないs1の更新は呼び出さない
+				resourceManager.locateSyncResource("person");
+				result = resource;
+				resource.delete(withInstanceOf(SyncRequestHeader.class));
+				result = new ConflictException("resource element has updated.", conflictedResponse);
+
+				TransactionAspectSupport.currentTransactionStatus();
+				result = status;
+				status.setRollbackOnly();
+			}
+		};
+
+		// Act
+		SyncUploadResult actual = target.syncUpload("storage1", requestMessages);
+
+		// Assert：競合結果のみが返されること
+		assertThat(actual.getResultType(), is(SyncResultType.UPDATED));
+		assertThat(actual.getResultDataSet().size(), is(1));
+		assertThat(actual.getResultDataSet().contains(conflictedResponse), is(true));
+	}
+
+	/**
+	 * {@link SynchronizerImpl#syncUpload(String, List)}用テストメソッド.<br>
+	 * ロックにより競合が予測されただけの場合は、実際に競合が発生するまで全てのメッセージを処理する.
+	 */
+	@Test
+	public void testSyncUploadProcessesAllMessagesWhenConflictIsPossible() throws Exception {
+
+		// Arrange：正常系(s1の更新は競合しない、s2の削除が他のクライアントのロックにより競合する)
+		final SynchronizerImpl target = new SynchronizerImpl();
+
+		List<UploadRequestMessage<?>> requestMessages = Arrays.<UploadRequestMessage<?>> asList(
+				createMessage(SyncAction.UPDATE, "s1", "a"), createMessage(SyncAction.DELETE, "s2", null));
+
+		final SyncResponse<String> updatedResponse = new SyncResponse<>(new SyncResponseHeader("p1"), "a");
+		final SyncResponse<String> conflictedResponse = new SyncResponse<>(new SyncResponseHeader("p2"), "server");
+
+		new Expectations() {
+			SyncResourceManager resourceManager;
+			SyncResource<String> resource;
+			TransactionAspectSupport transactionAspectSupport;
+			TransactionStatus status;
+			{
+				setField(target, "resourceManager", resourceManager);
+
+				resourceManager.locateSyncResource("person");
+				result = resource;
+				resource.prepareUpload(withInstanceOf(List.class));
+				result = new Delegate() {
+					@SuppressWarnings("unused")
+					UploadPrediction prepareUpload(List<SyncRequestHeader> requestHeaders) {
+						UploadPrediction prediction = new UploadPrediction();
+						prediction.addPossibleConflict(requestHeaders.get(1));
+						return prediction;
+					}
+				};
+
+				resourceManager.locateSyncResource("person");
+				result = resource;
+				resource.getElementType();
+				result = String.class;
+				resource.put(withInstanceOf(SyncRequestHeader.class), "a");
+				result = updatedResponse;
+
+				resourceManager.locateSyncResource("person");
+				result = resource;
+				resource.delete(withInstanceOf(SyncRequestHeader.class));
+				result = new ConflictException("resource element has updated.", conflictedResponse);
+
+				TransactionAspectSupport.currentTransactionStatus();
+				result = status;
+				status.setRollbackOnly();
+			}
+		};
+
+		// Act
+		SyncUploadResult actual = target.syncUpload("storage1", requestMessages);
+
+		// Assert：ロールバックされるOKの結果は除去され、競合結果のみが返されること
+		assertThat(actual.getResultType(), is(SyncResultType.UPDATED));
+		assertThat(actual.getResultDataSet().size(), is(1));
+		assertThat(actual.getResultDataSet().contains(conflictedResponse), is(true));
+	}
+
+	/**
+	 * 上り更新のリクエストメッセージを生成するヘルパー.
+	 *
+	 * @param action アクション
+	 * @param syncDataId 同期データID
+	 * @param element エレメント
+	 * @return 上り更新のリクエストメッセージ
+	 */
+	private UploadRequestMessage<String> createMessage(SyncAction action, String syncDataId, String element) {
+
+		UploadRequestMessage<String> message = new UploadRequestMessage<>();
+		message.setDataModelName("person");
+		message.setAction(action);
+		message.setSyncDataId(syncDataId);
+		message.setLastModified(10L);
+		message.setElement(element);
+		return message;
+	}
+}
@@ -19,6 +19,9 @@ import org.springframework.context.annotation.ComponentScan;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
 
 /**
  * <H3>LastUploadStatusServiceのテストクラス.</H3>
@@ -204,4 +207,91 @@ public class LastUploadStatusServiceTest {
 
 		// Assert：結果が正しいこと
 	}
+
+	/**
+	 * {@link LastUploadStatusService#currentStatus(String)}用テストメソッド.<br>
+	 * 2回目以降はキャッシュから返され、保存は検索せずに更新クエリで行われる.
+	 */
+	@Test
+	public void testCurrentStatusFromCache() {
+
+		// Arrange：正常系
+		final LastUploadStatusService target = new LastUploadStatusService();
+
+		final String storageId = "storage1";
+		final LastUploadStatus savedStatus = new LastUploadStatus(storageId);
+		savedStatus.setLastUploadTime(100L);
+
+		new Expectations() {
+			{
+				setField(target, repository);
+
+				// 検索は1回のみ
+				repository.findOne(storageId);
+				result = savedStatus;
+				times = 1;
+
+				repository.updateLastUploadTime(storageId, 200L);
+				result = 1;
+			}
+		};
+
+		// Act
+		target.currentStatus(storageId);
+		LastUploadStatus cachedStatus = target.currentStatus(storageId);
+		cachedStatus.setLastUploadTime(200L);
+		target.updateStatus(cachedStatus);
+
+		// Assert：保存した時刻がキャッシュから返されること
+		assertThat(target.currentStatus(storageId).getLastUploadTime(), is(200L));
+		assertThat(target.getHitCount(), is(2L));
+		assertThat(target.getMissCount(), is(1L));
+	}
+
+	/**
+	 * {@link LastUploadStatusService#updateStatus(LastUploadStatus)}用テストメソッド.<br>
+	 * トランザクションがロールバックされた場合、キャッシュから破棄され次回はリポジトリを検索する.
+	 */
+	@Test
+	public void testUpdateStatusEvictsOnRollback() {
+
+		// Arrange：正常系
+		final LastUploadStatusService target = new LastUploadStatusService();
+
+		final String storageId = "storage1";
+		final LastUploadStatus savedStatus = new LastUploadStatus(storageId);
+		savedStatus.setLastUploadTime(100L);
+
+		new Expectations() {
+			{
+				setField(target, repository);
+
+				repository.findOne(storageId);
+				result = savedStatus;
+
+				repository.save(savedStatus);
+
+				// ロールバック後は再度検索する
+				repository.findOne(storageId);
+				result = new LastUploadStatus(storageId);
+			}
+		};
+
+		// Act
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			LastUploadStatus status = target.currentStatus(storageId);
+			status.setLastUploadTime(200L);
+			target.updateStatus(status);
+
+			TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+					TransactionSynchronization.STATUS_ROLLED_BACK);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		// Assert：ロールバックされた時刻が返されないこと
+		assertThat(target.currentStatus(storageId).getLastUploadTime(), is(0L));
+		assertThat(target.getMissCount(), is(2L));
+	}
 }